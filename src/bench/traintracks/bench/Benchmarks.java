@@ -0,0 +1,35 @@
+package traintracks.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler on, so every result comes with its allocation rate
+ * (gc.alloc.rate.norm is bytes per operation) next to the throughput and the latency percentiles.
+ *
+ * The benchmarks need jmh-core on the classpath, and jmh-generator-annprocess as an annotation processor
+ * when compiling, which writes the harness classes. lib/README says where to get them. Compile src/java and
+ * src/bench together, then
+ *
+ *   java -cp <classes>:lib/*:<commons jars> traintracks.bench.Benchmarks [regex] [sizes]
+ *
+ * where regex picks the benchmarks to run (eg. QueryBenchmarks.shortestPath) and sizes is a comma separated
+ * list of node counts (eg. 1000,10000) in place of the default 1k, 10k, 100k and 1M.
+ */
+public class Benchmarks {
+
+	public static void main(String[] args) throws RunnerException {
+		OptionsBuilder options = new OptionsBuilder();
+		options.include(args.length > 0 ? args[0] : Benchmarks.class.getPackage().getName() + ".*");
+		if (args.length > 1) {
+			options.param("nodes", args[1].split(","));
+		}
+		options.addProfiler(GCProfiler.class);
+
+		Options built = options.build();
+		new Runner(built).run();
+	}
+}
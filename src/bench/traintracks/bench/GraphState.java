@@ -0,0 +1,90 @@
+package traintracks.bench;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import traintracks.graph.CompactGraph;
+import traintracks.graph.Graph;
+import traintracks.graph.Node;
+import traintracks.utils.NetworkGenerator;
+
+/**
+ * A network of the given size from NetworkGenerator, shared by every benchmark in a fork, along with the
+ * stations and itineraries the benchmarks take turns asking about. Everything is seeded, so every run sees
+ * the same network.
+ */
+@State(Scope.Benchmark)
+public class GraphState {
+
+	// How many different stations the benchmarks cycle through, so no one query gets lucky
+	private static final int QUERIES = 64;
+
+	// Stations on each of the itineraries for the Route benchmarks
+	private static final int ITINERARY_LENGTH = 5;
+
+	@Param({"1000", "10000", "100000", "1000000"})
+	public int nodes;
+
+	@Param({"3"})
+	public int degree;
+
+	public Graph graph;
+	public Node[] sources;
+	public Node[] targets;
+	public Node[][] itineraries;
+
+	// The same network as text, for the parser
+	public byte[] text;
+
+	private int next;
+
+	@Setup
+	public void setUp() throws IOException {
+		NetworkGenerator generator = new NetworkGenerator(nodes).averageDegree(degree).seed(42);
+		graph = generator.generate();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		generator.write(out);
+		text = out.toByteArray();
+
+		Random random = new Random(42);
+		CompactGraph snapshot = graph.freeze();
+
+		sources = new Node[QUERIES];
+		targets = new Node[QUERIES];
+		itineraries = new Node[QUERIES][];
+		for (int i = 0; i < QUERIES; i++) {
+			sources[i] = snapshot.getNode(random.nextInt(nodes));
+			targets[i] = snapshot.getNode(random.nextInt(nodes));
+			itineraries[i] = walk(snapshot, random.nextInt(nodes), random);
+		}
+	}
+
+	/**
+	 * @return The next query to run, going round all of them in turn
+	 */
+	public int nextQuery() {
+		next = (next + 1) % QUERIES;
+		return next;
+	}
+
+	// Follows random edges, so every itinerary is a real route
+	private static Node[] walk(CompactGraph snapshot, int start, Random random) {
+		List<Node> stops = new ArrayList<Node>();
+		int node = start;
+		stops.add(snapshot.getNode(node));
+		while (stops.size() < ITINERARY_LENGTH) {
+			int edges = snapshot.getEndEdge(node) - snapshot.getFirstEdge(node);
+			node = snapshot.getEdgeTarget(snapshot.getFirstEdge(node) + random.nextInt(edges));
+			stops.add(snapshot.getNode(node));
+		}
+		return stops.toArray(new Node[stops.size()]);
+	}
+}
@@ -0,0 +1,80 @@
+package traintracks.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import traintracks.graph.Graph;
+import traintracks.graph.Node;
+import traintracks.graph.Route;
+import traintracks.utils.GraphUtils;
+
+/**
+ * The old way of answering question 10, against the new one. permutationsUnderThreshold only looks at the
+ * distances of the cycles it is given, so the graph doesn't matter; what does is the threshold.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PermutationBenchmarks {
+
+	@Param({"30", "100"})
+	public int threshold;
+
+	private Graph graph;
+	private Node C;
+	private List<Route> cycles;
+
+	@Setup
+	public void setUp() {
+		Node A = new Node("A");
+		Node B = new Node("B");
+		C = new Node("C");
+		Node D = new Node("D");
+		Node E = new Node("E");
+
+		// The graph from the problem statement
+		graph = new Graph();
+		graph.addEdge(A, B, 5);
+		graph.addEdge(B, C, 4);
+		graph.addEdge(C, D, 8);
+		graph.addEdge(D, C, 8);
+		graph.addEdge(D, E, 6);
+		graph.addEdge(A, D, 5);
+		graph.addEdge(C, E, 2);
+		graph.addEdge(E, B, 3);
+		graph.addEdge(A, E, 7);
+
+		// Every cycle through C that doesn't pass through C on the way
+		cycles = new ArrayList<Route>();
+		cycles.add(graph.from(C).to(D).to(C));
+		cycles.add(graph.from(C).to(E).to(B).to(C));
+		cycles.add(graph.from(C).to(D).to(E).to(B).to(C));
+	}
+
+	@Benchmark
+	@SuppressWarnings("deprecation")
+	public Integer permutationsUnderThreshold() {
+		return GraphUtils.permutationsUnderThreshold(new ArrayList<Route>(cycles), threshold);
+	}
+
+	@Benchmark
+	public long countRoutesUnderDistance() {
+		return graph.countRoutesUnderDistance(C, C, threshold);
+	}
+}
@@ -0,0 +1,76 @@
+package traintracks.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import traintracks.graph.Node;
+import traintracks.graph.PathQuery;
+import traintracks.graph.PathVisitor;
+import traintracks.graph.Route;
+
+/**
+ * The searches: shortest routes from a station, the shortest route between two, and every path out of one,
+ * both collected into a list and walked without keeping them.
+ * The shortest route cache is cleared before every call, so these measure the search and not the cache.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Thread)
+public class QueryBenchmarks {
+
+	private Node source;
+	private Node target;
+
+	@Setup(Level.Invocation)
+	public void nextQuery(GraphState state) {
+		int query = state.nextQuery();
+		source = state.sources[query];
+		target = state.targets[query];
+		state.graph.clearShortestRouteCache();
+	}
+
+	@Benchmark
+	public Map<Node, Route> computeShortestRoutes(GraphState state) {
+		return state.graph.computeShortestRoutes(source);
+	}
+
+	@Benchmark
+	public Route shortestPath(GraphState state) {
+		return state.graph.shortestPath(source, target);
+	}
+
+	@Benchmark
+	public List<ArrayList<Node>> findPaths(GraphState state) {
+		return state.graph.findPaths(source);
+	}
+
+	@Benchmark
+	public long walkPaths(GraphState state) {
+		final long[] paths = new long[1];
+		state.graph.findPaths(source, new PathQuery().maxHops(9), new PathVisitor() {
+			@Override
+			public boolean visit(List<Node> path, int distance) {
+				paths[0]++;
+				return true;
+			}
+		});
+		return paths[0];
+	}
+}
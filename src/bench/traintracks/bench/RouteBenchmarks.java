@@ -0,0 +1,58 @@
+package traintracks.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import traintracks.graph.Node;
+import traintracks.graph.Route;
+
+/**
+ * Explicit itineraries, the way questions 1 to 5 ask them: built up hop by hop with Route.to, and
+ * worked out again from scratch with calculateDistance.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Thread)
+public class RouteBenchmarks {
+
+	private Route[] routes;
+
+	@Setup
+	public void buildRoutes(GraphState state) {
+		routes = new Route[state.itineraries.length];
+		for (int i = 0; i < routes.length; i++) {
+			routes[i] = travel(state, state.itineraries[i]);
+		}
+	}
+
+	@Benchmark
+	public int routeTo(GraphState state) {
+		return travel(state, state.itineraries[state.nextQuery()]).getDistance();
+	}
+
+	@Benchmark
+	public int calculateDistance(GraphState state) {
+		return routes[state.nextQuery()].calculateDistance();
+	}
+
+	private static Route travel(GraphState state, Node[] stops) {
+		Route route = state.graph.from(stops[0]);
+		for (int i = 1; i < stops.length; i++) {
+			route = route.to(stops[i]);
+		}
+		return route;
+	}
+}
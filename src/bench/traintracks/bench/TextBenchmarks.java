@@ -0,0 +1,36 @@
+package traintracks.bench;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import traintracks.graph.Graph;
+import traintracks.graph.parser.GraphParser;
+
+/**
+ * Getting a whole graph in and out as text: parsing the edge list, and writing the dot format.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class TextBenchmarks {
+
+	@Benchmark
+	public Graph parse(GraphState state) {
+		return new GraphParser(new ByteArrayInputStream(state.text)).parse();
+	}
+
+	@Benchmark
+	public String toDotFormat(GraphState state) {
+		return state.graph.toDotFormat();
+	}
+}
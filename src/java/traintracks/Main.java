@@ -1,5 +1,6 @@
 package traintracks;
 
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStreamReader;
@@ -12,10 +13,14 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
+import javax.management.JMException;
+
 import traintracks.graph.*;
+import traintracks.graph.metrics.GraphMetrics;
+import traintracks.graph.metrics.MetricsSink;
+import traintracks.server.QueryServer;
 import static traintracks.utils.GraphUtils.readFromInputStream;
 import static traintracks.utils.GraphUtils.readFromFile;
-import static traintracks.utils.GraphUtils.permutationsUnderThreshold;
 
 public class Main {
 	
@@ -57,6 +62,23 @@ public class Main {
 		                               .withDescription("The relative path to the input file")
 		                               .create("f"));
 		
+		options.addOption(OptionBuilder.withArgName("file")
+		                               .hasArg()
+		                               .withDescription("Save the graph to a binary snapshot file, which -f can read back quickly")
+		                               .create("s"));
+		
+		options.addOption(OptionBuilder.withLongOpt("serve")
+		                               .withArgName("port")
+		                               .hasArg()
+		                               .withDescription("Keep running and answer queries about the graph on this port, instead of answering the questions once")
+		                               .create());
+		
+		options.addOption(OptionBuilder.withLongOpt("jmx")
+		                               .withArgName("name")
+		                               .hasArg()
+		                               .withDescription("Publish timings and counts for everything done to the graph over JMX, under this name")
+		                               .create());
+		
 		options.addOption("p", "pipe", false, "pipe input to stdin");
 		options.addOption("v", "verbose", false, "view verbose solutions");
 		options.addOption("h", "help", false, "display this text");
@@ -75,6 +97,18 @@ public class Main {
 			return;
 		}
 		
+		MetricsSink metrics = MetricsSink.NOOP;
+		if (cmd.hasOption("jmx")) {
+			GraphMetrics graphMetrics = new GraphMetrics();
+			try {
+				graphMetrics.register(cmd.getOptionValue("jmx"));
+				metrics = graphMetrics;
+			} catch (JMException e) {
+				System.out.println("Sorry, I wasn't able to publish metrics as " + cmd.getOptionValue("jmx"));
+				System.out.println(e.getMessage());
+			}
+		}
+		
 		if (cmd.hasOption("f")) {
 			if (cmd.getOptionValue("f") == null) {
 				System.out.println("Please enter the filename relative to the executable if you wish to read in a graph from a file");
@@ -85,7 +119,7 @@ public class Main {
 			System.out.println("Reading from file " + pathName + "...\n");
 			
 			try {
-				graph = readFromFile(pathName);
+				graph = readFromFile(pathName, metrics);
 			} catch (FileNotFoundException e) {
 				System.out.println("Sorry, I wasn't able to find that file: " + pathName);
 				e.printStackTrace();
@@ -93,10 +127,31 @@ public class Main {
 			}
 		} else if (cmd.hasOption("p")) {
 			System.out.println("Reading graph from stdin");
-			graph = readFromInputStream(System.in);		
+			graph = readFromInputStream(System.in, metrics);
 		} else {
 			System.out.println("Using default graph");
 			graph = defaultGraph;
+			graph.setMetricsSink(metrics);
+		}
+
+		if (graph == null) {
+			return;
+		}
+		
+		if (cmd.hasOption("s")) {
+			File snapshotFile = Paths.get("").toAbsolutePath().resolve(cmd.getOptionValue("s")).toFile();
+			try {
+				graph.save(snapshotFile);
+				System.out.println("Saved graph snapshot to " + snapshotFile);
+			} catch (IOException e) {
+				System.out.println("Sorry, I wasn't able to save the graph to " + snapshotFile);
+				e.printStackTrace();
+			}
+		}
+
+		if (cmd.hasOption("serve")) {
+			serve(graph, cmd.getOptionValue("serve"));
+			return;
 		}
 
 		if (cmd.hasOption("v")) {
@@ -110,6 +165,19 @@ public class Main {
 		doQuestions(graph);
 	}
 
+	private static void serve(Graph graph, String port) {
+		try {
+			QueryServer server = new QueryServer(graph, Integer.parseInt(port));
+			System.out.println("Answering queries on port " + server.getPort());
+			server.serve();
+		} catch (NumberFormatException e) {
+			System.out.println("Sorry, " + port + " isn't a port number");
+		} catch (IOException e) {
+			System.out.println("Sorry, I wasn't able to answer queries on port " + port);
+			e.printStackTrace();
+		}
+	}
+
 	private static void doQuestions(Graph graph) {
 		
 		Node A = graph.getNodeByName("A");
@@ -153,7 +221,7 @@ public class Main {
 	private static Answer doQuestion1(Graph graph, Node A, Node B, Node C, Node D, Node E) {
 		Answer answer = new Answer();
 		
-		Integer distance = graph.from(A).to(B).to(C).getDistance();
+		int distance = graph.from(A).to(B).to(C).getDistance();
 		String answerString = distance == -1 ? "NO SUCH ROUTE" : String.valueOf(distance);
 		
 		answer.setBaseAnswer(answerString);
@@ -173,7 +241,7 @@ public class Main {
 	private static Answer doQuestion2(Graph graph, Node A, Node B, Node C, Node D, Node E) {
 		Answer answer = new Answer();
 		
-		Integer distance = graph.from(A).to(D).getDistance();
+		int distance = graph.from(A).to(D).getDistance();
 		String answerString = distance == -1 ? "NO SUCH ROUTE" : String.valueOf(distance);
 		
 		answer.setBaseAnswer(answerString);
@@ -192,7 +260,7 @@ public class Main {
 	private static Answer doQuestion3(Graph graph, Node A, Node B, Node C, Node D, Node E) {
 		Answer answer = new Answer();
 		
-		Integer distance = graph.from(A).to(D).to(C).getDistance();
+		int distance = graph.from(A).to(D).to(C).getDistance();
 		String answerString = distance == -1 ? "NO SUCH ROUTE" : String.valueOf(distance);
 		
 		answer.setBaseAnswer(answerString);
@@ -211,7 +279,7 @@ public class Main {
 	private static Answer doQuestion4(Graph graph, Node A, Node B, Node C, Node D, Node E) {
 		Answer answer = new Answer();
 		
-		Integer distance = graph.from(A).to(E).to(B).to(C).to(D).getDistance();
+		int distance = graph.from(A).to(E).to(B).to(C).to(D).getDistance();
 		String answerString = distance == -1 ? "NO SUCH ROUTE" : String.valueOf(distance);
 		
 		answer.setBaseAnswer(answerString);
@@ -232,7 +300,7 @@ public class Main {
 	private static Answer doQuestion5(Graph graph, Node A, Node B, Node C, Node D, Node E) {
 		Answer answer = new Answer();
 		
-		Integer distance = graph.from(A).to(E).to(D).getDistance();
+		int distance = graph.from(A).to(E).to(D).getDistance();
 		String answerString = distance == -1 ? "NO SUCH ROUTE" : String.valueOf(distance);
 		
 		answer.setBaseAnswer(answerString);
@@ -252,26 +320,12 @@ public class Main {
 	private static Answer doQuestion6(Graph graph, Node A, Node B, Node C, Node D, Node E) {
 		Answer answer = new Answer();
 		
-		List<ArrayList<Node>> allCPaths = graph.findPaths(C);
-		allCPaths.remove(0);
-		List<ArrayList<Node>> validCPaths = new ArrayList<ArrayList<Node>>();
-		for (ArrayList<Node> path : allCPaths) {
-			if (path.size() <= 3 && path.get(path.size() - 1).equals(C)) {
-				validCPaths.add(path);
-			}
-		}
+		long trips = graph.countTrips(C, C, 1, 2);
 		
-		answer.setBaseAnswer(String.valueOf(validCPaths.size()));
+		answer.setBaseAnswer(String.valueOf(trips));
 		
-		if (validCPaths.size() != 0) {
-			String verboseAnswer = "\tRoutes: ";
-			for (List<Node> path : validCPaths) {
-				verboseAnswer += "[";
-				verboseAnswer += StringUtils.join(path, ", ");
-				verboseAnswer += "] ";
-			}
-			
-			answer.setVerboseAnswer(verboseAnswer);
+		if (trips != 0 && Answer.getVerbose()) {
+			answer.setVerboseAnswer(listTrips(graph, C, C, 2));
 		}
 		
 		return answer;
@@ -280,30 +334,30 @@ public class Main {
 	private static Answer doQuestion7(Graph graph, Node A, Node B, Node C, Node D, Node E) {
 		Answer answer = new Answer();
 		
-		List<ArrayList<Node>> allAPaths = graph.findPaths(A);
-		allAPaths.remove(0);
-		List<ArrayList<Node>> AtoCPaths = new ArrayList<ArrayList<Node>>();
-		for (ArrayList<Node> path : allAPaths) {
-			if (path.size() <= 3 && path.get(path.size() - 1).equals(C)) {
-				AtoCPaths.add(path);
-			}
-		}
+		long trips = graph.countTrips(A, C, 1, 2);
 		
-		answer.setBaseAnswer(String.valueOf(AtoCPaths.size()));
+		answer.setBaseAnswer(String.valueOf(trips));
 		
-		if (AtoCPaths.size() != 0) {
-			String verboseAnswer = "\tRoutes: ";
-			for (List<Node> path : AtoCPaths) {
-				verboseAnswer += "[";
-				verboseAnswer += StringUtils.join(path, ", ");
-				verboseAnswer += "] ";
-			}
-			
-			answer.setVerboseAnswer(verboseAnswer);
+		if (trips != 0 && Answer.getVerbose()) {
+			answer.setVerboseAnswer(listTrips(graph, A, C, 2));
 		}
 		
 		return answer;
 	}
+	
+	// Spells out the trips for the verbose answers. Only done when asked for, counting them doesn't need the paths
+	private static String listTrips(Graph graph, Node from, Node to, int maxStops) {
+		final StringBuilder verboseAnswer = new StringBuilder("\tRoutes: ");
+		graph.findPaths(from, new PathQuery().to(to).maxHops(maxStops), new PathVisitor() {
+			@Override
+			public boolean visit(List<Node> path, int distance) {
+				verboseAnswer.append("[").append(StringUtils.join(path, ", ")).append("] ");
+				return true;
+			}
+		});
+		
+		return verboseAnswer.toString();
+	}
 
 	private static Answer doQuestion8(Graph graph, Node A, Node B, Node C, Node D, Node E) {
 		Answer answer = new Answer();
@@ -330,32 +384,29 @@ public class Main {
 
 		Answer answer = new Answer();
 		
-		List<ArrayList<Node>> allPathsFromB = graph.findPaths(B);
-		List<ArrayList<Node>> pathsFromBtoB = new ArrayList<ArrayList<Node>>();
-		for (ArrayList<Node> path : allPathsFromB) {
-			if (path.get(path.size() - 1).equals(B)) {
-				pathsFromBtoB.add(path);
+		// Round trips from B, keeping the shortest one that actually goes anywhere
+		final List<Node> shortestPath = new ArrayList<Node>();
+		final int[] shortestDistance = { Integer.MAX_VALUE };
+		graph.findPaths(B, new PathQuery().to(B).maxHops(9), new PathVisitor() {
+			@Override
+			public boolean visit(List<Node> path, int distance) {
+				if (distance != 0 && distance < shortestDistance[0]) {
+					shortestDistance[0] = distance;
+					shortestPath.clear();
+					shortestPath.addAll(path);
+				}
+				return true;
 			}
-		}
+		});
 		
-		if (pathsFromBtoB.size() == 0) {
+		if (shortestPath.isEmpty()) {
 			answer.setBaseAnswer("NO SUCH PATH");
 			return answer;
 		}
 		
-		Route shortestRoute = new Route();
-		shortestRoute.setDistance(Integer.MAX_VALUE);
-		for (ArrayList<Node> path : pathsFromBtoB) {
-			Route route = graph.from(path.remove(0));
-			for (Node hop : path) {
-				route = route.to(hop);
-			}
-			if (route.getDistance() == 0) {
-				continue;
-			}
-			if (route.getDistance() < shortestRoute.getDistance()) {
-				shortestRoute = route;
-			}
+		Route shortestRoute = graph.from(shortestPath.get(0));
+		for (Node hop : shortestPath.subList(1, shortestPath.size())) {
+			shortestRoute = shortestRoute.to(hop);
 		}
 		
 		answer.setBaseAnswer(String.valueOf(shortestRoute.getDistance()));
@@ -370,31 +421,13 @@ public class Main {
 	private static Answer doQuestion10(Graph graph, Node A, Node B, Node C, Node D, Node E) {
 		Answer answer = new Answer();
 		
-		List<ArrayList<Node>> allCPaths = graph.findPaths(C);
-		allCPaths.remove(0);
-		List<Route> pathsFromCtoC = new ArrayList<Route>();
+		long routesUnder30 = graph.countRoutesUnderDistance(C, C, 30);
 		
-		for (ArrayList<Node> path : allCPaths) {
-			if (path.get(path.size() - 1).equals(C)) { // If this path ends on itself (forms a cycle)
-				Route route = new Route();
-				for (Node node : path) {
-					route.addHop(node);
-				}
-				route.calculateDistance();
-				route.setHops(route.getPath().size() - 1);
-				pathsFromCtoC.add(route);
-			}
-		}
-		
-		if (pathsFromCtoC.isEmpty()) {
+		if (routesUnder30 == 0) {
 			answer.setBaseAnswer("NO SUCH PATH");
 			return answer;
 		}
 		
-		
-		// pathsFromCtoC contains all the cyclic routes which lead back to C. We need to find all the permutations of those paths that are under a distance of 30.
-		int routesUnder30 = permutationsUnderThreshold(pathsFromCtoC, 30);
-		
 		answer.setBaseAnswer(String.valueOf(routesUnder30));
 		
 		return answer;
@@ -0,0 +1,147 @@
+package traintracks.graph;
+
+import java.util.Arrays;
+
+/**
+ * A* from the source to the target, with the landmark lower bounds (see Landmarks) as the estimate of the
+ * distance left. The bounds never overestimate and never drop by more than an edge's weight along it, so the
+ * search is exact and settles every node at most once, just like Dijkstra; it only settles far fewer of them,
+ * since nodes that lead away from the target look as far away as they really are. Nodes the landmarks show
+ * can't reach the target at all are never queued.
+ *
+ * Like BidirectionalDijkstra, only what a search touched is reset before the next one.
+ */
+final class AltSearch implements PointToPointSearch {
+
+	private final CompactGraph graph;
+	private final Landmarks landmarks;
+
+	private final int[] distances;
+	private final int[] predecessors;
+	private final int[] bounds;
+	private final IndexedMinHeap frontier;
+
+	private final int[] touched;
+	private int touchedCount;
+
+	private int settled;
+	private int relaxed;
+	private int distance;
+	private int[] path;
+
+	AltSearch(Landmarks landmarks) {
+		this.graph = landmarks.getGraph();
+		this.landmarks = landmarks;
+		int nodeCount = graph.getNodeCount();
+		distances = new int[nodeCount];
+		predecessors = new int[nodeCount];
+		bounds = new int[nodeCount];
+		frontier = new IndexedMinHeap(nodeCount);
+		touched = new int[nodeCount];
+		Arrays.fill(distances, Integer.MAX_VALUE);
+	}
+
+	@Override
+	public CompactGraph getGraph() {
+		return graph;
+	}
+
+	Landmarks getLandmarks() {
+		return landmarks;
+	}
+
+	@Override
+	public int search(int source, int target) {
+		reset();
+		distance = -1;
+		path = null;
+
+		int sourceBound = landmarks.lowerBound(source, target);
+		if (sourceBound == Integer.MAX_VALUE) {
+			return -1;
+		}
+		touch(source, sourceBound);
+		distances[source] = 0;
+		predecessors[source] = -1;
+		frontier.offer(source, sourceBound);
+
+		while (!frontier.isEmpty()) {
+			int current = frontier.poll();
+			settled++;
+			if (current == target) {
+				distance = distances[target];
+				path = buildPath(source, target);
+				break;
+			}
+
+			int currentDistance = distances[current];
+			relaxed += graph.getEndEdge(current) - graph.getFirstEdge(current);
+			for (int edge = graph.getFirstEdge(current), end = graph.getEndEdge(current); edge < end; edge++) {
+				int neighbor = graph.getEdgeTarget(edge);
+				int alternateDistance = currentDistance + graph.getEdgeWeight(edge);
+				if (alternateDistance >= distances[neighbor]) {
+					continue;
+				}
+				if (distances[neighbor] == Integer.MAX_VALUE) {
+					int bound = landmarks.lowerBound(neighbor, target);
+					if (bound == Integer.MAX_VALUE) {
+						continue;
+					}
+					touch(neighbor, bound);
+				}
+				distances[neighbor] = alternateDistance;
+				predecessors[neighbor] = current;
+				frontier.offer(neighbor, (int) Math.min(Integer.MAX_VALUE - 1, (long) alternateDistance + bounds[neighbor]));
+			}
+		}
+		return distance;
+	}
+
+	@Override
+	public int getDistance() {
+		return distance;
+	}
+
+	@Override
+	public int[] getPath() {
+		return path;
+	}
+
+	@Override
+	public int getSettledCount() {
+		return settled;
+	}
+
+	@Override
+	public int getRelaxedCount() {
+		return relaxed;
+	}
+
+	private int[] buildPath(int source, int target) {
+		int length = 0;
+		for (int node = target; node != source; node = predecessors[node]) {
+			length++;
+		}
+		int[] result = new int[length];
+		for (int node = target; node != source; node = predecessors[node]) {
+			result[--length] = node;
+		}
+		return result;
+	}
+
+	// The bound only has to be worked out once per node and search
+	private void touch(int node, int bound) {
+		touched[touchedCount++] = node;
+		bounds[node] = bound;
+	}
+
+	private void reset() {
+		for (int i = 0; i < touchedCount; i++) {
+			distances[touched[i]] = Integer.MAX_VALUE;
+		}
+		touchedCount = 0;
+		frontier.clear();
+		settled = 0;
+		relaxed = 0;
+	}
+}
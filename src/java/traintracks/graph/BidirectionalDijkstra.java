@@ -0,0 +1,176 @@
+package traintracks.graph;
+
+import java.util.Arrays;
+
+/**
+ * Point to point shortest path search that runs Dijkstra forward from the source and backward from the target
+ * (over the reverse graph) at the same time, always growing whichever frontier is nearer, and stops as soon as
+ * the two frontiers together can't beat the best meeting point seen so far. Each side only has to get about
+ * half way, so on a big sparse network far fewer nodes get settled than by searching the whole graph.
+ *
+ * The arrays are as big as the graph, but only the entries a search touched get reset for the next one, so
+ * a search costs in proportion to what it explores.
+ */
+final class BidirectionalDijkstra implements PointToPointSearch {
+
+	private final CompactGraph forward;
+	private final CompactGraph backward;
+
+	private final int[] forwardDistances;
+	private final int[] forwardPredecessors;
+	private final int[] backwardDistances;
+	private final int[] backwardSuccessors;
+	private final IndexedMinHeap forwardFrontier;
+	private final IndexedMinHeap backwardFrontier;
+
+	// Nodes whose distances need resetting before the next search
+	private final int[] touched;
+	private int touchedCount;
+
+	private int settled;
+	private int relaxed;
+	private int distance;
+	private int[] path;
+
+	BidirectionalDijkstra(CompactGraph graph) {
+		int nodeCount = graph.getNodeCount();
+		forward = graph;
+		backward = graph.reverse();
+		forwardDistances = new int[nodeCount];
+		forwardPredecessors = new int[nodeCount];
+		backwardDistances = new int[nodeCount];
+		backwardSuccessors = new int[nodeCount];
+		forwardFrontier = new IndexedMinHeap(nodeCount);
+		backwardFrontier = new IndexedMinHeap(nodeCount);
+		touched = new int[nodeCount];
+		Arrays.fill(forwardDistances, Integer.MAX_VALUE);
+		Arrays.fill(backwardDistances, Integer.MAX_VALUE);
+	}
+
+	@Override
+	public CompactGraph getGraph() {
+		return forward;
+	}
+
+	@Override
+	public int search(int source, int target) {
+		reset();
+
+		touch(source);
+		forwardDistances[source] = 0;
+		forwardPredecessors[source] = -1;
+		forwardFrontier.offer(source, 0);
+		touch(target);
+		backwardDistances[target] = 0;
+		backwardSuccessors[target] = -1;
+		backwardFrontier.offer(target, 0);
+
+		int best = Integer.MAX_VALUE;
+		int meeting = -1;
+
+		while (!forwardFrontier.isEmpty() && !backwardFrontier.isEmpty()) {
+			// Nothing either side still has queued can be on a shorter route than the best one found
+			if ((long) forwardFrontier.peekKey() + backwardFrontier.peekKey() >= best) {
+				break;
+			}
+
+			boolean forwards = forwardFrontier.peekKey() <= backwardFrontier.peekKey();
+			CompactGraph graph = forwards ? forward : backward;
+			IndexedMinHeap frontier = forwards ? forwardFrontier : backwardFrontier;
+			int[] distances = forwards ? forwardDistances : backwardDistances;
+			int[] previous = forwards ? forwardPredecessors : backwardSuccessors;
+			int[] otherDistances = forwards ? backwardDistances : forwardDistances;
+
+			int current = frontier.poll();
+			int currentDistance = distances[current];
+			settled++;
+			relaxed += graph.getEndEdge(current) - graph.getFirstEdge(current);
+			for (int edge = graph.getFirstEdge(current), end = graph.getEndEdge(current); edge < end; edge++) {
+				int neighbor = graph.getEdgeTarget(edge);
+				int alternateDistance = currentDistance + graph.getEdgeWeight(edge);
+				if (alternateDistance < distances[neighbor]) {
+					if (distances[neighbor] == Integer.MAX_VALUE && otherDistances[neighbor] == Integer.MAX_VALUE) {
+						touch(neighbor);
+					}
+					distances[neighbor] = alternateDistance;
+					previous[neighbor] = current;
+					frontier.offer(neighbor, alternateDistance);
+
+					if (otherDistances[neighbor] != Integer.MAX_VALUE && (long) alternateDistance + otherDistances[neighbor] < best) {
+						best = alternateDistance + otherDistances[neighbor];
+						meeting = neighbor;
+					}
+				}
+			}
+		}
+
+		if (meeting == -1) {
+			distance = -1;
+			path = null;
+		} else {
+			distance = best;
+			path = buildPath(source, meeting);
+		}
+		return distance;
+	}
+
+	@Override
+	public int getDistance() {
+		return distance;
+	}
+
+	@Override
+	public int[] getPath() {
+		return path;
+	}
+
+	// Both sides together
+	@Override
+	public int getSettledCount() {
+		return settled;
+	}
+
+	@Override
+	public int getRelaxedCount() {
+		return relaxed;
+	}
+
+	private int[] buildPath(int source, int meeting) {
+		int forwardLength = 0;
+		for (int node = meeting; node != source; node = forwardPredecessors[node]) {
+			forwardLength++;
+		}
+		int backwardLength = 0;
+		for (int node = backwardSuccessors[meeting]; node != -1; node = backwardSuccessors[node]) {
+			backwardLength++;
+		}
+
+		// The forward half comes out back to front, the backward half the right way round after it
+		int[] result = new int[forwardLength + backwardLength];
+		int i = forwardLength;
+		for (int node = meeting; node != source; node = forwardPredecessors[node]) {
+			result[--i] = node;
+		}
+		i = forwardLength;
+		for (int node = backwardSuccessors[meeting]; node != -1; node = backwardSuccessors[node]) {
+			result[i++] = node;
+		}
+		return result;
+	}
+
+	private void touch(int node) {
+		touched[touchedCount++] = node;
+	}
+
+	private void reset() {
+		for (int i = 0; i < touchedCount; i++) {
+			forwardDistances[touched[i]] = Integer.MAX_VALUE;
+			backwardDistances[touched[i]] = Integer.MAX_VALUE;
+		}
+		touchedCount = 0;
+		forwardFrontier.clear();
+		backwardFrontier.clear();
+		settled = 0;
+		relaxed = 0;
+	}
+}
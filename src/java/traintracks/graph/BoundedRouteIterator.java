@@ -0,0 +1,107 @@
+package traintracks.graph;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Hands out the routes from one node to another that are shorter than a given distance, one at a time, as a
+ * depth first walk that is allowed to go round cycles. Before it starts it works out how far every node is
+ * from the destination (a Dijkstra over the reversed graph), and never takes an edge that can't possibly get
+ * there in time. So every step it takes is on the way to a route it is going to hand out, and it only holds
+ * on to the route it is currently on.
+ */
+class BoundedRouteIterator implements Iterator<Route> {
+
+	private final Graph owner;
+	private final CompactGraph graph;
+	private final int to;
+	private final int maxDistance;
+	private final int[] distanceToTarget;
+
+	// The walk so far: the node at every depth, the next of its edges to try, and the distance up to it
+	private int[] path = new int[16];
+	private int[] cursor = new int[16];
+	private int[] distances = new int[16];
+	private int depth;
+
+	private Route next;
+
+	BoundedRouteIterator(Graph owner, CompactGraph graph, int from, int to, int maxDistance) {
+		this.owner = owner;
+		this.graph = graph;
+		this.to = to;
+		this.maxDistance = maxDistance;
+
+		// Throws if the walk could get to edges that aren't longer than 0, which would make for endless routes
+		graph.getMaxWeight(from, maxDistance);
+
+		distanceToTarget = new int[graph.getNodeCount()];
+		graph.reverse().shortestPaths(to, distanceToTarget, new int[graph.getNodeCount()]);
+
+		path[0] = from;
+		cursor[0] = graph.getFirstEdge(from);
+		distances[0] = 0;
+		depth = 0;
+		next = advance();
+	}
+
+	@Override
+	public boolean hasNext() {
+		return next != null;
+	}
+
+	@Override
+	public Route next() {
+		if (next == null) {
+			throw new NoSuchElementException();
+		}
+		Route route = next;
+		next = advance();
+		return route;
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	// Walks on until the destination is reached again, or returns null once everything has been tried
+	private Route advance() {
+		while (depth >= 0) {
+			int node = path[depth];
+			if (cursor[depth] == graph.getEndEdge(node)) {
+				depth--;
+				continue;
+			}
+
+			int edge = cursor[depth]++;
+			int target = graph.getEdgeTarget(edge);
+			long distance = (long) distances[depth] + graph.getEdgeWeight(edge);
+			if (distanceToTarget[target] == Integer.MAX_VALUE || distance + distanceToTarget[target] >= maxDistance) {
+				continue;
+			}
+
+			push(target, (int) distance);
+			if (target == to) {
+				return makeRoute();
+			}
+		}
+		return null;
+	}
+
+	private void push(int node, int distance) {
+		if (++depth == path.length) {
+			path = Arrays.copyOf(path, depth * 2);
+			cursor = Arrays.copyOf(cursor, depth * 2);
+			distances = Arrays.copyOf(distances, depth * 2);
+		}
+		path[depth] = node;
+		cursor[depth] = graph.getFirstEdge(node);
+		distances[depth] = distance;
+	}
+
+	private Route makeRoute() {
+		return new Route(owner, graph.getNodes(), Arrays.copyOf(path, depth + 1), distances[depth], depth);
+	}
+}
@@ -0,0 +1,787 @@
+package traintracks.graph;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Immutable, int indexed snapshot of a Graph in compressed sparse row form. Node i's outgoing edges are the
+ * positions getFirstEdge(i) (inclusive) to getEndEdge(i) (exclusive) of the target and weight arrays, in the
+ * same order the edges were added to the node. Nodes are numbered in the order they were added to the Graph.
+ *
+ * Get one from Graph.freeze(). Since nothing in here ever changes, a snapshot can be shared by as many
+ * readers as you like. All of the query algorithms in Graph run against it.
+ * 
+ * A snapshot can also be written to a binary file and read back far faster than the text can be parsed.
+ * The file is big endian and laid out as
+ * 
+ * int     magic ("TTGS") and format version
+ * int     node count, edge count
+ * labels  for every node, the length of its UTF-8 label followed by the bytes
+ * int[]   offsets (node count + 1), targets (edge count), weights (edge count)
+ */
+public final class CompactGraph {
+
+	private static final int MAGIC = 0x54544753;
+	private static final int VERSION = 1;
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	// Below this many itineraries a batch task stops splitting and just works them out
+	private static final int ITINERARIES_PER_TASK = 1024;
+
+	private final Node[] nodes;
+	private final Map<Node, Integer> index;
+
+	// offsets[i] .. offsets[i + 1] are the edges of node i
+	private final int[] offsets;
+	private final int[] targets;
+	private final int[] weights;
+
+	// Same nodes with every edge turned around. Only built the first time something needs it
+	private volatile CompactGraph reverse;
+
+	// Edges by (source, target), for the batch lookups. Also only built when first needed
+	private volatile EdgeIndex edgeIndex;
+
+	/**
+	 * @param allNodes The nodes, by id
+	 * @param index Id of every node. May know about nodes that came after these, which this snapshot then leaves out.
+	 * Shared, not copied, so it has to be safe to read while it's being added to
+	 */
+	CompactGraph(List<Node> allNodes, Map<Node, Integer> index) {
+		int nodeCount = allNodes.size();
+		nodes = allNodes.toArray(new Node[nodeCount]);
+		this.index = index;
+
+		offsets = new int[nodeCount + 1];
+		int edgeCount = 0;
+		for (int i = 0; i < nodeCount; i++) {
+			offsets[i] = edgeCount;
+			for (int e = 0; e < nodes[i].getEdgeCount(); e++) {
+				if (indexOf(nodes[i].getEdge(e).getDest()) != -1) {
+					edgeCount++;
+				}
+			}
+		}
+		offsets[nodeCount] = edgeCount;
+
+		targets = new int[edgeCount];
+		weights = new int[edgeCount];
+		for (int i = 0; i < nodeCount; i++) {
+			int edge = offsets[i];
+			for (int e = 0; e < nodes[i].getEdgeCount(); e++) {
+				Edge nodeEdge = nodes[i].getEdge(e);
+				int target = indexOf(nodeEdge.getDest());
+				if (target == -1) {
+					// Edges out of the graph can't be reached through it
+					continue;
+				}
+				targets[edge] = target;
+				weights[edge] = nodeEdge.getWeight();
+				edge++;
+			}
+		}
+	}
+
+	private CompactGraph(Node[] nodes, int[] offsets, int[] targets, int[] weights) {
+		this(nodes, indexNodes(nodes), offsets, targets, weights);
+	}
+
+	private CompactGraph(Node[] nodes, Map<Node, Integer> index, int[] offsets, int[] targets, int[] weights) {
+		this.nodes = nodes;
+		this.index = index;
+		this.offsets = offsets;
+		this.targets = targets;
+		this.weights = weights;
+	}
+
+	private static Map<Node, Integer> indexNodes(Node[] nodes) {
+		Map<Node, Integer> index = new HashMap<Node, Integer>(nodes.length * 2);
+		for (int i = 0; i < nodes.length; i++) {
+			index.put(nodes[i], i);
+		}
+		return index;
+	}
+
+	public int getNodeCount() {
+		return nodes.length;
+	}
+
+	public int getEdgeCount() {
+		return targets.length;
+	}
+
+	public Node getNode(int node) {
+		return nodes[node];
+	}
+
+	/**
+	 * @return Every node, by id. Doesn't copy anything
+	 */
+	public List<Node> getNodes() {
+		return Collections.unmodifiableList(Arrays.asList(nodes));
+	}
+
+	/**
+	 * @param node
+	 * @return The int id of the node in this snapshot, or -1 if it isn't part of it
+	 */
+	public int indexOf(Node node) {
+		Integer i = index.get(node);
+		return i == null || i >= nodes.length ? -1 : i;
+	}
+
+	public int getFirstEdge(int node) {
+		return offsets[node];
+	}
+
+	public int getEndEdge(int node) {
+		return offsets[node + 1];
+	}
+
+	public int getEdgeTarget(int edge) {
+		return targets[edge];
+	}
+
+	public int getEdgeWeight(int edge) {
+		return weights[edge];
+	}
+
+	/**
+	 * Finds the edge from -> to. Rows are short in a rail network, so this is a scan over a few ints.
+	 *
+	 * @param from
+	 * @param to
+	 * @return The edge position, or -1 if there is no such edge
+	 */
+	public int findEdge(int from, int to) {
+		for (int edge = offsets[from], end = offsets[from + 1]; edge < end; edge++) {
+			if (targets[edge] == to) {
+				return edge;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * This snapshot with more nodes and edges added on the end, as the graph it was taken of has grown since.
+	 * Every node keeps its edges in the order they were added, so each row is its old edges followed by its new
+	 * ones, just as a snapshot taken from scratch would have them. Copies the arrays across a row at a time
+	 * rather than going back over every Node and Edge, and shares the index.
+	 *
+	 * @param allNodes Every node now, by id, starting with the ones in this snapshot
+	 * @param index Id of every node, as for the constructor
+	 * @param sources Source of every new edge, in the order they were added
+	 * @param dests
+	 * @param weights
+	 * @param count How many new edges there are
+	 * @return
+	 */
+	CompactGraph extend(List<Node> allNodes, Map<Node, Integer> index, int[] sources, int[] dests, int[] weights, int count) {
+		int oldCount = nodes.length;
+		int nodeCount = allNodes.size();
+		Node[] newNodes = Arrays.copyOf(nodes, nodeCount);
+		for (int i = oldCount; i < nodeCount; i++) {
+			newNodes[i] = allNodes.get(i);
+		}
+
+		// How many edges every row gains, then where every row starts
+		int[] newOffsets = new int[nodeCount + 1];
+		for (int i = 0; i < count; i++) {
+			newOffsets[sources[i] + 1]++;
+		}
+		for (int i = 0; i < nodeCount; i++) {
+			int oldDegree = i < oldCount ? offsets[i + 1] - offsets[i] : 0;
+			newOffsets[i + 1] += newOffsets[i] + oldDegree;
+		}
+
+		int edgeCount = newOffsets[nodeCount];
+		int[] newTargets = new int[edgeCount];
+		int[] newWeights = new int[edgeCount];
+		int[] next = new int[nodeCount];
+		for (int i = 0; i < nodeCount; i++) {
+			int oldDegree = i < oldCount ? offsets[i + 1] - offsets[i] : 0;
+			if (oldDegree > 0) {
+				System.arraycopy(targets, offsets[i], newTargets, newOffsets[i], oldDegree);
+				System.arraycopy(this.weights, offsets[i], newWeights, newOffsets[i], oldDegree);
+			}
+			next[i] = newOffsets[i] + oldDegree;
+		}
+		for (int i = 0; i < count; i++) {
+			int position = next[sources[i]]++;
+			newTargets[position] = dests[i];
+			newWeights[position] = weights[i];
+		}
+		return new CompactGraph(newNodes, index, newOffsets, newTargets, newWeights);
+	}
+
+	/**
+	 * Total distance along the given node ids.
+	 *
+	 * @param path
+	 * @return The distance, or -1 if two consecutive nodes aren't connected
+	 */
+	public int routeDistance(int... path) {
+		int distance = 0;
+		for (int i = 0; i < path.length - 1; i++) {
+			int edge = findEdge(path[i], path[i + 1]);
+			if (edge == -1) {
+				return -1;
+			}
+			distance += weights[edge];
+		}
+		return distance;
+	}
+
+	/**
+	 * Total distance along every one of the itineraries, all looked up in one shared edge index. Small
+	 * batches are worked out on the calling thread, anything bigger is split up over the fork join pool
+	 * shared by the whole JVM (see SharedPool); pass your own pool to keep the batch off it.
+	 *
+	 * @param itineraries Node ids of the stations on each itinerary, in order
+	 * @return The distance of each itinerary, or -1 if it goes between two stations that aren't connected
+	 * or through one that isn't in the graph
+	 */
+	public int[] routeDistances(int[][] itineraries) {
+		if (itineraries.length <= ITINERARIES_PER_TASK) {
+			int[] distances = new int[itineraries.length];
+			routeDistances(edgeIndex(), itineraries, distances, 0, itineraries.length);
+			return distances;
+		}
+
+		return routeDistances(itineraries, SharedPool.get());
+	}
+
+	/**
+	 * Same as routeDistances(itineraries), with the batch split up over the given pool.
+	 *
+	 * @param itineraries
+	 * @param pool
+	 * @return
+	 */
+	public int[] routeDistances(int[][] itineraries, ForkJoinPool pool) {
+		int[] distances = new int[itineraries.length];
+		pool.invoke(new ItinerariesTask(edgeIndex(), itineraries, distances, 0, itineraries.length));
+		return distances;
+	}
+
+	private void routeDistances(EdgeIndex edges, int[][] itineraries, int[] distances, int from, int to) {
+		for (int i = from; i < to; i++) {
+			distances[i] = routeDistance(edges, itineraries[i]);
+		}
+	}
+
+	private int routeDistance(EdgeIndex edges, int[] path) {
+		int nodeCount = nodes.length;
+		int distance = 0;
+		for (int i = 0; i < path.length; i++) {
+			if (path[i] < 0 || path[i] >= nodeCount) {
+				return -1;
+			}
+			if (i > 0) {
+				int edge = edges.find(path[i - 1], path[i]);
+				if (edge == -1) {
+					return -1;
+				}
+				distance += weights[edge];
+			}
+		}
+		return distance;
+	}
+
+	EdgeIndex edgeIndex() {
+		EdgeIndex result = edgeIndex;
+		if (result == null) {
+			// Same as reverse, two racing threads would just build the same index twice
+			result = new EdgeIndex(this);
+			edgeIndex = result;
+		}
+		return result;
+	}
+
+	/**
+	 * Splits a batch of itineraries in half until the pieces are small, each piece writes its own slice
+	 * of the result.
+	 */
+	private final class ItinerariesTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final EdgeIndex edges;
+		private final int[][] itineraries;
+		private final int[] distances;
+		private final int from;
+		private final int to;
+
+		ItinerariesTask(EdgeIndex edges, int[][] itineraries, int[] distances, int from, int to) {
+			this.edges = edges;
+			this.itineraries = itineraries;
+			this.distances = distances;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= ITINERARIES_PER_TASK) {
+				routeDistances(edges, itineraries, distances, from, to);
+				return;
+			}
+			int middle = (from + to) >>> 1;
+			invokeAll(new ItinerariesTask(edges, itineraries, distances, from, middle),
+			          new ItinerariesTask(edges, itineraries, distances, middle, to));
+		}
+	}
+
+	/**
+	 * The same graph with every edge pointing the other way, so node i's edges here are the edges into node i.
+	 * Searching it from a node finds the distances to that node. Node ids are the same in both.
+	 * 
+	 * @return
+	 */
+	CompactGraph reverse() {
+		CompactGraph result = reverse;
+		if (result == null) {
+			// Racing threads might both build one, but they'd build the same thing
+			result = buildReverse();
+			result.reverse = this;
+			reverse = result;
+		}
+		return result;
+	}
+
+	// Counting sort of the edges by target
+	private CompactGraph buildReverse() {
+		int[] reverseOffsets = new int[nodes.length + 1];
+		for (int target : targets) {
+			reverseOffsets[target + 1]++;
+		}
+		for (int i = 0; i < nodes.length; i++) {
+			reverseOffsets[i + 1] += reverseOffsets[i];
+		}
+
+		int[] next = Arrays.copyOf(reverseOffsets, nodes.length);
+		int[] reverseTargets = new int[targets.length];
+		int[] reverseWeights = new int[targets.length];
+		for (int node = 0; node < nodes.length; node++) {
+			for (int edge = offsets[node], end = offsets[node + 1]; edge < end; edge++) {
+				int position = next[targets[edge]]++;
+				reverseTargets[position] = node;
+				reverseWeights[position] = weights[edge];
+			}
+		}
+		return new CompactGraph(nodes, index, reverseOffsets, reverseTargets, reverseWeights);
+	}
+
+	/**
+	 * Dijkstra from the source over the whole snapshot. Unreachable nodes are left at Integer.MAX_VALUE
+	 * with a predecessor of -1.
+	 *
+	 * @param source
+	 * @param distances Filled in with the distance to every node, must be getNodeCount() long
+	 * @param predecessors Filled in with the node before every node on its shortest route, must be getNodeCount() long
+	 * @return How many edges were looked along, which is every edge out of a reachable node
+	 */
+	long shortestPaths(int source, int[] distances, int[] predecessors) {
+		Arrays.fill(distances, Integer.MAX_VALUE);
+		Arrays.fill(predecessors, -1);
+		distances[source] = 0;
+
+		IndexedMinHeap frontier = new IndexedMinHeap(nodes.length);
+		frontier.offer(source, 0);
+
+		long relaxed = 0;
+		while (!frontier.isEmpty()) {
+			int current = frontier.poll();
+			int currentDistance = distances[current];
+			relaxed += offsets[current + 1] - offsets[current];
+			for (int edge = offsets[current], end = offsets[current + 1]; edge < end; edge++) {
+				int neighbor = targets[edge];
+				int alternateDistance = currentDistance + weights[edge];
+				if (alternateDistance < distances[neighbor]) {
+					distances[neighbor] = alternateDistance;
+					predecessors[neighbor] = current;
+					frontier.offer(neighbor, alternateDistance);
+				}
+			}
+		}
+		return relaxed;
+	}
+
+	/**
+	 * Counts the trips from one node to another that take between minStops and maxStops hops. Trips may pass
+	 * through the same node, or even the same edge, more than once. Layered dynamic programming: layer k holds,
+	 * for every node, the number of trips of exactly k hops that end there, and each layer is one sweep over the
+	 * edges of the one before it. That's O(maxStops * E) without ever building a path, and it stops early once
+	 * no trips are left to extend.
+	 * 
+	 * Counts that don't fit in a long are capped at Long.MAX_VALUE.
+	 * 
+	 * @param from
+	 * @param to
+	 * @param minStops
+	 * @param maxStops
+	 * @return
+	 */
+	long countTrips(int from, int to, int minStops, int maxStops) {
+		long[] current = new long[nodes.length];
+		long[] next = new long[nodes.length];
+		current[from] = 1;
+		
+		long trips = 0;
+		for (int stops = 1; stops <= maxStops; stops++) {
+			Arrays.fill(next, 0);
+			boolean extended = false;
+			for (int node = 0; node < nodes.length; node++) {
+				long ways = current[node];
+				if (ways == 0) {
+					continue;
+				}
+				for (int edge = offsets[node], end = offsets[node + 1]; edge < end; edge++) {
+					next[targets[edge]] = saturatedAdd(next[targets[edge]], ways);
+					extended = true;
+				}
+			}
+			
+			if (!extended) {
+				break;
+			}
+			if (stops >= minStops) {
+				trips = saturatedAdd(trips, next[to]);
+			}
+			
+			long[] swap = current;
+			current = next;
+			next = swap;
+		}
+		
+		return trips;
+	}
+	
+	/**
+	 * Counts the routes of at least one hop from one node to another that are shorter than maxDistance. Like
+	 * countTrips, routes can repeat nodes and edges. Dynamic programming over (distance so far, node): going through
+	 * the distances in order, every count is pushed along every edge of its node to distance + weight. Only the
+	 * next maxWeight distances can receive anything, so the table is a ring of that many rows. O(maxDistance * E).
+	 * 
+	 * Every edge the counting can get to has to be longer than 0, otherwise there could be infinitely many routes.
+	 * 
+	 * @param from
+	 * @param to
+	 * @param maxDistance Exclusive
+	 * @return The number of routes, capped at Long.MAX_VALUE
+	 */
+	long countRoutesUnderDistance(int from, int to, int maxDistance) {
+		if (maxDistance <= 0) {
+			return 0;
+		}
+
+		int rowCount = Math.min(maxDistance, getMaxWeight(from, maxDistance) + 1);
+		long[][] ways = new long[rowCount][];
+		ways[0] = new long[nodes.length];
+		ways[0][from] = 1;
+
+		long routes = 0;
+		long[] spare = null;
+		for (int distance = 0; distance < maxDistance; distance++) {
+			long[] row = ways[distance % rowCount];
+			if (row == null) {
+				// Nothing arrives at this distance
+				continue;
+			}
+			ways[distance % rowCount] = null;
+
+			if (distance > 0) {
+				routes = saturatedAdd(routes, row[to]);
+			}
+
+			for (int node = 0; node < nodes.length; node++) {
+				long count = row[node];
+				if (count == 0) {
+					continue;
+				}
+				for (int edge = offsets[node], end = offsets[node + 1]; edge < end; edge++) {
+					int arrival = distance + weights[edge];
+					if (arrival >= maxDistance) {
+						continue;
+					}
+					long[] arrivalRow = ways[arrival % rowCount];
+					if (arrivalRow == null) {
+						arrivalRow = (spare != null) ? spare : new long[nodes.length];
+						spare = null;
+						ways[arrival % rowCount] = arrivalRow;
+					}
+					arrivalRow[targets[edge]] = saturatedAdd(arrivalRow[targets[edge]], count);
+				}
+			}
+
+			Arrays.fill(row, 0);
+			spare = row;
+		}
+
+		return routes;
+	}
+
+	/**
+	 * The longest edge a walk from from can go along before it gets to maxDistance: the edges out of every node
+	 * that is closer than that. Edges anywhere else in the graph are never looked at by the counting, so they
+	 * don't matter.
+	 *
+	 * @param from
+	 * @param maxDistance
+	 * @return The longest such edge, or 0 if there are none
+	 * @throws IllegalStateException If any of those edges isn't longer than 0
+	 */
+	int getMaxWeight(int from, int maxDistance) {
+		int[] distances = new int[nodes.length];
+		shortestPaths(from, distances, new int[nodes.length]);
+		int max = 0;
+		for (int node = 0; node < nodes.length; node++) {
+			if (distances[node] >= maxDistance) {
+				continue;
+			}
+			for (int edge = offsets[node], end = offsets[node + 1]; edge < end; edge++) {
+				if (weights[edge] <= 0) {
+					throw new IllegalStateException("Counting routes by distance needs every edge to be longer than 0, but "
+							+ nodes[node].getLabel() + " -> " + nodes[targets[edge]].getLabel() + " weighs " + weights[edge]);
+				}
+				max = Math.max(max, weights[edge]);
+			}
+		}
+		return max;
+	}
+
+	static long saturatedAdd(long a, long b) {
+		long sum = a + b;
+		return sum < 0 ? Long.MAX_VALUE : sum;
+	}
+
+	/**
+	 * Depth first walk over the paths from source that hands every one of them to the visitor as it gets to it.
+	 * A path isn't followed past a node that's already on it, but the hop that closes the cycle is still visited.
+	 * The walk keeps an explicit stack rather than recursing, so it only ever holds on to the path it's on.
+	 *
+	 * @param onPath Nodes that are already on the path, flagged by id. Used as the visit state for the walk
+	 * @param path The path so far, ending with source. Nodes are added and taken off it as the walk goes
+	 * @param source
+	 * @param maxHops How many hops past source a path can go
+	 * @param maxDistance Paths longer than this aren't followed
+	 * @param target Only paths that end here are visited, or -1 for all of them
+	 * @param visitor
+	 * @return false if the visitor stopped the walk
+	 */
+	boolean walkPaths(boolean[] onPath, List<Node> path, int source, int maxHops, int maxDistance, int target, PathVisitor visitor) {
+		int capacity = Math.min(maxHops, nodes.length) + 1;
+		int[] stack = new int[capacity];
+		int[] cursor = new int[capacity];
+		int[] distances = new int[capacity];
+
+		stack[0] = source;
+		cursor[0] = offsets[source];
+		onPath[source] = true;
+		int depth = 0;
+
+		while (depth >= 0) {
+			int node = stack[depth];
+			if (depth == maxHops || cursor[depth] == offsets[node + 1]) {
+				onPath[node] = false;
+				if (depth-- > 0) {
+					path.remove(path.size() - 1);
+				}
+				continue;
+			}
+
+			int edge = cursor[depth]++;
+			int neighbor = targets[edge];
+			long distance = (long) distances[depth] + weights[edge];
+			if (distance > maxDistance) {
+				continue;
+			}
+
+			path.add(nodes[neighbor]);
+			if ((target == -1 || neighbor == target) && !visitor.visit(path, (int) distance)) {
+				return false;
+			}
+			if (onPath[neighbor]) {
+				path.remove(path.size() - 1);
+				continue;
+			}
+
+			depth++;
+			stack[depth] = neighbor;
+			cursor[depth] = offsets[neighbor];
+			distances[depth] = (int) distance;
+			onPath[neighbor] = true;
+		}
+		return true;
+	}
+
+	public void writeTo(File file) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(nodes.length);
+			out.writeInt(targets.length);
+			for (Node node : nodes) {
+				byte[] label = node.getLabel().getBytes(UTF_8);
+				out.writeInt(label.length);
+				out.write(label);
+			}
+			writeInts(out, offsets);
+			writeInts(out, targets);
+			writeInts(out, weights);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Memory maps a file written by writeTo and copies the arrays straight out of it. Every node comes back as
+	 * a new Node with its label and no edges, it's up to Graph to connect them up again.
+	 * 
+	 * @param file
+	 * @return
+	 * @throws IOException If the file can't be read or isn't a snapshot
+	 */
+	static CompactGraph readFrom(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+			if (buffer.remaining() < 16 || buffer.getInt() != MAGIC) {
+				throw new IOException(file + " is not a graph snapshot");
+			}
+			int version = buffer.getInt();
+			if (version != VERSION) {
+				throw new IOException(file + " is a version " + version + " graph snapshot, only version " + VERSION + " can be read");
+			}
+
+			int nodeCount = buffer.getInt();
+			int edgeCount = buffer.getInt();
+			if (nodeCount < 0 || edgeCount < 0) {
+				throw new IOException(file + " is not a valid graph snapshot");
+			}
+
+			Node[] nodes = new Node[nodeCount];
+			byte[] label = new byte[64];
+			for (int i = 0; i < nodeCount; i++) {
+				int length = buffer.getInt();
+				if (length < 0 || length > buffer.remaining()) {
+					throw new IOException(file + " is not a valid graph snapshot");
+				}
+				if (length > label.length) {
+					label = new byte[Math.max(length, label.length * 2)];
+				}
+				buffer.get(label, 0, length);
+				nodes[i] = new Node(new String(label, 0, length, UTF_8));
+			}
+
+			int[] offsets = new int[nodeCount + 1];
+			int[] targets = new int[edgeCount];
+			int[] weights = new int[edgeCount];
+			buffer.asIntBuffer().get(offsets);
+			buffer.position(buffer.position() + offsets.length * 4);
+			buffer.asIntBuffer().get(targets);
+			buffer.position(buffer.position() + targets.length * 4);
+			buffer.asIntBuffer().get(weights);
+
+			CompactGraph graph = new CompactGraph(nodes, offsets, targets, weights);
+			if (!graph.isWellFormed()) {
+				throw new IOException(file + " is not a valid graph snapshot");
+			}
+			return graph;
+		} catch (BufferUnderflowException e) {
+			throw new IOException(file + " is truncated", e);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * A hash of every label, edge and distance, for telling whether something worked out for one snapshot
+	 * (say a ContractionHierarchy read back from a file) still belongs to another.
+	 *
+	 * @return
+	 */
+	long fingerprint() {
+		long hash = 1125899906842597L;
+		hash = 31 * hash + nodes.length;
+		for (Node node : nodes) {
+			hash = 31 * hash + node.getLabel().hashCode();
+		}
+		for (int offset : offsets) {
+			hash = 31 * hash + offset;
+		}
+		for (int i = 0; i < targets.length; i++) {
+			hash = 31 * hash + targets[i];
+			hash = 31 * hash + weights[i];
+		}
+		return hash;
+	}
+
+	/**
+	 * Goes by the magic number and the version after it. A text edge list can start with the same four bytes
+	 * as the magic number (a station called TTGS...), but never has the zero bytes at the top of the version.
+	 * Versions this can't read still count as snapshots, so that readFrom can say what's wrong with them.
+	 * 
+	 * @param file
+	 * @return True if the file starts like something writeTo wrote
+	 */
+	public static boolean isSnapshot(File file) {
+		try {
+			RandomAccessFile raf = new RandomAccessFile(file, "r");
+			try {
+				if (raf.length() < 16 || raf.readInt() != MAGIC) {
+					return false;
+				}
+				int version = raf.readInt();
+				return version > 0 && version <= 0xFFFF;
+			} finally {
+				raf.close();
+			}
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+		for (int value : values) {
+			out.writeInt(value);
+		}
+	}
+
+	// Offsets have to run in order from 0 to the edge count, and every target has to be a node
+	private boolean isWellFormed() {
+		if (offsets[0] != 0 || offsets[nodes.length] != targets.length) {
+			return false;
+		}
+		for (int i = 0; i < nodes.length; i++) {
+			if (offsets[i] > offsets[i + 1]) {
+				return false;
+			}
+		}
+		for (int target : targets) {
+			if (target < 0 || target >= nodes.length) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,85 @@
+package traintracks.graph;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps every tree, in a ConcurrentHashMap, so reading one takes no lock and writes nothing shared but a hit or
+ * miss count (see StripedCounter). This is what a Graph starts out with. Memory grows by a tree for every source
+ * that has been asked about; use LruShortestPathTreeCache to put a bound on that.
+ */
+public class ConcurrentShortestPathTreeCache implements ShortestPathTreeCache {
+
+	private final ConcurrentHashMap<Node, ShortestPathTree> trees = new ConcurrentHashMap<Node, ShortestPathTree>();
+
+	private final StripedCounter hits = new StripedCounter();
+	private final StripedCounter misses = new StripedCounter();
+
+	@Override
+	public ShortestPathTree get(Node source) {
+		ShortestPathTree tree = trees.get(source);
+		if (tree == null) {
+			misses.increment();
+		} else {
+			hits.increment();
+		}
+		return tree;
+	}
+
+	@Override
+	public ShortestPathTree peek(Node source) {
+		return trees.get(source);
+	}
+
+	@Override
+	public ShortestPathTree putIfAbsent(Node source, ShortestPathTree tree) {
+		return trees.putIfAbsent(source, tree);
+	}
+
+	@Override
+	public void patchAll(Patch patch) {
+		// The iterator is weakly consistent, and the trees are only swapped, never added or taken out, on the way
+		for (Map.Entry<Node, ShortestPathTree> entry : trees.entrySet()) {
+			ShortestPathTree patched = patch.patch(entry.getKey(), entry.getValue());
+			if (patched != null) {
+				trees.replace(entry.getKey(), entry.getValue(), patched);
+			}
+		}
+	}
+
+	@Override
+	public void clear() {
+		trees.clear();
+	}
+
+	@Override
+	public int size() {
+		return trees.size();
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return trees.isEmpty();
+	}
+
+	@Override
+	public long getHitCount() {
+		return hits.sum();
+	}
+
+	@Override
+	public long getMissCount() {
+		return misses.sum();
+	}
+
+	// Nothing is ever let go of
+	@Override
+	public long getEvictionCount() {
+		return 0;
+	}
+
+	@Override
+	public String toString() {
+		return trees.size() + " trees, " + getHitCount() + " hits, " + getMissCount() + " misses";
+	}
+}
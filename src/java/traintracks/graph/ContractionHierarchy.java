@@ -0,0 +1,472 @@
+package traintracks.graph;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * A contraction hierarchy over a snapshot: every node has a rank, and shortcut edges stand in for the nodes
+ * of lower rank along shortest routes (see HierarchyBuilder for how it's made). Any shortest route can then be
+ * found by searching only upwards in rank from both ends, forward from the source and backward from the
+ * target, which on a road or rail network settles a few hundred nodes however big the network is. The route
+ * comes back with the shortcuts unpacked into the original stations.
+ *
+ * Building one takes a while, so it is meant for networks that don't change often. Once built it never changes
+ * and can be shared by any number of threads, each with its own Query. It can be written to a file and read
+ * back for the same snapshot later, say after a restart.
+ *
+ * The file is big endian and laid out as
+ *
+ * int     magic ("TTCH") and format version
+ * int     node count
+ * long    fingerprint of the snapshot it was built for
+ * int[]   ranks (node count)
+ * int     edge count
+ * int[]   sources, targets, weights, first children, second children (edge count each, children -1 for original edges)
+ */
+public final class ContractionHierarchy {
+
+	private static final int MAGIC = 0x54544348;
+	private static final int VERSION = 1;
+
+	private final CompactGraph graph;
+	private final int[] ranks;
+
+	// Every edge, originals and shortcuts. A shortcut stands for its first child followed by its second
+	private final int[] sources;
+	private final int[] targets;
+	private final int[] weights;
+	private final int[] firstChildren;
+	private final int[] secondChildren;
+
+	// Edges that go up in rank, by their source, and edges that go down in rank, by their target.
+	// The backward search runs up the second lot from the target
+	private final int[] upOffsets;
+	private final int[] upEdges;
+	private final int[] downOffsets;
+	private final int[] downEdges;
+
+	ContractionHierarchy(CompactGraph graph, int[] ranks, int[] sources, int[] targets, int[] weights, int[] firstChildren, int[] secondChildren) {
+		this.graph = graph;
+		this.ranks = ranks;
+		this.sources = sources;
+		this.targets = targets;
+		this.weights = weights;
+		this.firstChildren = firstChildren;
+		this.secondChildren = secondChildren;
+
+		int nodeCount = ranks.length;
+		upOffsets = new int[nodeCount + 1];
+		downOffsets = new int[nodeCount + 1];
+		for (int edge = 0; edge < sources.length; edge++) {
+			if (goesUp(edge)) {
+				upOffsets[sources[edge] + 1]++;
+			} else {
+				downOffsets[targets[edge] + 1]++;
+			}
+		}
+		for (int node = 0; node < nodeCount; node++) {
+			upOffsets[node + 1] += upOffsets[node];
+			downOffsets[node + 1] += downOffsets[node];
+		}
+		upEdges = new int[upOffsets[nodeCount]];
+		downEdges = new int[downOffsets[nodeCount]];
+		int[] upNext = Arrays.copyOf(upOffsets, nodeCount);
+		int[] downNext = Arrays.copyOf(downOffsets, nodeCount);
+		for (int edge = 0; edge < sources.length; edge++) {
+			if (goesUp(edge)) {
+				upEdges[upNext[sources[edge]]++] = edge;
+			} else {
+				downEdges[downNext[targets[edge]]++] = edge;
+			}
+		}
+	}
+
+	/**
+	 * Builds the hierarchy on the fork join pool shared by the whole JVM, see SharedPool.
+	 *
+	 * @param graph
+	 * @return
+	 */
+	public static ContractionHierarchy build(CompactGraph graph) {
+		return build(graph, SharedPool.get());
+	}
+
+	public static ContractionHierarchy build(CompactGraph graph, ForkJoinPool pool) {
+		return new HierarchyBuilder(graph).build(pool);
+	}
+
+	public CompactGraph getGraph() {
+		return graph;
+	}
+
+	/**
+	 * @return How many edges were added on top of the graph's own
+	 */
+	public int getShortcutCount() {
+		int shortcuts = 0;
+		for (int edge = 0; edge < firstChildren.length; edge++) {
+			if (firstChildren[edge] != -1) {
+				shortcuts++;
+			}
+		}
+		return shortcuts;
+	}
+
+	/**
+	 * @return A new query, with scratch space for one thread
+	 */
+	public Query newQuery() {
+		return new Query();
+	}
+
+	private boolean goesUp(int edge) {
+		return ranks[sources[edge]] < ranks[targets[edge]];
+	}
+
+	/**
+	 * Writes the hierarchy to a file that readFrom can load back for the same snapshot.
+	 *
+	 * @param file
+	 * @throws IOException
+	 */
+	public void writeTo(File file) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(ranks.length);
+			out.writeLong(graph.fingerprint());
+			writeInts(out, ranks);
+			out.writeInt(sources.length);
+			writeInts(out, sources);
+			writeInts(out, targets);
+			writeInts(out, weights);
+			writeInts(out, firstChildren);
+			writeInts(out, secondChildren);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Reads a hierarchy written by writeTo, which has to have been built for the same graph: same stations
+	 * in the same order, same edges. Graph.load gives back the snapshot exactly as it was saved, so saving
+	 * both the graph and the hierarchy is the way to keep them together.
+	 *
+	 * @param file
+	 * @param graph The snapshot the hierarchy was built for
+	 * @return
+	 * @throws IOException If the file can't be read, isn't a hierarchy, or is for a different graph
+	 */
+	public static ContractionHierarchy readFrom(File file, CompactGraph graph) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+			if (buffer.remaining() < 24 || buffer.getInt() != MAGIC) {
+				throw new IOException(file + " is not a contraction hierarchy");
+			}
+			int version = buffer.getInt();
+			if (version != VERSION) {
+				throw new IOException(file + " is a version " + version + " contraction hierarchy, only version " + VERSION + " can be read");
+			}
+			int nodeCount = buffer.getInt();
+			if (nodeCount != graph.getNodeCount() || buffer.getLong() != graph.fingerprint()) {
+				throw new IOException(file + " was built for a different graph");
+			}
+
+			int[] ranks = readInts(buffer, nodeCount);
+			int edgeCount = buffer.getInt();
+			if (edgeCount < 0 || (long) edgeCount * 20 > buffer.remaining()) {
+				throw new IOException(file + " is not a valid contraction hierarchy");
+			}
+			int[] sources = readInts(buffer, edgeCount);
+			int[] targets = readInts(buffer, edgeCount);
+			int[] weights = readInts(buffer, edgeCount);
+			int[] firstChildren = readInts(buffer, edgeCount);
+			int[] secondChildren = readInts(buffer, edgeCount);
+
+			if (!isWellFormed(nodeCount, ranks, sources, targets, firstChildren, secondChildren)) {
+				throw new IOException(file + " is not a valid contraction hierarchy");
+			}
+			return new ContractionHierarchy(graph, ranks, sources, targets, weights, firstChildren, secondChildren);
+		} catch (BufferUnderflowException e) {
+			throw new IOException(file + " is truncated", e);
+		} finally {
+			raf.close();
+		}
+	}
+
+	private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+		for (int value : values) {
+			out.writeInt(value);
+		}
+	}
+
+	private static int[] readInts(ByteBuffer buffer, int count) {
+		int[] values = new int[count];
+		IntBuffer ints = buffer.asIntBuffer();
+		if (ints.remaining() < count) {
+			throw new BufferUnderflowException();
+		}
+		ints.get(values);
+		buffer.position(buffer.position() + count * 4);
+		return values;
+	}
+
+	// Every node a rank of its own, every edge between two nodes, and every shortcut made of two edges that
+	// come before it and meet in the middle. The last part also means unpacking can't go round in circles
+	private static boolean isWellFormed(int nodeCount, int[] ranks, int[] sources, int[] targets, int[] firstChildren, int[] secondChildren) {
+		boolean[] ranked = new boolean[nodeCount];
+		for (int rank : ranks) {
+			if (rank < 0 || rank >= nodeCount || ranked[rank]) {
+				return false;
+			}
+			ranked[rank] = true;
+		}
+		for (int edge = 0; edge < sources.length; edge++) {
+			if (sources[edge] < 0 || sources[edge] >= nodeCount || targets[edge] < 0 || targets[edge] >= nodeCount) {
+				return false;
+			}
+			int first = firstChildren[edge];
+			int second = secondChildren[edge];
+			if (first == -1 && second == -1) {
+				continue;
+			}
+			if (first < 0 || first >= edge || second < 0 || second >= edge
+			 || sources[first] != sources[edge] || targets[second] != targets[edge] || targets[first] != sources[second]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * One thread's way into the hierarchy. Runs the two upward searches, each of which stops once what it has
+	 * left to settle is no closer than the best meeting point found, and keeps scratch space the size of the
+	 * graph between queries, only resetting what the last one touched.
+	 */
+	public final class Query implements PointToPointSearch {
+
+		private final int[] forwardDistances;
+		private final int[] forwardEdges;
+		private final int[] backwardDistances;
+		private final int[] backwardEdges;
+		private final IndexedMinHeap forwardFrontier;
+		private final IndexedMinHeap backwardFrontier;
+		private final int[] touched;
+		private int touchedCount;
+
+		private int settled;
+		private int relaxed;
+		private int distance;
+		private int[] path;
+
+		private Query() {
+			int nodeCount = ranks.length;
+			forwardDistances = new int[nodeCount];
+			forwardEdges = new int[nodeCount];
+			backwardDistances = new int[nodeCount];
+			backwardEdges = new int[nodeCount];
+			forwardFrontier = new IndexedMinHeap(nodeCount);
+			backwardFrontier = new IndexedMinHeap(nodeCount);
+			touched = new int[nodeCount];
+			Arrays.fill(forwardDistances, Integer.MAX_VALUE);
+			Arrays.fill(backwardDistances, Integer.MAX_VALUE);
+		}
+
+		@Override
+		public CompactGraph getGraph() {
+			return graph;
+		}
+
+		public ContractionHierarchy getHierarchy() {
+			return ContractionHierarchy.this;
+		}
+
+		/**
+		 * @param from
+		 * @param to
+		 * @return The length of the shortest route, or -1 if there is none (or from and to are the same node)
+		 */
+		public int distance(Node from, Node to) {
+			int source = graph.indexOf(from);
+			int target = graph.indexOf(to);
+			if (source == -1 || target == -1 || source == target) {
+				return -1;
+			}
+			return search(source, target);
+		}
+
+		/**
+		 * @param from
+		 * @param to
+		 * @return The shortest route, with the path leaving out from like Graph.shortestPath, or null if there is none
+		 */
+		public Route route(Node from, Node to) {
+			if (distance(from, to) == -1) {
+				return null;
+			}
+			return new Route(null, graph.getNodes(), path, distance, path.length);
+		}
+
+		@Override
+		public int search(int source, int target) {
+			reset();
+
+			touch(source);
+			touch(target);
+			forwardDistances[source] = 0;
+			forwardEdges[source] = -1;
+			forwardFrontier.offer(source, 0);
+			backwardDistances[target] = 0;
+			backwardEdges[target] = -1;
+			backwardFrontier.offer(target, 0);
+
+			int best = Integer.MAX_VALUE;
+			int meeting = -1;
+
+			while (true) {
+				boolean forwardDone = forwardFrontier.isEmpty() || forwardFrontier.peekKey() >= best;
+				boolean backwardDone = backwardFrontier.isEmpty() || backwardFrontier.peekKey() >= best;
+				if (forwardDone && backwardDone) {
+					break;
+				}
+				boolean forwards = backwardDone || (!forwardDone && forwardFrontier.peekKey() <= backwardFrontier.peekKey());
+
+				IndexedMinHeap frontier = forwards ? forwardFrontier : backwardFrontier;
+				int[] distances = forwards ? forwardDistances : backwardDistances;
+				int[] previous = forwards ? forwardEdges : backwardEdges;
+				int[] otherDistances = forwards ? backwardDistances : forwardDistances;
+				int[] offsets = forwards ? upOffsets : downOffsets;
+				int[] edges = forwards ? upEdges : downEdges;
+				int[] ends = forwards ? targets : sources;
+
+				int current = frontier.poll();
+				int currentDistance = distances[current];
+				settled++;
+				relaxed += offsets[current + 1] - offsets[current];
+				for (int i = offsets[current], end = offsets[current + 1]; i < end; i++) {
+					int edge = edges[i];
+					int neighbor = ends[edge];
+					int alternateDistance = (int) Math.min(Integer.MAX_VALUE - 1, (long) currentDistance + weights[edge]);
+					if (alternateDistance >= distances[neighbor]) {
+						continue;
+					}
+					if (distances[neighbor] == Integer.MAX_VALUE && otherDistances[neighbor] == Integer.MAX_VALUE) {
+						touch(neighbor);
+					}
+					distances[neighbor] = alternateDistance;
+					previous[neighbor] = edge;
+					frontier.offer(neighbor, alternateDistance);
+
+					if (otherDistances[neighbor] != Integer.MAX_VALUE && (long) alternateDistance + otherDistances[neighbor] < best) {
+						best = alternateDistance + otherDistances[neighbor];
+						meeting = neighbor;
+					}
+				}
+			}
+
+			if (meeting == -1) {
+				distance = -1;
+				path = null;
+			} else {
+				distance = best;
+				path = unpack(meeting);
+			}
+			return distance;
+		}
+
+		@Override
+		public int getDistance() {
+			return distance;
+		}
+
+		@Override
+		public int[] getPath() {
+			return path;
+		}
+
+		// Both searches together
+		@Override
+		public int getSettledCount() {
+			return settled;
+		}
+
+		@Override
+		public int getRelaxedCount() {
+			return relaxed;
+		}
+
+		/**
+		 * Lines up the edges from the source to the meeting point and on to the target, and expands every
+		 * shortcut into the edges it stands for until only original edges are left.
+		 */
+		private int[] unpack(int meeting) {
+			int[] stack = new int[16];
+			int size = 0;
+
+			// Pushed last to first, so the first edge comes off the stack first
+			for (int node = meeting; backwardEdges[node] != -1; node = targets[backwardEdges[node]]) {
+				size++;
+			}
+			int backwardCount = size;
+			stack = ensure(stack, backwardCount);
+			int node = meeting;
+			for (int i = backwardCount - 1; i >= 0; i--) {
+				stack[i] = backwardEdges[node];
+				node = targets[backwardEdges[node]];
+			}
+			for (node = meeting; forwardEdges[node] != -1; node = sources[forwardEdges[node]]) {
+				stack = ensure(stack, size + 1);
+				stack[size++] = forwardEdges[node];
+			}
+
+			int[] result = new int[16];
+			int length = 0;
+			while (size > 0) {
+				int edge = stack[--size];
+				if (firstChildren[edge] == -1) {
+					result = ensure(result, length + 1);
+					result[length++] = targets[edge];
+				} else {
+					stack = ensure(stack, size + 2);
+					stack[size++] = secondChildren[edge];
+					stack[size++] = firstChildren[edge];
+				}
+			}
+			return Arrays.copyOf(result, length);
+		}
+
+		private int[] ensure(int[] values, int size) {
+			return size <= values.length ? values : Arrays.copyOf(values, Math.max(size, values.length * 2));
+		}
+
+		private void touch(int node) {
+			touched[touchedCount++] = node;
+		}
+
+		private void reset() {
+			for (int i = 0; i < touchedCount; i++) {
+				forwardDistances[touched[i]] = Integer.MAX_VALUE;
+				backwardDistances[touched[i]] = Integer.MAX_VALUE;
+			}
+			touchedCount = 0;
+			forwardFrontier.clear();
+			backwardFrontier.clear();
+			settled = 0;
+			relaxed = 0;
+		}
+	}
+}
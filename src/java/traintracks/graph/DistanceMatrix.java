@@ -0,0 +1,92 @@
+package traintracks.graph;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Shortest distances between every pair of nodes in a snapshot, with the predecessor of every destination on
+ * its shortest route from every source. Both are dense, row major int matrices: the entry for source s and
+ * destination d lives at s * nodeCount + d. Unreachable pairs have a distance of Integer.MAX_VALUE and a
+ * predecessor of -1.
+ *
+ * Building it runs one Dijkstra per source. The sources are split up between the threads of a fork join pool,
+ * and since every search writes to its own rows they don't need to coordinate at all.
+ */
+final class DistanceMatrix {
+
+	// Below this many sources a task stops splitting and just runs the searches
+	private static final int SOURCES_PER_TASK = 16;
+
+	private final CompactGraph graph;
+	private final int nodeCount;
+	private final int[] distances;
+	private final int[] predecessors;
+
+	private DistanceMatrix(CompactGraph graph) {
+		this.graph = graph;
+		this.nodeCount = graph.getNodeCount();
+
+		long cells = (long) nodeCount * nodeCount;
+		if (cells > Integer.MAX_VALUE - 8) {
+			throw new IllegalStateException("A graph of " + nodeCount + " nodes is too big for an all pairs distance matrix");
+		}
+		distances = new int[(int) cells];
+		predecessors = new int[(int) cells];
+	}
+
+	static DistanceMatrix compute(CompactGraph graph, ForkJoinPool pool) {
+		DistanceMatrix matrix = new DistanceMatrix(graph);
+		pool.invoke(matrix.new RowsTask(0, matrix.nodeCount));
+		return matrix;
+	}
+
+	CompactGraph getGraph() {
+		return graph;
+	}
+
+	int getDistance(int from, int to) {
+		return distances[from * nodeCount + to];
+	}
+
+	int[] getPredecessors() {
+		return predecessors;
+	}
+
+	// Where the row of the given source starts in the matrices
+	int rowOffset(int source) {
+		return source * nodeCount;
+	}
+
+	/**
+	 * Fills in the rows for the sources first .. end - 1, splitting in half until there are few enough to do in one go.
+	 */
+	private class RowsTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int first;
+		private final int end;
+
+		RowsTask(int first, int end) {
+			this.first = first;
+			this.end = end;
+		}
+
+		@Override
+		protected void compute() {
+			if (end - first > SOURCES_PER_TASK) {
+				int middle = (first + end) >>> 1;
+				invokeAll(new RowsTask(first, middle), new RowsTask(middle, end));
+				return;
+			}
+
+			int[] rowDistances = new int[nodeCount];
+			int[] rowPredecessors = new int[nodeCount];
+			for (int source = first; source < end; source++) {
+				graph.shortestPaths(source, rowDistances, rowPredecessors);
+				System.arraycopy(rowDistances, 0, distances, rowOffset(source), nodeCount);
+				System.arraycopy(rowPredecessors, 0, predecessors, rowOffset(source), nodeCount);
+			}
+		}
+	}
+}
@@ -15,9 +15,11 @@ public class Edge {
 	
 	public Edge(Node source, Node destination, Integer weight) {
 		this.setSource(source);
-		source.addEdge(this);
 		this.destination = destination;
 		this.setWeight(weight);
+		
+		// Register last, the source indexes its edges by destination
+		source.addEdge(this);
 	}
 	
 	public Node getDest() {
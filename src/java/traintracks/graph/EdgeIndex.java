@@ -0,0 +1,73 @@
+package traintracks.graph;
+
+import java.util.Arrays;
+
+/**
+ * Finds the edge between two node ids of a snapshot in one hash probe or so, however many edges the source
+ * has. Open addressing over (source, target) pairs packed into a long, with the edge's position alongside.
+ * Built once per snapshot and never changed after, so any number of threads can look things up in it.
+ */
+final class EdgeIndex {
+
+	private static final long EMPTY = -1L;
+
+	private final long[] keys;
+	private final int[] edges;
+	private final int mask;
+
+	EdgeIndex(CompactGraph graph) {
+		// At most half full, so a miss doesn't have to look far
+		int capacity = Integer.highestOneBit(Math.max(2, graph.getEdgeCount() * 2 - 1)) << 1;
+		keys = new long[capacity];
+		edges = new int[capacity];
+		mask = capacity - 1;
+		Arrays.fill(keys, EMPTY);
+
+		for (int node = 0; node < graph.getNodeCount(); node++) {
+			for (int edge = graph.getFirstEdge(node); edge < graph.getEndEdge(node); edge++) {
+				add(key(node, graph.getEdgeTarget(edge)), edge);
+			}
+		}
+	}
+
+	private void add(long key, int edge) {
+		int slot = slot(key);
+		while (keys[slot] != EMPTY) {
+			if (keys[slot] == key) {
+				// The first of two parallel edges wins, like it does in findEdge
+				return;
+			}
+			slot = (slot + 1) & mask;
+		}
+		keys[slot] = key;
+		edges[slot] = edge;
+	}
+
+	/**
+	 * @param from
+	 * @param to
+	 * @return The edge position, or -1 if there is no such edge
+	 */
+	int find(int from, int to) {
+		long key = key(from, to);
+		int slot = slot(key);
+		long k;
+		while ((k = keys[slot]) != EMPTY) {
+			if (k == key) {
+				return edges[slot];
+			}
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+	private static long key(int from, int to) {
+		return ((long) from << 32) | (to & 0xFFFFFFFFL);
+	}
+
+	// Consecutive ids would all land next to each other without the multiply
+	private int slot(long key) {
+		long hash = key * 0x9E3779B97F4A7C15L;
+		return (int) (hash ^ (hash >>> 32)) & mask;
+	}
+}
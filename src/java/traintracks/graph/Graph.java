@@ -1,13 +1,22 @@
 package traintracks.graph;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Stack;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+
+import traintracks.graph.metrics.Measurement;
+import traintracks.graph.metrics.MetricsSink;
+import traintracks.graph.metrics.MetricsSink.Operation;
 
 /**
  * Container class for all the nodes. Doesn't hold a reference to edges, as those are held by the nodes themselves. 
@@ -23,38 +32,70 @@ import java.util.Stack;
  * C -> D
  * E -> F
  * 
+ * A Graph can be shared between threads. Writers (addEdge) take turns, while queries never lock: they run on the
+ * current frozen snapshot, keep whatever state they need to themselves, and read the caches through concurrent maps
+ * (unless a shortest path tree cache that locks is swapped in, see ShortestPathTreeCache).
+ * A query that races with a write answers for the graph as it was when the query started. The Nodes and Edges
+ * themselves aren't thread safe, so while other threads are writing, go through the Graph rather than the nodes.
+ * 
+ * What the queries and writes cost can be reported to a MetricsSink (see setMetricsSink): how long each one took,
+ * how much of the graph its search went through, and whether a cache answered it. There is none to begin with.
+ * 
  * @author mark
  */
 
 public class Graph {
 
-	private List<Node> allNodes = new ArrayList<Node>();
+	// Held by anything that changes the graph, and by anything that reads the fields that are only guarded by it
+	private final Object writeLock = new Object();
+	
+	// Only added to with writeLock held. Anyone can read allNodes and nodeIndex: ids never change, so a node's id
+	// can be looked up without waiting for a snapshot
+	private NodeList allNodes = new NodeList();
 	private List<Edge> allEdges = new ArrayList<Edge>();
 	
-	// So that we don't do shortest paths calculation if we don't have to
-	private Map<Node, Map<Node, Route>> shortestRoutesCache = new HashMap<Node, Map<Node, Route>>();
+	// Position of every node in allNodes, so adding an edge doesn't have to scan the list
+	private Map<Node, Integer> nodeIndex = new ConcurrentHashMap<Node, Integer>();
+	
+	// First node added with each label, for getNodeByName
+	private Map<String, Node> nodesByLabel = new ConcurrentHashMap<String, Node>();
+	
+	// So that we don't do shortest paths calculation if we don't have to. New edges are folded into these instead
+	// of clearing the cache. Read by anyone, only added to or patched with writeLock held
+	private volatile ShortestPathTreeCache shortestPathTrees = new ConcurrentShortestPathTreeCache();
+	
+	// Read only copy of the graph that all the queries run on. Thrown away whenever the graph changes
+	private volatile CompactGraph snapshot;
+	
+	// Edges added since the last snapshot, which the next one is made from. Null when the last snapshot can't
+	// simply be extended, because nodes came in with edges of their own or a whole batch was added
+	private volatile PendingEdges pending;
+	
+	// Every shortest distance in the graph, if computeAllPairs has been asked for. Thrown away whenever the graph changes
+	private volatile DistanceMatrix allPairs;
+	
+	// Landmark distances for A*, if prepareLandmarks has been asked for. Thrown away whenever the graph changes
+	private volatile Landmarks landmarks;
 	
-	// To indicate whether we need to perform shortest paths calculation, or we can look in the cache
-	private Boolean dirty = Boolean.TRUE;
+	// Contraction hierarchy for the point to point searches, if there is one. Thrown away whenever the graph changes
+	private volatile ContractionHierarchy hierarchy;
+	
+	// Point to point searches that are done with, for the next one to reuse. Only good for what it was made for
+	// (see SearchPool), so it's replaced when that changes and thrown away whenever the graph changes
+	private volatile SearchPool searchPool;
+	
+	// Where operations are reported to. NOOP unless someone asks for metrics, and then nothing is measured at all
+	private volatile MetricsSink metrics = MetricsSink.NOOP;
 	
 	public Graph() {}
 
 	public Graph addEdge(Node source, Node dest, Integer weight) {
-		dirty = Boolean.TRUE;
-		shortestRoutesCache.clear();
-		
-		if (!allNodes.contains(source)) 
-			allNodes.add(source);
-		
-		if (!allNodes.contains(dest))
-			allNodes.add(dest);
-		
-		if (source.hasNeighbor(dest)) {
-			return this;
+		Measurement measurement = Measurement.start(metrics, Operation.ADD_EDGE);
+		try {
+			addEdge(source, dest, weight, measurement);
+		} finally {
+			measurement.finish();
 		}
-		
-		allEdges.add(new Edge(source, dest, weight)); 
-		
 		return this;
 	}
 	
@@ -64,75 +105,503 @@ public class Graph {
 		return this;
 	}
 	
-	public Route shortestPath(Node from, Node to) {
-		return computeShortestRoutes(from).get(to);
+	/**
+	 * A whole batch of edges at once, for loaders. Makes the same graph as addEdge(nodes[sources[i]],
+	 * nodes[dests[i]], weights[i]) for every i in turn, but takes the lock once for the lot and throws the
+	 * snapshot and the caches away once at the end, instead of once for every edge. Cached shortest routes are
+	 * dropped rather than patched. Reported to the metrics sink as one ADD_EDGE.
+	 * 
+	 * @param nodes The nodes the ids in sources and dests stand for
+	 * @param sources
+	 * @param dests
+	 * @param weights
+	 * @param count How many of the edges in the arrays to add, from the start
+	 */
+	public void addEdges(Node[] nodes, int[] sources, int[] dests, int[] weights, int count) {
+		Measurement measurement = Measurement.start(metrics, Operation.ADD_EDGE);
+		try {
+			synchronized (writeLock) {
+				for (int i = 0; i < count; i++) {
+					Node source = nodes[sources[i]];
+					Node dest = nodes[dests[i]];
+					addNode(source);
+					addNode(dest);
+					if (!source.hasNeighbor(dest)) {
+						allEdges.add(new Edge(source, dest, weights[i]));
+					}
+				}
+				snapshot = null;
+				pending = null;
+				searchPool = null;
+				allPairs = null;
+				landmarks = null;
+				hierarchy = null;
+				clearShortestRoutes();
+			}
+		} finally {
+			measurement.finish();
+		}
+	}
+	
+	private void addEdge(Node source, Node dest, Integer weight, Measurement measurement) {
+		synchronized (writeLock) {
+			
+			// A node that comes in with edges of its own brings more than one new edge into the graph at once,
+			// which is more than the cached routes can be patched for
+			boolean unknownEdges = (addNode(source) && source.getEdgeCount() > 0)
+			                     | (addNode(dest) && dest.getEdgeCount() > 0);
+			snapshot = null;
+			searchPool = null;
+			allPairs = null;
+			landmarks = null;
+			hierarchy = null;
+			
+			if (unknownEdges) {
+				pending = null;
+				clearShortestRoutes();
+			}
+			
+			if (source.hasNeighbor(dest)) {
+				return;
+			}
+			
+			allEdges.add(new Edge(source, dest, weight)); 
+			
+			if (!unknownEdges) {
+				PendingEdges edges = pending;
+				if (edges != null) {
+					edges.add(nodeIndex.get(source), nodeIndex.get(dest), weight);
+				}
+				updateShortestRoutes(source, dest, weight, measurement);
+			}
+		}
 	}
 	
 	/**
-	 * Simple A*. Computes shortest paths to all reachable nodes from the source node given.
-	 * This method will cache the result so that if it is called later on the same node and nothing
-	 * has been changed (no nodes added or removed), it will not compute the result again, 
-	 * but will return the cached value.
+	 * Takes a compact, immutable snapshot of the graph as it is right now. The snapshot is kept and handed
+	 * back on every call until the graph changes again, so this is cheap to call before every query. After
+	 * addEdge the last snapshot is extended with the edges added since, rather than built again from the nodes.
 	 * 
-	 * @param source
 	 * @return
 	 */
-	public Map<Node, Route> computeShortestRoutes(Node source) {
-		
-		// Don't perform calculation if it's been done before and nothings changed 
-		if (!dirty && (shortestRoutesCache.get(source) != null)) {
-			return shortestRoutesCache.get(source);
+	public CompactGraph freeze() {
+		CompactGraph current = snapshot;
+		if (current != null) {
+			return current;
 		}
-
-		List<Node>         nodes     = new LinkedList<Node>();
-		Map<Node, Integer> weights   = new HashMap<Node, Integer>();
-		Map<Node, Node>    prevNodes = new HashMap<Node, Node>();
 		
-		weights.put(source, 0);
+		synchronized (writeLock) {
+			if (snapshot == null) {
+				PendingEdges edges = pending;
+				snapshot = edges != null ? edges.extend(allNodes, nodeIndex) : new CompactGraph(allNodes, nodeIndex);
+				pending = new PendingEdges(snapshot);
+			}
+			return snapshot;
+		}
+	}
+	
+	/**
+	 * Runs a shortest path search from every node at once, spread over all the cores, and keeps the results
+	 * as a distance matrix and a predecessor matrix. Until the graph changes, shortestDistance is then a
+	 * single array lookup and shortestPath only has to walk back along the route.
+	 * 
+	 * The matrices take 8 bytes per pair of nodes, so this is meant for networks of up to a few ten thousand nodes.
+	 * The searches run on the fork join pool shared by the whole JVM (see SharedPool); pass a pool of your own to
+	 * keep them off it.
+	 */
+	public void computeAllPairs() {
+		computeAllPairs(SharedPool.get());
+	}
+	
+	public void computeAllPairs(ForkJoinPool pool) {
+		CompactGraph graph = freeze();
+		DistanceMatrix matrix = DistanceMatrix.compute(graph, pool);
 		
-		// Initialize all nodes to have effectively infinite distance
-		for (Node node : allNodes) {
-			if (!node.equals(source)) {
-				weights.put(node, Integer.MAX_VALUE);
-				prevNodes.put(node, null);
+		synchronized (writeLock) {
+			// If an edge came in while we were at it, the matrix is already out of date
+			if (snapshot == graph) {
+				allPairs = matrix;
 			}
-			nodes.add(node);
 		}
+	}
+	
+	/**
+	 * Picks landmarks spread out to the edges of the network and works out the distances between them and
+	 * every node, so that from then on shortestPath runs A* with the landmarks bounding the distance left to go
+	 * (see Landmarks). On big networks that settles a small fraction of the nodes a plain search would. It pays
+	 * off most on networks of long lines; where lots of tracks jump across the network, the bidirectional search
+	 * shortestPath otherwise uses is already hard to beat. Adding an edge throws the landmarks away again.
+	 * 
+	 * @param count How many landmarks. Costs two ints per node per landmark; somewhere around 8 to 16 is usual
+	 */
+	public void prepareLandmarks(int count) {
+		if (count < 1) {
+			throw new IllegalArgumentException("Need at least one landmark, got " + count);
+		}
+		CompactGraph graph = freeze();
+		Landmarks prepared = Landmarks.select(graph, count);
 		
-		// A*
-		while (!nodes.isEmpty()) {
-			Node node = findMinimum(nodes, weights);
-			if (weights.get(node).equals(Integer.MAX_VALUE)) {
-				continue;
+		synchronized (writeLock) {
+			// Same as computeAllPairs, the landmarks are no good if an edge came in meanwhile
+			if (snapshot == graph) {
+				landmarks = prepared;
 			}
-			for (Node neighbor : node.getNeighbors()) {
-				Integer alternateWeight = weights.get(node) + node.getEdgeForNeighbor(neighbor).getWeight();
-				if (alternateWeight < weights.get(neighbor)) {
-					weights.put(neighbor, alternateWeight);
-					prevNodes.put(neighbor, node);
+		}
+	}
+	
+	/**
+	 * Builds a contraction hierarchy for the graph as it is (see ContractionHierarchy) and uses it for
+	 * shortestPath and shortestDistance from then on, until the graph changes. This takes far longer than
+	 * prepareLandmarks but makes every query after it far quicker, so it's for networks that hardly change.
+	 * 
+	 * @return The hierarchy, to save with writeTo or query directly
+	 */
+	public ContractionHierarchy prepareContractionHierarchy() {
+		ContractionHierarchy built = ContractionHierarchy.build(freeze());
+		synchronized (writeLock) {
+			if (snapshot == built.getGraph()) {
+				hierarchy = built;
+			}
+		}
+		return built;
+	}
+	
+	/**
+	 * Uses a hierarchy built earlier, say one read back with ContractionHierarchy.readFrom after a restart.
+	 * 
+	 * @param contractionHierarchy
+	 * @throws IllegalArgumentException If it wasn't built for the graph's current snapshot
+	 */
+	public void useContractionHierarchy(ContractionHierarchy contractionHierarchy) {
+		synchronized (writeLock) {
+			if (contractionHierarchy.getGraph() != freeze()) {
+				throw new IllegalArgumentException("The contraction hierarchy was built for a different snapshot of the graph");
+			}
+			hierarchy = contractionHierarchy;
+		}
+	}
+	
+	/**
+	 * Writes the graph to a binary snapshot file that load can read back without any parsing.
+	 * 
+	 * @param file
+	 * @throws IOException
+	 */
+	public void save(File file) throws IOException {
+		freeze().writeTo(file);
+	}
+	
+	/**
+	 * Reads a graph written by save. The file is memory mapped and its arrays copied out as they are, and
+	 * the snapshot it describes is used as the new graph's frozen snapshot straight away.
+	 * 
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public static Graph load(File file) throws IOException {
+		CompactGraph snapshot = CompactGraph.readFrom(file);
+		Graph graph = new Graph();
+		
+		// Nobody else can see the graph yet, so the nodes and edges go straight in, in one pass over the snapshot,
+		// without addEdge's lock and cache upkeep. Node ids come out the same as the snapshot's, as nodes go in in order
+		int nodeCount = snapshot.getNodeCount();
+		graph.allNodes = new NodeList(nodeCount);
+		graph.allEdges = new ArrayList<Edge>(snapshot.getEdgeCount());
+		graph.nodeIndex = new ConcurrentHashMap<Node, Integer>(Math.max(16, (int) (nodeCount / 0.75f) + 1));
+		for (int node = 0; node < nodeCount; node++) {
+			Node source = snapshot.getNode(node);
+			graph.addNode(source);
+			for (int edge = snapshot.getFirstEdge(node); edge < snapshot.getEndEdge(node); edge++) {
+				Node dest = snapshot.getNode(snapshot.getEdgeTarget(edge));
+				if (!source.hasNeighbor(dest)) {
+					graph.allEdges.add(new Edge(source, dest, snapshot.getEdgeWeight(edge)));
 				}
 			}
 		}
 		
-		List<Node> unreachableNodes = new ArrayList<Node>();
+		// Parallel edges in the file were dropped on the way in, in which case the snapshot doesn't match any more
+		if (graph.allEdges.size() == snapshot.getEdgeCount()) {
+			graph.snapshot = snapshot;
+			graph.pending = new PendingEdges(snapshot);
+		}
+		return graph;
+	}
+	
+	/**
+	 * The shortest route from one node to another. Answered straight from the all pairs matrix or the
+	 * cached routes from the source if there are any. Otherwise the contraction hierarchy is searched if there is
+	 * one, A* runs if there are landmarks (see prepareLandmarks), or else a bidirectional search, which only
+	 * explores around the source and the target rather than the whole graph.
+	 * 
+	 * @param from
+	 * @param to
+	 * @return The route, with the path leaving out from, or null if there is no such route
+	 */
+	public Route shortestPath(Node from, Node to) {
+		Measurement measurement = Measurement.start(metrics, Operation.SHORTEST_PATH);
+		try {
+			return shortestPath(from, to, measurement);
+		} finally {
+			measurement.finish();
+		}
+	}
+	
+	private Route shortestPath(Node from, Node to, Measurement measurement) {
+		DistanceMatrix matrix = allPairs;
+		if (matrix == null) {
+			// Point to point searches don't fill the cache, so this is no use of it, only a look for a tree that's there anyway
+			ShortestPathTree cachedTree = shortestPathTrees.peek(from);
+			if (cachedTree != null) {
+				measurement.setCached(true);
+				return cachedTree.routeTo(to);
+			}
+			
+			PointToPointSearch search = searchBetween(from, to, measurement);
+			if (search == null) {
+				return null;
+			}
+			try {
+				return makeRoute(search.getGraph().getNodes(), search.getPath(), search.getDistance());
+			} finally {
+				releaseSearch(search);
+			}
+		}
 		
-		for (Map.Entry<Node, Integer> entry : weights.entrySet()) {
-			if (entry.getValue().equals(Integer.MAX_VALUE)) {
-				unreachableNodes.add(entry.getKey());
+		measurement.setCached(true);
+		int source = matrix.getGraph().indexOf(from);
+		int dest = matrix.getGraph().indexOf(to);
+		if (source == -1 || dest == -1 || source == dest || matrix.getDistance(source, dest) == Integer.MAX_VALUE) {
+			return null;
+		}
+		return makeRoute(matrix.getGraph().getNodes(), source, dest, matrix.getDistance(source, dest), matrix.getPredecessors(), matrix.rowOffset(source));
+	}
+	
+	/**
+	 * Length of shortestPath(from, to), without building the Route.
+	 * 
+	 * @param from
+	 * @param to
+	 * @return The distance, or -1 if there is no such route
+	 */
+	public int shortestDistance(Node from, Node to) {
+		Measurement measurement = Measurement.start(metrics, Operation.SHORTEST_DISTANCE);
+		try {
+			return shortestDistance(from, to, measurement);
+		} finally {
+			measurement.finish();
+		}
+	}
+	
+	private int shortestDistance(Node from, Node to, Measurement measurement) {
+		DistanceMatrix matrix = allPairs;
+		if (matrix == null) {
+			ShortestPathTree cachedTree = shortestPathTrees.peek(from);
+			if (cachedTree != null) {
+				measurement.setCached(true);
+				return from == to ? -1 : cachedTree.getDistance(to);
+			}
+			
+			PointToPointSearch search = searchBetween(from, to, measurement);
+			if (search == null) {
+				return -1;
 			}
+			int distance = search.getDistance();
+			releaseSearch(search);
+			return distance;
 		}
 		
-		for (Node unreachableNode : unreachableNodes) {
-			weights.remove(unreachableNode);
+		measurement.setCached(true);
+		int source = matrix.getGraph().indexOf(from);
+		int dest = matrix.getGraph().indexOf(to);
+		if (source == -1 || dest == -1 || source == dest || matrix.getDistance(source, dest) == Integer.MAX_VALUE) {
+			return -1;
+		}
+		return matrix.getDistance(source, dest);
+	}
+	
+	/**
+	 * Runs a point to point search, on scratch space from the search pool.
+	 * 
+	 * @param from
+	 * @param to
+	 * @param measurement Gets the nodes and edges the search went through
+	 * @return The finished search, to hand back with releaseSearch once its answer has been read, or null if
+	 * there is no route
+	 */
+	private PointToPointSearch searchBetween(Node from, Node to, Measurement measurement) {
+		CompactGraph graph = freeze();
+		int source = graph.indexOf(from);
+		int dest = graph.indexOf(to);
+		if (source == -1 || dest == -1 || source == dest) {
+			return null;
 		}
-		Map<Node, Route> routeMap = makeRouteMap(source, weights, prevNodes);
 		
-		// Cache result
-		shortestRoutesCache.put(source, routeMap);
+		SearchPool pool = searchPool;
+		ContractionHierarchy currentHierarchy = hierarchy;
+		Landmarks currentLandmarks = landmarks;
+		if (currentHierarchy != null && currentHierarchy.getGraph() == graph) {
+			if (pool == null || !pool.isFor(currentHierarchy)) {
+				pool = new SearchPool(currentHierarchy);
+			}
+		} else if (currentLandmarks != null && currentLandmarks.getGraph() == graph) {
+			if (pool == null || !pool.isFor(currentLandmarks)) {
+				pool = new SearchPool(currentLandmarks);
+			}
+		} else if (pool == null || !pool.isFor(graph)) {
+			pool = new SearchPool(graph);
+		}
+		// Racing queries may each put in a pool of their own; whichever stays, the others' searches just aren't reused
+		searchPool = pool;
 		
-		dirty = Boolean.FALSE;
+		PointToPointSearch search = pool.take();
+		int distance = search.search(source, dest);
+		measurement.addSettled(search.getSettledCount());
+		measurement.addRelaxed(search.getRelaxedCount());
+		if (distance == -1) {
+			releaseSearch(search);
+			return null;
+		}
+		return search;
+	}
+	
+	private void releaseSearch(PointToPointSearch search) {
+		SearchPool pool = searchPool;
+		if (pool != null) {
+			pool.release(search);
+		}
+	}
+	
+	/**
+	 * Dijkstra; with every node a target, there is nothing for A* to steer towards. Computes shortest paths
+	 * to all reachable nodes from the source node given. This method will cache the result so that if it is
+	 * called later on the same node, it will not compute the result again, but will return the cached value.
+	 * Edges added in the meantime are patched into the cached value as they come in (see addEdge), so it is
+	 * never stale.
+	 * 
+	 * The search runs on the frozen snapshot of the graph, with an indexed binary heap with decrease-key
+	 * as the frontier, so it costs O((V + E) log V). Only the search's own arrays are kept (see
+	 * shortestPathTree); the map is a view over them that puts each Route together when it's asked for.
+	 * A map that was handed out before an edge came in goes on answering for the graph as it was then.
+	 * 
+	 * @param source
+	 * @return
+	 */
+	public Map<Node, Route> computeShortestRoutes(Node source) {
+		Measurement measurement = Measurement.start(metrics, Operation.SHORTEST_ROUTES);
+		ShortestPathTree tree;
+		try {
+			tree = shortestPathTree(source, measurement);
+		} finally {
+			measurement.finish();
+		}
+		if (tree == null) {
+			// Not part of this graph, so nothing is reachable from it
+			return new HashMap<Node, Route>();
+		}
+		return tree.getRoutes();
+	}
+	
+	/**
+	 * The search behind computeShortestRoutes, without making any Routes: just the distance to every node and
+	 * the node before it on the way there, from which the route to any one node can be put together on its own.
+	 * Cached the same way.
+	 * 
+	 * @param source
+	 * @return The tree, or null if source isn't part of the graph
+	 */
+	public ShortestPathTree shortestPathTree(Node source) {
+		Measurement measurement = Measurement.start(metrics, Operation.SHORTEST_ROUTES);
+		try {
+			return shortestPathTree(source, measurement);
+		} finally {
+			measurement.finish();
+		}
+	}
+	
+	private ShortestPathTree shortestPathTree(Node source, Measurement measurement) {
+		
+		// Don't perform calculation if it's been done before
+		ShortestPathTree cachedTree = shortestPathTrees.get(source);
+		if (cachedTree != null) {
+			measurement.setCached(true);
+			return cachedTree;
+		}
+
+		CompactGraph graph = freeze();
+		int sourceIndex = graph.indexOf(source);
+		if (sourceIndex == -1) {
+			return null;
+		}
+		
+		int[] weights   = new int[graph.getNodeCount()];
+		int[] prevNodes = new int[graph.getNodeCount()];
+		measurement.addRelaxed(graph.shortestPaths(sourceIndex, weights, prevNodes));
+		
+		ShortestPathTree tree = new ShortestPathTree(this, graph.getNodes(), sourceIndex, weights, prevNodes);
+		measurement.addSettled(tree.getSettledCount());
+		
+		// Cache result, unless an edge came in while we were searching. Then the result is only right for
+		// the graph as it was, and addEdge has already patched whatever was in the cache
+		synchronized (writeLock) {
+			if (snapshot == graph) {
+				ShortestPathTree racedTree = shortestPathTrees.putIfAbsent(source, tree);
+				if (racedTree != null) {
+					return racedTree;
+				}
+			}
+		}
 		
-		return routeMap;
+		return tree;
+	}
+	
+	/**
+	 * Forgets every shortest route worked out so far, to give the memory back. They are worked out again
+	 * the next time they're asked for.
+	 */
+	public void clearShortestRouteCache() {
+		synchronized (writeLock) {
+			clearShortestRoutes();
+		}
+	}
+
+	/**
+	 * Swaps in a different cache for the shortest path trees, for instance an LruShortestPathTreeCache with a budget
+	 * on a big network. The trees in the old cache aren't carried over.
+	 *
+	 * @param cache
+	 */
+	public void setShortestPathTreeCache(ShortestPathTreeCache cache) {
+		if (cache == null) {
+			throw new IllegalArgumentException("Needs a cache, use clearShortestRouteCache() to let go of the trees");
+		}
+		synchronized (writeLock) {
+			shortestPathTrees = cache;
+		}
+	}
+
+	/**
+	 * @return The cache the shortest path trees are kept in, with its hit, miss and eviction counts
+	 */
+	public ShortestPathTreeCache getShortestPathTreeCache() {
+		return shortestPathTrees;
+	}
+
+	/**
+	 * Starts reporting every query and every new edge to the sink, see MetricsSink. MetricsSink.NOOP turns
+	 * the reporting off again.
+	 *
+	 * @param sink
+	 */
+	public void setMetricsSink(MetricsSink sink) {
+		if (sink == null) {
+			throw new IllegalArgumentException("Needs a sink, use MetricsSink.NOOP to turn metrics off");
+		}
+		metrics = sink;
+	}
+
+	public MetricsSink getMetricsSink() {
+		return metrics;
 	}
 	
 	/**
@@ -146,147 +615,460 @@ public class Graph {
 	}
 	
 	/**
-	 * The nitty gritty implementation of finding the paths for each node. Pretty much
-	 * a recursive DFS that tracks it currentPath at every step. This implementation will
-	 * not continue to hop through cycles.
+	 * Every path from source, collected into a list. This implementation will not continue to hop through
+	 * cycles, and gives up on a path once it is 10 nodes long. Each path is a copy, so the list gets very big
+	 * on dense graphs; findPaths with a PathVisitor walks the same paths without keeping them.
 	 * 
 	 * @param source
 	 * @param sharedPathsList
-	 * @param currentPath
-	 * @param count
-	 * @return A List of all the "Paths" taken from this node.
+	 * @param currentPath Nodes already walked before source. They count as visited, and start every path
+	 * @param count Number of nodes already on currentPath
+	 * @return A List of all the "Paths" taken from this node, starting with the one that's just source.
 	 */
-	public List<ArrayList<Node>> findPaths(Node source, List<ArrayList<Node>> sharedPathsList, Stack<Node> currentPath, int count) {
-
-		currentPath.push(source);
-		source.markAsVisiting();
+	public List<ArrayList<Node>> findPaths(Node source, final List<ArrayList<Node>> sharedPathsList, Stack<Node> currentPath, int count) {
+		Measurement measurement = Measurement.start(metrics, Operation.FIND_PATHS);
+		try {
+			CompactGraph graph = freeze();
+			int sourceIndex = graph.indexOf(source);
+			if (sourceIndex == -1) {
+				return sharedPathsList;
+			}
 		
-		// Copy current path and add it to list of all paths
-		ArrayList<Node> path = new ArrayList<Node>(currentPath);
-		sharedPathsList.add(sharedPathsList.size(), path);
+			boolean[] onPath = new boolean[graph.getNodeCount()];
+			List<Node> path = new ArrayList<Node>(currentPath);
+			for (Node node : currentPath) {
+				int index = graph.indexOf(node);
+				if (index != -1) {
+					onPath[index] = true;
+				}
+			}
+			path.add(source);
+			sharedPathsList.add(new ArrayList<Node>(path));
 		
-		if (++count >= 10) {
+			graph.walkPaths(onPath, path, sourceIndex, Math.max(0, 9 - count), Integer.MAX_VALUE, -1, new PathVisitor() {
+				@Override
+				public boolean visit(List<Node> path, int distance) {
+					sharedPathsList.add(new ArrayList<Node>(path));
+					return true;
+				}
+			});
 			return sharedPathsList;
+		} finally {
+			measurement.finish();
 		}
-		
-		for (Node neighbor : source.getNeighbors()) {
-			if (neighbor.isBeingVisited()) {
-				ArrayList<Node> temp = new ArrayList<Node>(currentPath);
-				temp.add(temp.size(), neighbor);
-				sharedPathsList.add(sharedPathsList.size(), temp);
-			} else {
-				findPaths(neighbor, sharedPathsList, currentPath, count);
+	}
+	
+	/**
+	 * Walks the paths from source that the query allows, and hands them to the visitor one at a time, as they're
+	 * found. Nothing but the path the walk is on is kept, so this runs in memory proportional to the longest path
+	 * however many paths there are, and the visitor can stop the walk as soon as it has what it needs. Paths don't
+	 * go through the same node twice, except that a path can end by going back to a node already on it.
+	 * 
+	 * @param source
+	 * @param query
+	 * @param visitor
+	 * @return false if the visitor stopped the walk
+	 */
+	public boolean findPaths(Node source, PathQuery query, PathVisitor visitor) {
+		Measurement measurement = Measurement.start(metrics, Operation.FIND_PATHS);
+		try {
+			CompactGraph graph = freeze();
+			int sourceIndex = graph.indexOf(source);
+			int target = query.getTarget() == null ? -1 : graph.indexOf(query.getTarget());
+			if (sourceIndex == -1 || (query.getTarget() != null && target == -1)) {
+				return true;
 			}
-		}
 		
-		currentPath.pop();
-		source.markAsVisited();
-		return sharedPathsList;
+			List<Node> path = new ArrayList<Node>();
+			path.add(source);
+			return graph.walkPaths(new boolean[graph.getNodeCount()], path, sourceIndex, query.getMaxHops(), query.getMaxDistance(), target, visitor);
+		} finally {
+			measurement.finish();
+		}
 	}
 	
 	/**
-	 * Helper method to turn a Collection of "Paths" into a Collection of Routes
+	 * How many paths findPaths(source, query, visitor) would visit, counted over all the cores. The walk is
+	 * split up at the first hops out of source, and further down wherever threads run out of work. Works out
+	 * the count on the fork join pool shared by the whole JVM (see SharedPool); pass your own pool to keep it off that.
+	 * 
 	 * @param source
-	 * @param weights
-	 * @param prevNodes
+	 * @param query
 	 * @return
 	 */
-	private Map<Node, Route> makeRouteMap(Node source, Map<Node, Integer> weights,
-			                            Map<Node, Node> prevNodes) {
-		
-		Map<Node, Route> routes = new HashMap<Node, Route>();
-		
-		for (Map.Entry<Node, Integer> entry : weights.entrySet()) {
-			Integer hops = 1;
-			Node node = entry.getKey();
-			if (node.equals(source)) {
-				continue;
+	public long countPaths(Node source, PathQuery query) {
+		return countPaths(source, query, SharedPool.get());
+	}
+	
+	public long countPaths(Node source, PathQuery query, ForkJoinPool pool) {
+		Measurement measurement = Measurement.start(metrics, Operation.PARALLEL_PATHS);
+		try {
+			CompactGraph graph = freeze();
+			int sourceIndex = graph.indexOf(source);
+			int target = query.getTarget() == null ? -1 : graph.indexOf(query.getTarget());
+			if (sourceIndex == -1 || (query.getTarget() != null && target == -1)) {
+				return 0;
 			}
-			Route route = new Route();
-			route.setDistance(entry.getValue());
-			
-			Node nextHop = node;
-			route.getPath().add(0, nextHop);
-			while ((nextHop = prevNodes.get(nextHop)) != null) {
-				if (nextHop.equals(source)) {
-					continue;
-				}
-				hops++;
-				route.getPath().add(0, nextHop);
+			return PathsTask.count(graph, sourceIndex, query.getMaxHops(), query.getMaxDistance(), target, pool);
+		} finally {
+			measurement.finish();
+		}
+	}
+	
+	/**
+	 * The paths findPaths(source, query, visitor) would visit, walked in parallel like countPaths. Each task
+	 * collects its own share and they're put together at the end, in the order the visitor would have seen them.
+	 * 
+	 * Both are reported to the metrics sink as PARALLEL_PATHS, with only what the calling thread allocated.
+	 * 
+	 * @param source
+	 * @param query
+	 * @param pool
+	 * @return A copy of every path, starting with source
+	 */
+	public List<ArrayList<Node>> findPaths(Node source, PathQuery query, ForkJoinPool pool) {
+		Measurement measurement = Measurement.start(metrics, Operation.PARALLEL_PATHS);
+		try {
+			CompactGraph graph = freeze();
+			int sourceIndex = graph.indexOf(source);
+			int target = query.getTarget() == null ? -1 : graph.indexOf(query.getTarget());
+			if (sourceIndex == -1 || (query.getTarget() != null && target == -1)) {
+				return new ArrayList<ArrayList<Node>>();
 			}
-			route.setHops(hops);
-			routes.put(node, route);
+			return PathsTask.collect(graph, sourceIndex, query.getMaxHops(), query.getMaxDistance(), target, pool);
+		} finally {
+			measurement.finish();
+		}
+	}
+	
+	/**
+	 * Counts the trips from one node to another with at least minStops and at most maxStops stops along the way,
+	 * where every hop is a stop (so A -> B -> C is 2 stops). Trips can go round cycles as often as they like,
+	 * so the count includes trips that pass through the same station more than once.
+	 * 
+	 * Runs in O(maxStops * E) without enumerating any paths, so big stop limits are fine.
+	 * 
+	 * @param from
+	 * @param to
+	 * @param minStops
+	 * @param maxStops
+	 * @return The number of trips, capped at Long.MAX_VALUE
+	 */
+	public long countTrips(Node from, Node to, int minStops, int maxStops) {
+		if (minStops < 1 || maxStops < minStops) {
+			throw new IllegalArgumentException("Need 1 <= minStops <= maxStops, got " + minStops + " and " + maxStops);
 		}
 		
-		return routes;
+		CompactGraph graph = freeze();
+		int source = graph.indexOf(from);
+		int dest = graph.indexOf(to);
+		if (source == -1 || dest == -1) {
+			return 0;
+		}
+		return graph.countTrips(source, dest, minStops, maxStops);
+	}
+	
+	/**
+	 * Counts the routes from one node to another that are shorter than maxDistance. Routes can go round
+	 * cycles as many times as they fit, and cycles that share edges are no problem. Works by dynamic programming
+	 * over (node, distance so far) in O(maxDistance * E), without looking at any of the routes themselves.
+	 * 
+	 * Every edge in the graph has to be longer than 0.
+	 * 
+	 * @param from
+	 * @param to
+	 * @param maxDistance Routes have to be strictly shorter than this
+	 * @return The number of routes, capped at Long.MAX_VALUE
+	 */
+	public long countRoutesUnderDistance(Node from, Node to, int maxDistance) {
+		CompactGraph graph = freeze();
+		int source = graph.indexOf(from);
+		int dest = graph.indexOf(to);
+		if (source == -1 || dest == -1) {
+			return 0;
+		}
+		return graph.countRoutesUnderDistance(source, dest, maxDistance);
+	}
+	
+	/**
+	 * The routes countRoutesUnderDistance counts, produced one at a time as the iterator is walked. Each
+	 * Route's path starts with from, like the ones started with from(). The routes come out in depth first
+	 * order, not by distance.
+	 * 
+	 * @param from
+	 * @param to
+	 * @param maxDistance Routes have to be strictly shorter than this
+	 * @return
+	 */
+	public Iterator<Route> routesUnderDistance(Node from, Node to, int maxDistance) {
+		CompactGraph graph = freeze();
+		int source = graph.indexOf(from);
+		int dest = graph.indexOf(to);
+		if (source == -1 || dest == -1) {
+			return Collections.<Route>emptyIterator();
+		}
+		return new BoundedRouteIterator(this, graph, source, dest, maxDistance);
+	}
+
+	/**
+	 * The routes from one node to another that don't pass through any node twice, shortest first. Each one is
+	 * only worked out when the iterator is asked for it, so taking the best few alternatives to a route is cheap
+	 * however many routes there are in all. Each Route's path starts with from, like the ones routesUnderDistance
+	 * gives. The iterator works on the graph as it was when this was called.
+	 *
+	 * @param from
+	 * @param to
+	 * @return The routes, none if there is no route or from and to are the same node
+	 */
+	public Iterator<Route> kShortestPaths(Node from, Node to) {
+		CompactGraph graph = freeze();
+		int source = graph.indexOf(from);
+		int dest = graph.indexOf(to);
+		if (source == -1 || dest == -1 || source == dest) {
+			return Collections.<Route>emptyIterator();
+		}
+		return new KShortestPathIterator(this, graph, source, dest);
 	}
 
 	/**
-	 * Finds the node which has the lowest weight in the weights Map which is in the nodesLeft list.
-	 * After it finds it, it removes it from the nodesLeft list
-	 * Pretty much a helper for A*
+	 * Wraps the path a point to point search found. The Route takes the array over.
 	 * 
-	 * @param nodes
-	 * @param weights
+	 * @param nodes The nodes by id
+	 * @param path Node ids after the source
+	 * @param distance
 	 * @return
 	 */
-	private Node findMinimum(List<Node> nodesLeft, Map<Node, Integer> weights) {
-		List<Map.Entry<Node, Integer>> sortedNodes = new ArrayList<Map.Entry<Node, Integer>>();
-		sortedNodes.addAll(weights.entrySet());
+	private Route makeRoute(List<Node> nodes, int[] path, int distance) {
+		return new Route(this, nodes, path, distance, path.length);
+	}
+	
+	/**
+	 * Follows the predecessors back from node to the source, once to count the hops and once to fill them in
+	 * from the back. The source isn't part of the route's path.
+	 * 
+	 * @param nodes The nodes by id
+	 * @param source
+	 * @param node
+	 * @param distance
+	 * @param predecessors The predecessor of node n is at predecessors[offset + n]
+	 * @param offset
+	 * @return
+	 */
+	Route makeRoute(List<Node> nodes, int source, int node, int distance, int[] predecessors, int offset) {
+		int hops = 0;
+		for (int hop = node; hop != source && hop != -1; hop = predecessors[offset + hop]) {
+			hops++;
+		}
+		int[] path = new int[hops];
+		int i = hops;
+		for (int hop = node; i > 0; hop = predecessors[offset + hop]) {
+			path[--i] = hop;
+		}
+		return new Route(this, nodes, path, distance, hops);
+	}
+	
+	/**
+	 * Folds a new edge into every cached search. Adding an edge can only ever make routes shorter, so
+	 * starting from the far end of the new edge we only have to follow the nodes whose distance actually
+	 * drops, like a Dijkstra that is seeded with the improvement. Trees the edge doesn't improve are left
+	 * alone, the others get a patched tree with just the changed entries laid over them (see
+	 * ShortestPathTree.patched), which then takes their place in the cache. Only called with writeLock held.
+	 * 
+	 * @param source
+	 * @param dest
+	 * @param weight
+	 * @param measurement Gets the nodes and edges the repairs went through
+	 */
+	private void updateShortestRoutes(Node source, Node dest, final Integer weight, final Measurement measurement) {
+		if (shortestPathTrees.isEmpty()) {
+			return;
+		}
+		final int from = nodeIndex.get(source);
+		final int to = nodeIndex.get(dest);
 		
-		Collections.sort(sortedNodes, new Comparator<Map.Entry<Node, Integer>>() {
-
+		shortestPathTrees.patchAll(new ShortestPathTreeCache.Patch() {
 			@Override
-			public int compare(java.util.Map.Entry<Node, Integer> e1,
-					java.util.Map.Entry<Node, Integer> e2) {
-				
-				if (e1.getValue() > e2.getValue()) {
-					return 1;
-				} else if (e1.getValue() < e2.getValue()) {
-					return -1;
-				} else {
-					return 0;
+			public ShortestPathTree patch(Node treeSource, ShortestPathTree tree) {
+				if (!tree.isReachable(from) || tree.distanceTo(from) + weight >= tree.distanceTo(to)) {
+					return null;
 				}
+				return repairShortestPathTree(tree, from, to, weight, measurement);
 			}
-			
 		});
+	}
+	
+	/**
+	 * Only call once it's known that the edge makes the route to its far end shorter. Readers may be looking
+	 * at the tree, so the new distances are worked out on the side and handed to the tree in one go.
+	 * 
+	 * @param tree
+	 * @param from
+	 * @param to
+	 * @param weight
+	 * @param measurement
+	 * @return The tree with the edge worked in
+	 */
+	private ShortestPathTree repairShortestPathTree(ShortestPathTree tree, int from, int to, int weight, Measurement measurement) {
+		
+		// Every entry that has changed so far, as TreePatch.entry, looked at before the tree
+		Map<Integer, Long> changed = new HashMap<Integer, Long>();
 		
-		// Find the first node in sortedNodes that is in the list
-		for (int i = 0; i < sortedNodes.size(); i++) {
-			Node node = sortedNodes.get(i).getKey();
-			if (nodesLeft.contains(node)) {
-				nodesLeft.remove(node);
-				return node;
+		// Entries are distance << 32 | node, so they come out closest first. Entries that have
+		// been beaten since they were queued are skipped, which saves a decrease-key
+		PriorityQueue<Long> frontier = new PriorityQueue<Long>();
+		int toDistance = tree.distanceTo(from) + weight;
+		changed.put(to, TreePatch.entry(toDistance, from));
+		frontier.add(((long) toDistance << 32) | to);
+		
+		int settled = 0;
+		int relaxed = 0;
+		while (!frontier.isEmpty()) {
+			long entry = frontier.poll();
+			int current = (int) entry;
+			int distance = (int) (entry >> 32);
+			if (distance != TreePatch.distanceOf(changed.get(current))) {
+				continue;
+			}
+			
+			Node node = allNodes.get(current);
+			settled++;
+			relaxed += node.getEdgeCount();
+			for (int i = 0; i < node.getEdgeCount(); i++) {
+				Edge edge = node.getEdge(i);
+				Integer neighbor = nodeIndex.get(edge.getDest());
+				if (neighbor == null) {
+					continue;
+				}
+				int alternateDistance = distance + edge.getWeight();
+				Long neighborEntry = changed.get(neighbor);
+				int neighborDistance = neighborEntry != null ? TreePatch.distanceOf(neighborEntry) : tree.distanceTo(neighbor);
+				if (alternateDistance < neighborDistance) {
+					changed.put(neighbor, TreePatch.entry(alternateDistance, current));
+					frontier.add(((long) alternateDistance << 32) | neighbor);
+				}
 			}
 		}
+		measurement.addSettled(settled);
+		measurement.addRelaxed(relaxed);
 		
-		// We didn't find it
-		return null;
+		int[] ids = new int[changed.size()];
+		int count = 0;
+		for (Integer id : changed.keySet()) {
+			ids[count++] = id;
+		}
+		Arrays.sort(ids);
+		long[] entries = new long[count];
+		for (int i = 0; i < count; i++) {
+			entries[i] = changed.get(ids[i]);
+		}
 		
+		// The nodes go in as they are: the list is only ever added to, so the tree can go on using it as it grows
+		return tree.patched(allNodes, allNodes.size(), ids, entries, count);
+	}
+	
+	private void clearShortestRoutes() {
+		shortestPathTrees.clear();
+	}
+	
+	// Returns true if the node wasn't part of the graph yet
+	private boolean addNode(Node node) {
+		if (nodeIndex.containsKey(node)) {
+			return false;
+		}
+		// Into the list first, so that anyone who finds the id can find the node
+		allNodes.add(node);
+		nodeIndex.put(node, allNodes.size() - 1);
+		if (!nodesByLabel.containsKey(node.getLabel())) {
+			nodesByLabel.put(node.getLabel(), node);
+		}
+		return true;
 	}
 	
 	public Route from(Node source) {
-		Route route = new Route();
-		route.getPath().add(source);
-		route.setDistance(0);
-		route.setHops(0);
-		return route;
+		int id = idOf(source);
+		if (id == -1) {
+			// Nowhere to go from a node that isn't in the graph, every to() will say so
+			Route route = new Route(this);
+			route.addHop(source);
+			return route;
+		}
+		return new Route(this, allNodes, new int[] { id }, 0, 0);
 	}
 	
-	public Node getNodeByName(String name) {
-		for (Node node : allNodes) {
-			if (name.equals(node.getLabel())) {
-				return node;
+	/**
+	 * @param node
+	 * @return The node's id, the same as in every snapshot that has it, or -1 if it isn't in the graph
+	 */
+	int idOf(Node node) {
+		Integer id = nodeIndex.get(node);
+		return id == null ? -1 : id;
+	}
+	
+	/**
+	 * @return Every node by id. Only ever grows, so it can be held on to for the ids it has
+	 */
+	List<Node> getNodeList() {
+		return allNodes;
+	}
+	
+	/**
+	 * Weight of the edge between two nodes as the graph is now, without taking a snapshot if one hasn't been
+	 * taken since the edge came in.
+	 * 
+	 * @param source
+	 * @param dest
+	 * @return The weight, or null if there is no such edge
+	 */
+	Integer edgeWeight(int source, int dest) {
+		PendingEdges edges = pending;
+		if (snapshot == null && edges != null) {
+			return edges.weight(source, dest);
+		}
+		CompactGraph graph = freeze();
+		int edge = graph.findEdge(source, dest);
+		return edge == -1 ? null : graph.getEdgeWeight(edge);
+	}
+
+	/**
+	 * Distances of a whole batch of itineraries given by station name, like from(A).to(B).to(C).getDistance()
+	 * for each of them but without any Routes. See CompactGraph.routeDistances for how the batch is run.
+	 *
+	 * @param itineraries The station names on each itinerary, in order
+	 * @return The distance of each itinerary, or -1 if there is no such route
+	 */
+	public int[] routeDistances(String[][] itineraries) {
+		CompactGraph graph = freeze();
+		return graph.routeDistances(toIds(graph, itineraries));
+	}
+
+	public int[] routeDistances(String[][] itineraries, ForkJoinPool pool) {
+		CompactGraph graph = freeze();
+		return graph.routeDistances(toIds(graph, itineraries), pool);
+	}
+
+	// Stations the graph doesn't know come out as -1, which makes their itinerary -1 as well
+	private int[][] toIds(CompactGraph graph, String[][] itineraries) {
+		int[][] ids = new int[itineraries.length][];
+		for (int i = 0; i < itineraries.length; i++) {
+			String[] labels = itineraries[i];
+			ids[i] = new int[labels.length];
+			for (int j = 0; j < labels.length; j++) {
+				Node node = getNodeByName(labels[j]);
+				ids[i][j] = node == null ? -1 : graph.indexOf(node);
 			}
 		}
-		
-		return null;
+		return ids;
+	}
+
+	public Node getNodeByName(String name) {
+		return nodesByLabel.get(name);
 	}
 	
 	public String toDotFormat() {
 		StringBuilder sb = new StringBuilder();
 		sb.append("\tdigraph {\n");
 		int i = 0;
+		synchronized (writeLock) {
 		for (Edge edge : allEdges) {
 			sb.append("\t\t");
 			sb.append(edge.getSource().getLabel());
@@ -303,6 +1085,7 @@ public class Graph {
 			sb.append("\n");
 			i++;
 		}
+		}
 		sb.append("\t}");
 		return sb.toString();
 	}
@@ -0,0 +1,378 @@
+package traintracks.graph;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Contracts the nodes of a snapshot one at a time, least important first, to build a ContractionHierarchy.
+ * Contracting a node takes it out of the graph and, for every pair of neighbors u -> v -> w whose shortest
+ * route went through it, adds a shortcut u -> w of the same length. A local search from u that avoids v (the
+ * witness search) finds the pairs that have another route at least as short and don't need one.
+ *
+ * Which node goes next is decided by its edge difference (shortcuts it would add less the edges it takes away)
+ * plus how many of its neighbors are already gone, which keeps the contraction spread out over the graph.
+ * Priorities are worked out lazily: a node's is checked again when it comes off the queue, and it goes back on
+ * if it has gone up past the next one's. The first priorities of every node are independent of each other and
+ * are worked out in parallel; the contraction itself changes the graph with every node, so it runs in order.
+ */
+final class HierarchyBuilder {
+
+	// Witness searches give up after settling this many nodes and add the shortcut to be on the safe side.
+	// Just working out a priority doesn't need to be as careful as deciding on shortcuts for real
+	private static final int PRIORITY_SETTLE_LIMIT = 64;
+	private static final int CONTRACTION_SETTLE_LIMIT = 512;
+
+	// Below this many nodes a task stops splitting up the first priorities
+	private static final int MIN_NODES_PER_TASK = 1024;
+
+	private final CompactGraph graph;
+	private final int nodeCount;
+
+	// Every edge so far, originals and shortcuts, by id. A shortcut's children are the two edges it replaces
+	private int[] sources;
+	private int[] targets;
+	private int[] weights;
+	private int[] firstChildren;
+	private int[] secondChildren;
+	private int edgeCount;
+
+	// Ids of the edges out of and into every node. A shorter shortcut replaces a longer edge in here
+	private final int[][] outEdges;
+	private final int[] outCounts;
+	private final int[][] inEdges;
+	private final int[] inCounts;
+
+	private final boolean[] contracted;
+	private final int[] contractedNeighbors;
+
+	HierarchyBuilder(CompactGraph graph) {
+		this.graph = graph;
+		this.nodeCount = graph.getNodeCount();
+		int capacity = Math.max(16, graph.getEdgeCount() * 2);
+		sources = new int[capacity];
+		targets = new int[capacity];
+		weights = new int[capacity];
+		firstChildren = new int[capacity];
+		secondChildren = new int[capacity];
+		outEdges = new int[nodeCount][];
+		outCounts = new int[nodeCount];
+		inEdges = new int[nodeCount][];
+		inCounts = new int[nodeCount];
+		contracted = new boolean[nodeCount];
+		contractedNeighbors = new int[nodeCount];
+
+		for (int node = 0; node < nodeCount; node++) {
+			int degree = graph.getEndEdge(node) - graph.getFirstEdge(node);
+			outEdges[node] = new int[Math.max(2, degree)];
+			inEdges[node] = new int[2];
+		}
+		for (int node = 0; node < nodeCount; node++) {
+			for (int edge = graph.getFirstEdge(node); edge < graph.getEndEdge(node); edge++) {
+				int target = graph.getEdgeTarget(edge);
+				if (target != node) {
+					addEdge(node, target, graph.getEdgeWeight(edge), -1, -1);
+				}
+			}
+		}
+	}
+
+	ContractionHierarchy build(ForkJoinPool pool) {
+		int[] priorities = new int[nodeCount];
+		int tasks = Math.max(1, pool.getParallelism() * 4);
+		int nodesPerTask = Math.max(MIN_NODES_PER_TASK, (nodeCount + tasks - 1) / tasks);
+		pool.invoke(new PrioritiesTask(priorities, 0, nodeCount, nodesPerTask));
+
+		IndexedMinHeap queue = new IndexedMinHeap(nodeCount);
+		for (int node = 0; node < nodeCount; node++) {
+			queue.offer(node, priorities[node]);
+		}
+
+		WitnessSearch search = new WitnessSearch(nodeCount);
+		int[] ranks = new int[nodeCount];
+
+		// Which contraction a node's priority was last worked out after. One that is already up to date is
+		// taken as it is, which makes sure the lazy updates can't go round in circles
+		int[] checkedAt = new int[nodeCount];
+		Arrays.fill(checkedAt, -1);
+
+		int rank = 0;
+		while (!queue.isEmpty()) {
+			int node = queue.poll();
+			if (checkedAt[node] != rank) {
+				int priority = priority(node, search);
+				checkedAt[node] = rank;
+				if (!queue.isEmpty() && priority > queue.peekKey()) {
+					queue.offer(node, priority);
+					continue;
+				}
+			}
+
+			shortcuts(node, search, CONTRACTION_SETTLE_LIMIT, true);
+			contracted[node] = true;
+			ranks[node] = rank++;
+			for (int i = 0; i < outCounts[node]; i++) {
+				contractedNeighbors[targets[outEdges[node][i]]]++;
+			}
+			for (int i = 0; i < inCounts[node]; i++) {
+				contractedNeighbors[sources[inEdges[node][i]]]++;
+			}
+		}
+
+		return finish(ranks);
+	}
+
+	private int priority(int node, WitnessSearch search) {
+		int removed = 0;
+		for (int i = 0; i < outCounts[node]; i++) {
+			if (!contracted[targets[outEdges[node][i]]]) {
+				removed++;
+			}
+		}
+		for (int i = 0; i < inCounts[node]; i++) {
+			if (!contracted[sources[inEdges[node][i]]]) {
+				removed++;
+			}
+		}
+		return shortcuts(node, search, PRIORITY_SETTLE_LIMIT, false) - removed + contractedNeighbors[node];
+	}
+
+	/**
+	 * Finds the shortcuts contracting the node needs, and adds them if asked to.
+	 *
+	 * @param node
+	 * @param search
+	 * @param settleLimit
+	 * @param add
+	 * @return How many shortcuts are needed
+	 */
+	private int shortcuts(int node, WitnessSearch search, int settleLimit, boolean add) {
+		int count = 0;
+		for (int i = 0; i < inCounts[node]; i++) {
+			int in = inEdges[node][i];
+			int from = sources[in];
+			if (contracted[from]) {
+				continue;
+			}
+
+			int maxDistance = -1;
+			for (int j = 0; j < outCounts[node]; j++) {
+				int out = outEdges[node][j];
+				int to = targets[out];
+				if (!contracted[to] && to != from) {
+					maxDistance = Math.max(maxDistance, add(weights[in], weights[out]));
+				}
+			}
+			if (maxDistance == -1) {
+				continue;
+			}
+
+			search.run(from, node, maxDistance, settleLimit);
+			for (int j = 0; j < outCounts[node]; j++) {
+				int out = outEdges[node][j];
+				int to = targets[out];
+				if (contracted[to] || to == from) {
+					continue;
+				}
+				int distance = add(weights[in], weights[out]);
+				if (search.distanceTo(to) <= distance) {
+					continue;
+				}
+				count++;
+				if (add) {
+					addEdge(from, to, distance, in, out);
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Adds the edge from -> to, unless there already is one at least as short. A longer one is replaced.
+	 */
+	private void addEdge(int from, int to, int weight, int firstChild, int secondChild) {
+		int existing = -1;
+		int existingPosition = -1;
+		for (int i = 0; i < outCounts[from]; i++) {
+			if (targets[outEdges[from][i]] == to) {
+				existing = outEdges[from][i];
+				existingPosition = i;
+				break;
+			}
+		}
+		if (existing != -1 && weights[existing] <= weight) {
+			return;
+		}
+
+		if (edgeCount == sources.length) {
+			int capacity = edgeCount * 2;
+			sources = Arrays.copyOf(sources, capacity);
+			targets = Arrays.copyOf(targets, capacity);
+			weights = Arrays.copyOf(weights, capacity);
+			firstChildren = Arrays.copyOf(firstChildren, capacity);
+			secondChildren = Arrays.copyOf(secondChildren, capacity);
+		}
+		int edge = edgeCount++;
+		sources[edge] = from;
+		targets[edge] = to;
+		weights[edge] = weight;
+		firstChildren[edge] = firstChild;
+		secondChildren[edge] = secondChild;
+
+		if (existing == -1) {
+			outEdges[from] = append(outEdges[from], outCounts[from]++, edge);
+			inEdges[to] = append(inEdges[to], inCounts[to]++, edge);
+		} else {
+			outEdges[from][existingPosition] = edge;
+			for (int i = 0; i < inCounts[to]; i++) {
+				if (inEdges[to][i] == existing) {
+					inEdges[to][i] = edge;
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Drops the edges that were replaced by shorter ones and renumbers the rest. Nothing refers to a replaced
+	 * edge: shortcuts are only ever made of edges into and out of the node being contracted, which are all
+	 * still in use at the time and never get replaced after, since no shortcut touches a contracted node.
+	 */
+	private ContractionHierarchy finish(int[] ranks) {
+		int[] newIds = new int[edgeCount];
+		Arrays.fill(newIds, -1);
+		int liveCount = 0;
+		for (int node = 0; node < nodeCount; node++) {
+			for (int i = 0; i < outCounts[node]; i++) {
+				newIds[outEdges[node][i]] = 0;
+			}
+		}
+		for (int edge = 0; edge < edgeCount; edge++) {
+			if (newIds[edge] == 0) {
+				newIds[edge] = liveCount++;
+			}
+		}
+
+		int[] liveSources = new int[liveCount];
+		int[] liveTargets = new int[liveCount];
+		int[] liveWeights = new int[liveCount];
+		int[] liveFirstChildren = new int[liveCount];
+		int[] liveSecondChildren = new int[liveCount];
+		for (int edge = 0; edge < edgeCount; edge++) {
+			int id = newIds[edge];
+			if (id == -1) {
+				continue;
+			}
+			liveSources[id] = sources[edge];
+			liveTargets[id] = targets[edge];
+			liveWeights[id] = weights[edge];
+			liveFirstChildren[id] = firstChildren[edge] == -1 ? -1 : newIds[firstChildren[edge]];
+			liveSecondChildren[id] = secondChildren[edge] == -1 ? -1 : newIds[secondChildren[edge]];
+		}
+		return new ContractionHierarchy(graph, ranks, liveSources, liveTargets, liveWeights, liveFirstChildren, liveSecondChildren);
+	}
+
+	private static int[] append(int[] values, int size, int value) {
+		if (size == values.length) {
+			values = Arrays.copyOf(values, size * 2);
+		}
+		values[size] = value;
+		return values;
+	}
+
+	// Distances can't overflow, a shortcut that long just never wins
+	private static int add(int a, int b) {
+		return (int) Math.min(Integer.MAX_VALUE - 1, (long) a + b);
+	}
+
+	/**
+	 * Dijkstra over the nodes that are left, around the one being contracted, as far as the longest shortcut
+	 * it might need.
+	 */
+	private final class WitnessSearch {
+
+		private final int[] distances;
+		private final IndexedMinHeap frontier;
+		private final int[] touched;
+		private int touchedCount;
+
+		WitnessSearch(int nodeCount) {
+			distances = new int[nodeCount];
+			frontier = new IndexedMinHeap(nodeCount);
+			touched = new int[nodeCount];
+			Arrays.fill(distances, Integer.MAX_VALUE);
+		}
+
+		void run(int source, int avoid, int maxDistance, int settleLimit) {
+			for (int i = 0; i < touchedCount; i++) {
+				distances[touched[i]] = Integer.MAX_VALUE;
+			}
+			touchedCount = 0;
+			frontier.clear();
+
+			distances[source] = 0;
+			touched[touchedCount++] = source;
+			frontier.offer(source, 0);
+
+			int settled = 0;
+			while (!frontier.isEmpty() && frontier.peekKey() <= maxDistance && settled++ < settleLimit) {
+				int current = frontier.poll();
+				int currentDistance = distances[current];
+				for (int i = 0; i < outCounts[current]; i++) {
+					int edge = outEdges[current][i];
+					int neighbor = targets[edge];
+					if (neighbor == avoid || contracted[neighbor]) {
+						continue;
+					}
+					int alternateDistance = add(currentDistance, weights[edge]);
+					if (alternateDistance < distances[neighbor]) {
+						if (distances[neighbor] == Integer.MAX_VALUE) {
+							touched[touchedCount++] = neighbor;
+						}
+						distances[neighbor] = alternateDistance;
+						frontier.offer(neighbor, alternateDistance);
+					}
+				}
+			}
+		}
+
+		int distanceTo(int node) {
+			return distances[node];
+		}
+	}
+
+	/**
+	 * Works out the first priority of every node. Nothing is contracted yet and nothing changes, so the tasks
+	 * only need a witness search each of their own.
+	 */
+	private final class PrioritiesTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int[] priorities;
+		private final int first;
+		private final int end;
+		private final int nodesPerTask;
+
+		PrioritiesTask(int[] priorities, int first, int end, int nodesPerTask) {
+			this.priorities = priorities;
+			this.first = first;
+			this.end = end;
+			this.nodesPerTask = nodesPerTask;
+		}
+
+		@Override
+		protected void compute() {
+			if (end - first <= nodesPerTask) {
+				WitnessSearch search = new WitnessSearch(nodeCount);
+				for (int node = first; node < end; node++) {
+					priorities[node] = priority(node, search);
+				}
+				return;
+			}
+			int middle = (first + end) >>> 1;
+			invokeAll(new PrioritiesTask(priorities, first, middle, nodesPerTask),
+			          new PrioritiesTask(priorities, middle, end, nodesPerTask));
+		}
+	}
+}
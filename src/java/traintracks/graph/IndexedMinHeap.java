@@ -0,0 +1,140 @@
+package traintracks.graph;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * Binary min heap over the int ids 0..capacity-1, keyed by an int priority. Every id can be in the heap at most once
+ * and the heap remembers where each id lives, so decreasing a key is O(log n) instead of a remove and re-insert.
+ * This is what the shortest path searches use as their frontier.
+ */
+class IndexedMinHeap {
+
+	private final int[] heap;      // heap position -> id
+	private final int[] positions; // id -> heap position, -1 if not in the heap
+	private final int[] keys;      // id -> current key
+	private int size;
+
+	IndexedMinHeap(int capacity) {
+		heap = new int[capacity];
+		positions = new int[capacity];
+		keys = new int[capacity];
+		Arrays.fill(positions, -1);
+	}
+
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	int size() {
+		return size;
+	}
+
+	boolean contains(int id) {
+		return positions[id] != -1;
+	}
+
+	int keyOf(int id) {
+		return keys[id];
+	}
+
+	int peek() {
+		if (size == 0) {
+			throw new NoSuchElementException("Heap is empty");
+		}
+		return heap[0];
+	}
+
+	int peekKey() {
+		return keys[peek()];
+	}
+
+	/**
+	 * Inserts the id with the given key, or lowers its key if it's already in the heap. Does nothing if the id
+	 * is already queued with a key that is at least as small.
+	 *
+	 * @param id
+	 * @param key
+	 * @return true if the heap changed
+	 */
+	boolean offer(int id, int key) {
+		int position = positions[id];
+		if (position == -1) {
+			keys[id] = key;
+			heap[size] = id;
+			positions[id] = size;
+			siftUp(size++);
+			return true;
+		}
+
+		if (key >= keys[id]) {
+			return false;
+		}
+
+		keys[id] = key;
+		siftUp(position);
+		return true;
+	}
+
+	/**
+	 * Removes and returns the id with the smallest key. The key stays readable through keyOf.
+	 * @return
+	 */
+	int poll() {
+		int top = peek();
+		int last = heap[--size];
+		positions[top] = -1;
+		if (size > 0) {
+			heap[0] = last;
+			positions[last] = 0;
+			siftDown(0);
+		}
+		return top;
+	}
+
+	void clear() {
+		for (int i = 0; i < size; i++) {
+			positions[heap[i]] = -1;
+		}
+		size = 0;
+	}
+
+	private void siftUp(int position) {
+		int id = heap[position];
+		int key = keys[id];
+		while (position > 0) {
+			int parent = (position - 1) >>> 1;
+			int parentId = heap[parent];
+			if (keys[parentId] <= key) {
+				break;
+			}
+			heap[position] = parentId;
+			positions[parentId] = position;
+			position = parent;
+		}
+		heap[position] = id;
+		positions[id] = position;
+	}
+
+	private void siftDown(int position) {
+		int id = heap[position];
+		int key = keys[id];
+		int half = size >>> 1;
+		while (position < half) {
+			int child = (position << 1) + 1;
+			int right = child + 1;
+			if (right < size && keys[heap[right]] < keys[heap[child]]) {
+				child = right;
+			}
+			int childId = heap[child];
+			if (key <= keys[childId]) {
+				break;
+			}
+			heap[position] = childId;
+			positions[childId] = position;
+			position = child;
+		}
+		heap[position] = id;
+		positions[id] = position;
+	}
+}
@@ -0,0 +1,392 @@
+package traintracks.graph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Hands out the loopless routes from one node to another in order of distance, one at a time, using Yen's
+ * algorithm: every route after the first is found by taking a route already handed out, keeping it up to some
+ * node (the spur node), and searching for the shortest way on from there that doesn't go back through the part
+ * that was kept and doesn't leave the spur node the way any route handed out so far with the same start does.
+ * Those detours wait in a queue, and the shortest of them is the next route. Nothing is worked out before it's
+ * asked for, so taking the first few routes only costs a few rounds of spur searches.
+ *
+ * All the spur searches head for the same target, so one Dijkstra over the reversed graph up front gives the
+ * distance to the target from everywhere and a tree of shortest routes to it, which all the spur searches share.
+ * A node whose route in that tree stays clear of the nodes a spur search has to avoid can finish the search
+ * straight away, since nothing gets there any quicker. So a spur search only has to find its way around the nodes
+ * whose tree routes are cut, and does that as A* with the tree distances as its estimate. It ends at the first
+ * node with a clear route it takes off the queue, and a spur node with a clear route of its own doesn't need a
+ * search at all (the node classification idea from Feng's k shortest simple paths algorithm). The first route is
+ * read straight off the tree.
+ *
+ * Plenty of spur nodes have no way round at all, and a search can't tell that until it has been everywhere it
+ * can get to. So each search also works back from the target over the reversed graph, a step for every step
+ * forward. If that runs out first without coming to the spur node, there's no detour and the search stops
+ * there, which is what keeps the iterator quick on networks where the target can only be got to a few ways.
+ *
+ * Only spur nodes from where a route left the one it was found from onwards are tried (Lawler's refinement),
+ * the ones before that were already tried for the route it came from.
+ */
+class KShortestPathIterator implements Iterator<Route> {
+
+	private final Graph owner;
+	private final CompactGraph graph;
+	private final CompactGraph reverse;
+	private final int from;
+	private final int to;
+
+	// Distance from every node to the target, and the next node on the way there. Integer.MAX_VALUE and -1
+	// where the target can't be reached
+	private final int[] distanceToTarget;
+	private final int[] nextHop;
+
+	private final List<Candidate> found = new ArrayList<Candidate>();
+	private final PriorityQueue<Candidate> candidates = new PriorityQueue<Candidate>();
+	private final Set<Candidate> seen = new HashSet<Candidate>();
+
+	// Scratch space for the spur searches. Only what a search touched is reset before the next one
+	private final int[] distances;
+	private final int[] predecessors;
+	private final IndexedMinHeap frontier;
+	private final int[] touched;
+	private int touchedCount;
+
+	// The nodes before the spur node, and the nodes the spur node mustn't go to next
+	private final boolean[] blocked;
+	private final boolean[] excluded;
+
+	// Whether a node's tree route to the target is clear, worked out as the current spur search needs it.
+	// Only valid where checked[node] is the current search's stamp
+	private final boolean[] clear;
+	private final int[] checked;
+	private int stamp;
+
+	// The nodes the current search has found its way back to from the target. In the queue from backHead on
+	// are the ones whose edges in haven't been looked at yet. reached[node] is the search's stamp if it's there
+	private final int[] backQueue;
+	private final int[] reached;
+	private int backHead;
+	private int backTail;
+
+	// Distance from the spur node to the target on the route the last spur search found
+	private int spurDistance;
+
+	private Candidate next;
+	private boolean ready;
+
+	KShortestPathIterator(Graph owner, CompactGraph graph, int from, int to) {
+		this.owner = owner;
+		this.graph = graph;
+		this.from = from;
+		this.to = to;
+
+		int nodeCount = graph.getNodeCount();
+		distanceToTarget = new int[nodeCount];
+		nextHop = new int[nodeCount];
+		reverse = graph.reverse();
+		reverse.shortestPaths(to, distanceToTarget, nextHop);
+
+		distances = new int[nodeCount];
+		predecessors = new int[nodeCount];
+		frontier = new IndexedMinHeap(nodeCount);
+		touched = new int[nodeCount];
+		blocked = new boolean[nodeCount];
+		excluded = new boolean[nodeCount];
+		clear = new boolean[nodeCount];
+		checked = new int[nodeCount];
+		backQueue = new int[nodeCount];
+		reached = new int[nodeCount];
+		Arrays.fill(distances, Integer.MAX_VALUE);
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (!ready) {
+			next = advance();
+			ready = true;
+		}
+		return next != null;
+	}
+
+	@Override
+	public Route next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		ready = false;
+		return makeRoute(next);
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	private Candidate advance() {
+		if (found.isEmpty()) {
+			if (distanceToTarget[from] == Integer.MAX_VALUE) {
+				return null;
+			}
+			int[] path = new int[] { from };
+			Candidate first = new Candidate(join(path, 1, treePath(from)), distanceToTarget[from], 0);
+			found.add(first);
+			seen.add(first);
+			return first;
+		}
+
+		addDetours(found.get(found.size() - 1));
+		Candidate candidate = candidates.poll();
+		if (candidate != null) {
+			found.add(candidate);
+		}
+		return candidate;
+	}
+
+	// Queues the shortest detour from every spur node of the route, from where it left its parent onwards
+	private void addDetours(Candidate route) {
+		int[] nodes = route.nodes;
+
+		// The routes handed out so far that start the same way as this one, up to the current spur node
+		List<Candidate> sharingRoot = new ArrayList<Candidate>(found);
+		int rootDistance = 0;
+		for (int i = 0; i < nodes.length - 1; i++) {
+			int spur = nodes[i];
+			if (i > 0) {
+				blocked[nodes[i - 1]] = true;
+				rootDistance += graph.getEdgeWeight(graph.findEdge(nodes[i - 1], spur));
+			}
+			for (Iterator<Candidate> sharing = sharingRoot.iterator(); sharing.hasNext();) {
+				Candidate other = sharing.next();
+				if (other.nodes.length <= i + 1 || other.nodes[i] != spur) {
+					sharing.remove();
+				}
+			}
+			if (i < route.deviation) {
+				continue;
+			}
+
+			for (Candidate other : sharingRoot) {
+				excluded[other.nodes[i + 1]] = true;
+			}
+			int[] detour = spurPath(spur);
+			if (detour != null) {
+				Candidate candidate = new Candidate(join(nodes, i + 1, detour), rootDistance + spurDistance, i);
+				if (seen.add(candidate)) {
+					candidates.add(candidate);
+				}
+			}
+			for (Candidate other : sharingRoot) {
+				excluded[other.nodes[i + 1]] = false;
+			}
+		}
+
+		for (int i = 0; i < nodes.length; i++) {
+			blocked[nodes[i]] = false;
+		}
+	}
+
+	/**
+	 * The shortest way from the spur node to the target that avoids the blocked nodes and doesn't go to an
+	 * excluded node first.
+	 *
+	 * @param spur
+	 * @return The nodes after the spur node, with the distance in spurDistance, or null if there is no way
+	 */
+	private int[] spurPath(int spur) {
+		reset();
+
+		// The detour mustn't come back through the spur node either, so no tree route through it counts as clear
+		blocked[spur] = true;
+		try {
+			int first = nextHop[spur];
+			if (!excluded[first] && isClear(first)) {
+				spurDistance = distanceToTarget[spur];
+				return treePath(spur);
+			}
+
+			touch(spur, 0);
+			predecessors[spur] = -1;
+			frontier.offer(spur, distanceToTarget[spur]);
+
+			reached[to] = stamp;
+			backQueue[0] = to;
+			backHead = 0;
+			backTail = 1;
+			boolean detourExists = false;
+
+			while (!frontier.isEmpty()) {
+				if (!detourExists) {
+					if (backHead == backTail) {
+						return null;
+					}
+					detourExists = stepBack(spur);
+				}
+
+				int current = frontier.poll();
+				if (current != spur && isClear(current)) {
+					int[] path = buildPath(spur, current);
+					spurDistance = distances[current] + distanceToTarget[current];
+					return join(path, path.length, treePath(current));
+				}
+
+				int currentDistance = distances[current];
+				for (int edge = graph.getFirstEdge(current), end = graph.getEndEdge(current); edge < end; edge++) {
+					int neighbor = graph.getEdgeTarget(edge);
+					if (blocked[neighbor] || distanceToTarget[neighbor] == Integer.MAX_VALUE || (current == spur && excluded[neighbor])) {
+						continue;
+					}
+					int alternateDistance = currentDistance + graph.getEdgeWeight(edge);
+					if (alternateDistance >= distances[neighbor]) {
+						continue;
+					}
+					if (distances[neighbor] == Integer.MAX_VALUE) {
+						touched[touchedCount++] = neighbor;
+					}
+					distances[neighbor] = alternateDistance;
+					predecessors[neighbor] = current;
+					frontier.offer(neighbor, (int) Math.min(Integer.MAX_VALUE - 1, (long) alternateDistance + distanceToTarget[neighbor]));
+				}
+			}
+			return null;
+		} finally {
+			blocked[spur] = false;
+		}
+	}
+
+	/**
+	 * Looks at the edges into the next node the backward search has got to.
+	 *
+	 * @param spur
+	 * @return true if one of them comes from the spur node, and it's allowed to take it
+	 */
+	private boolean stepBack(int spur) {
+		int node = backQueue[backHead++];
+		for (int edge = reverse.getFirstEdge(node), end = reverse.getEndEdge(node); edge < end; edge++) {
+			int neighbor = reverse.getEdgeTarget(edge);
+			if (neighbor == spur && !excluded[node]) {
+				return true;
+			}
+			if (!blocked[neighbor] && reached[neighbor] != stamp) {
+				reached[neighbor] = stamp;
+				backQueue[backTail++] = neighbor;
+			}
+		}
+		return false;
+	}
+
+	// Follows the node's tree route until it reaches the target, a blocked node or a node that has already been
+	// checked, and remembers the answer for every node on the way
+	private boolean isClear(int node) {
+		int hop = node;
+		while (hop != to && !blocked[hop] && checked[hop] != stamp) {
+			hop = nextHop[hop];
+		}
+		boolean result = hop == to || (!blocked[hop] && clear[hop]);
+		for (; node != hop; node = nextHop[node]) {
+			checked[node] = stamp;
+			clear[node] = result;
+		}
+		return result;
+	}
+
+	// The nodes after node on its shortest route to the target
+	private int[] treePath(int node) {
+		int length = 0;
+		for (int hop = node; hop != to; hop = nextHop[hop]) {
+			length++;
+		}
+		int[] result = new int[length];
+		length = 0;
+		for (int hop = nextHop[node]; length < result.length; hop = nextHop[hop]) {
+			result[length++] = hop;
+		}
+		return result;
+	}
+
+	// The nodes after the spur node up to and including node, on the route the spur search found
+	private int[] buildPath(int spur, int node) {
+		int length = 0;
+		for (int hop = node; hop != spur; hop = predecessors[hop]) {
+			length++;
+		}
+		int[] result = new int[length];
+		for (; node != spur; node = predecessors[node]) {
+			result[--length] = node;
+		}
+		return result;
+	}
+
+	// The first rootLength nodes of root followed by the rest
+	private static int[] join(int[] root, int rootLength, int[] rest) {
+		int[] result = Arrays.copyOf(root, rootLength + rest.length);
+		System.arraycopy(rest, 0, result, rootLength, rest.length);
+		return result;
+	}
+
+	private void touch(int node, int distance) {
+		touched[touchedCount++] = node;
+		distances[node] = distance;
+	}
+
+	private void reset() {
+		for (int i = 0; i < touchedCount; i++) {
+			distances[touched[i]] = Integer.MAX_VALUE;
+		}
+		touchedCount = 0;
+		frontier.clear();
+
+		// Forget every node's clearance at once, or by hand if the stamps run out
+		if (++stamp == Integer.MAX_VALUE) {
+			Arrays.fill(checked, 0);
+			Arrays.fill(reached, 0);
+			stamp = 1;
+		}
+	}
+
+	private Route makeRoute(Candidate candidate) {
+		// Routes never write into the part of the array they were given, so it can be shared
+		return new Route(owner, graph.getNodes(), candidate.nodes, candidate.distance, candidate.nodes.length - 1);
+	}
+
+	/**
+	 * A whole route from the source to the target, and the index of its spur node in the route it was found from.
+	 * Shorter routes come first, and of routes that are just as long, the ones with fewer hops.
+	 */
+	private static final class Candidate implements Comparable<Candidate> {
+
+		final int[] nodes;
+		final int distance;
+		final int deviation;
+
+		Candidate(int[] nodes, int distance, int deviation) {
+			this.nodes = nodes;
+			this.distance = distance;
+			this.deviation = deviation;
+		}
+
+		@Override
+		public int compareTo(Candidate other) {
+			if (distance != other.distance) {
+				return distance < other.distance ? -1 : 1;
+			}
+			return nodes.length - other.nodes.length;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			return other instanceof Candidate && Arrays.equals(nodes, ((Candidate) other).nodes);
+		}
+
+		@Override
+		public int hashCode() {
+			return Arrays.hashCode(nodes);
+		}
+	}
+}
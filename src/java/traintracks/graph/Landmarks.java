@@ -0,0 +1,133 @@
+package traintracks.graph;
+
+/**
+ * A few landmark nodes, with the distance from every landmark to every node and from every node to every
+ * landmark. By the triangle inequality, d(v, t) is at least d(L, t) - d(L, v) and at least d(v, L) - d(t, L)
+ * for any landmark L, which makes the biggest of those a lower bound on the distance left to go that A* can
+ * steer by (the ALT heuristic). Landmarks far out at the edges of the network give the tightest bounds, so
+ * they're picked one at a time as the node furthest from all the ones picked so far.
+ *
+ * Costs two ints per node per landmark, and two Dijkstras per landmark to build.
+ */
+final class Landmarks {
+
+	private final CompactGraph graph;
+	private final int[] landmarks;
+
+	// fromLandmark[i][v] is the distance from landmark i to v, toLandmark[i][v] from v to landmark i.
+	// Integer.MAX_VALUE where there is no route
+	private final int[][] fromLandmark;
+	private final int[][] toLandmark;
+
+	private Landmarks(CompactGraph graph, int count) {
+		this.graph = graph;
+		this.landmarks = new int[count];
+		this.fromLandmark = new int[count][];
+		this.toLandmark = new int[count][];
+	}
+
+	/**
+	 * @param graph
+	 * @param count How many landmarks to pick. Fewer are picked if the graph doesn't have that many nodes
+	 * @return
+	 */
+	static Landmarks select(CompactGraph graph, int count) {
+		int nodeCount = graph.getNodeCount();
+		Landmarks result = new Landmarks(graph, Math.min(count, nodeCount));
+		if (result.landmarks.length == 0) {
+			return result;
+		}
+
+		CompactGraph reverse = graph.reverse();
+		int[] predecessors = new int[nodeCount];
+
+		// How far every node is from the nearest landmark, there and back
+		long[] separation = new long[nodeCount];
+		boolean[] chosen = new boolean[nodeCount];
+
+		// Nothing is picked yet, so start from whichever node is furthest from node 0
+		int[] distances = new int[nodeCount];
+		graph.shortestPaths(0, distances, predecessors);
+		int next = furthest(distances, null, chosen);
+
+		for (int i = 0; i < result.landmarks.length; i++) {
+			result.landmarks[i] = next;
+			chosen[next] = true;
+			result.fromLandmark[i] = new int[nodeCount];
+			result.toLandmark[i] = new int[nodeCount];
+			graph.shortestPaths(next, result.fromLandmark[i], predecessors);
+			reverse.shortestPaths(next, result.toLandmark[i], predecessors);
+
+			for (int node = 0; node < nodeCount; node++) {
+				long there = result.fromLandmark[i][node];
+				long back = result.toLandmark[i][node];
+				long roundTrip = there == Integer.MAX_VALUE || back == Integer.MAX_VALUE ? Long.MAX_VALUE : there + back;
+				separation[node] = i == 0 ? roundTrip : Math.min(separation[node], roundTrip);
+			}
+			next = furthest(null, separation, chosen);
+		}
+		return result;
+	}
+
+	// The node not chosen yet with the biggest distance that isn't unreachable, out of whichever array is given.
+	// If every node left is unreachable, the first of them: on a graph in pieces, that starts on another piece
+	private static int furthest(int[] distances, long[] separation, boolean[] chosen) {
+		int result = -1;
+		int unreached = -1;
+		long furthest = -1;
+		for (int node = 0; node < chosen.length; node++) {
+			if (chosen[node]) {
+				continue;
+			}
+			long distance = distances != null ? distances[node] : separation[node];
+			if (distance == Integer.MAX_VALUE || distance == Long.MAX_VALUE) {
+				if (unreached == -1) {
+					unreached = node;
+				}
+			} else if (distance > furthest) {
+				furthest = distance;
+				result = node;
+			}
+		}
+		return result != -1 ? result : unreached;
+	}
+
+	CompactGraph getGraph() {
+		return graph;
+	}
+
+	int getCount() {
+		return landmarks.length;
+	}
+
+	int getLandmark(int i) {
+		return landmarks[i];
+	}
+
+	/**
+	 * @param node
+	 * @param target
+	 * @return A lower bound on the distance from node to target, or Integer.MAX_VALUE if one of the landmarks
+	 * shows that there is no route at all
+	 */
+	int lowerBound(int node, int target) {
+		int bound = 0;
+		for (int i = 0; i < landmarks.length; i++) {
+			int[] from = fromLandmark[i];
+			int[] to = toLandmark[i];
+
+			// L reaches node but not target, so node can't reach target either. Same the other way round
+			if ((from[node] != Integer.MAX_VALUE && from[target] == Integer.MAX_VALUE)
+			 || (to[target] != Integer.MAX_VALUE && to[node] == Integer.MAX_VALUE)) {
+				return Integer.MAX_VALUE;
+			}
+			if (from[node] != Integer.MAX_VALUE) {
+				bound = Math.max(bound, from[target] - from[node]);
+			}
+			if (to[target] != Integer.MAX_VALUE) {
+				bound = Math.max(bound, to[node] - to[target]);
+			}
+		}
+		return bound;
+	}
+}
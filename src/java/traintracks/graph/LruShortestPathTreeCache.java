@@ -0,0 +1,167 @@
+package traintracks.graph;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the trees that were used most recently, within a budget of how many trees and how many bytes they can
+ * take up between them, whichever runs out first. A tree costs two ints per node of the graph it was made on, so on
+ * a big network the byte budget is the one that gives predictable memory. When a new tree doesn't fit, the ones
+ * that have gone longest without being asked for are let go until it does. A tree bigger than the whole budget
+ * isn't kept at all.
+ *
+ * Every get, and every peek that finds a tree, moves the tree to the back of the line, so they take a lock like
+ * everything else here. It is only held for a map lookup, but it is the one lock every query on the graph goes
+ * through, where the default
+ * ConcurrentShortestPathTreeCache takes none. So this is for when the trees wouldn't fit in memory otherwise; set
+ * it with Graph.setShortestPathTreeCache.
+ */
+public class LruShortestPathTreeCache implements ShortestPathTreeCache {
+
+	private final int maxEntries;
+	private final long maxBytes;
+
+	// Guarded by this. In access order, so least recently used first, and the map lets go of the oldest tree itself
+	// when a new one takes it over the budget
+	private final LinkedHashMap<Node, ShortestPathTree> trees = new LinkedHashMap<Node, ShortestPathTree>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Node, ShortestPathTree> eldest) {
+			if (size() <= maxEntries && bytes <= maxBytes) {
+				return false;
+			}
+			bytes -= eldest.getValue().getSizeInBytes();
+			evictions++;
+			return true;
+		}
+	};
+	private long bytes;
+
+	private long hits;
+	private long misses;
+	private long evictions;
+
+	/**
+	 * @param maxEntries How many trees to keep at most
+	 * @param maxBytes How much memory the trees can take up between them, see ShortestPathTree.getSizeInBytes()
+	 */
+	public LruShortestPathTreeCache(int maxEntries, long maxBytes) {
+		if (maxEntries < 1 || maxBytes < 1) {
+			throw new IllegalArgumentException("The cache needs room for something, not " + maxEntries + " trees in " + maxBytes + " bytes");
+		}
+		this.maxEntries = maxEntries;
+		this.maxBytes = maxBytes;
+	}
+
+	public static LruShortestPathTreeCache withMaxEntries(int maxEntries) {
+		return new LruShortestPathTreeCache(maxEntries, Long.MAX_VALUE);
+	}
+
+	public static LruShortestPathTreeCache withMaxBytes(long maxBytes) {
+		return new LruShortestPathTreeCache(Integer.MAX_VALUE, maxBytes);
+	}
+
+	@Override
+	public synchronized ShortestPathTree get(Node source) {
+		ShortestPathTree tree = trees.get(source);
+		if (tree == null) {
+			misses++;
+		} else {
+			hits++;
+		}
+		return tree;
+	}
+
+	/**
+	 * A tree that is found counts as used, as it has just answered a query, but not as a hit.
+	 */
+	@Override
+	public synchronized ShortestPathTree peek(Node source) {
+		return trees.get(source);
+	}
+
+	@Override
+	public synchronized ShortestPathTree putIfAbsent(Node source, ShortestPathTree tree) {
+		ShortestPathTree existing = trees.get(source);
+		if (existing != null) {
+			return existing;
+		}
+		if (tree.getSizeInBytes() > maxBytes) {
+			return null;
+		}
+		// Counted first, so that the map sees the new total when it decides whether to let the oldest go
+		bytes += tree.getSizeInBytes();
+		trees.put(source, tree);
+		evict();
+		return null;
+	}
+
+	@Override
+	public synchronized void patchAll(Patch patch) {
+		// Setting an entry's value leaves it where it is in the line. Anything that no longer fits is let go of
+		// once the walk is done, taking it out half way would break the iterator
+		for (Map.Entry<Node, ShortestPathTree> entry : trees.entrySet()) {
+			ShortestPathTree tree = entry.getValue();
+			ShortestPathTree patched = patch.patch(entry.getKey(), tree);
+			if (patched != null) {
+				entry.setValue(patched);
+				bytes += patched.getSizeInBytes() - tree.getSizeInBytes();
+			}
+		}
+		evict();
+	}
+
+	@Override
+	public synchronized void clear() {
+		trees.clear();
+		bytes = 0;
+	}
+
+	@Override
+	public synchronized int size() {
+		return trees.size();
+	}
+
+	@Override
+	public synchronized boolean isEmpty() {
+		return trees.isEmpty();
+	}
+
+	/**
+	 * @return What the trees in the cache take up between them
+	 */
+	public synchronized long getSizeInBytes() {
+		return bytes;
+	}
+
+	@Override
+	public synchronized long getHitCount() {
+		return hits;
+	}
+
+	@Override
+	public synchronized long getMissCount() {
+		return misses;
+	}
+
+	@Override
+	public synchronized long getEvictionCount() {
+		return evictions;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return trees.size() + " trees, " + bytes + " bytes, " + hits + " hits, " + misses + " misses, " + evictions + " evictions";
+	}
+
+	// Lets go of the least recently used trees until the rest fit, for when a put letting go of one wasn't enough,
+	// or patched trees have grown
+	private void evict() {
+		Iterator<ShortestPathTree> oldest = trees.values().iterator();
+		while ((trees.size() > maxEntries || bytes > maxBytes) && oldest.hasNext()) {
+			bytes -= oldest.next().getSizeInBytes();
+			oldest.remove();
+			evictions++;
+		}
+	}
+}
@@ -1,25 +1,42 @@
 package traintracks.graph;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
+/**
+ * A station and its outgoing edges. Nodes aren't thread safe on their own; once one is in a Graph that
+ * other threads are using, change it through the Graph.
+ */
 public class Node {
 
 	private String label;
 	private List<Edge> edges;
 	
+	// Same edges as above, keyed by where they go, so looking up a neighbor doesn't mean scanning the list
+	private Map<Node, Edge> edgesByDest;
+	
+	/**
+	 * Callback for walking a node's edges with forEachEdge, without building a list of them first.
+	 */
+	public interface EdgeVisitor {
+		void visit(Edge edge);
+	}
+	
 	enum VisitState {
 		NOT_VISITED,
 		VISITING,
 		VISITED
 	}
 	
-	// For use in BFS/DFS
+	// For use in BFS/DFS. Graph's searches keep their visit state to themselves now, so they can run side by side
 	VisitState state = VisitState.NOT_VISITED;
 	
 	public Node(String label) {
 		this.label = label;
 		this.edges = new ArrayList<Edge>();
+		this.edgesByDest = new HashMap<Node, Edge>();
 	}
 	
 	public Node(String label, Node destNode) {
@@ -28,11 +45,10 @@ public class Node {
 	}
 	
 	public Node(String label, Node destNode, Integer weight) {
-		this.label = label;
-		edges = new ArrayList<Edge>();
+		this(label);
 		
-		Edge edge = new Edge(this, destNode, weight);
-		edges.add(edge);
+		// The edge adds itself to this node
+		new Edge(this, destNode, weight);
 	}
 	
 	public Node addNeighbor(Node neighbor) {
@@ -48,21 +64,13 @@ public class Node {
 			return this;
 		}
 		
-		Edge edge = new Edge(this, neighbor, weight);
-		edges.add(edge);
+		// The edge adds itself to this node
+		new Edge(this, neighbor, weight);
 		return this;
 	}
 	
 	public Boolean hasNeighbor(Node newNeighbor) {
-		
-		for (Node neighbor : getNeighbors()) {
-			if (neighbor == newNeighbor) {
-				return true;
-			}
-		}
-		
-		return false;
-		
+		return edgesByDest.containsKey(newNeighbor);
 	}
 	
 	public String getLabel() {
@@ -70,7 +78,7 @@ public class Node {
 	}
 	
 	public String describe() {
-		int numNeighbs = getNeighbors().size();
+		int numNeighbs = edges.size();
 		StringBuilder sb = new StringBuilder();
 		
 		sb.append("I am ");
@@ -83,10 +91,8 @@ public class Node {
 		
 		sb.append(" and my neighbors are ");
 		
-		int i = 0;
-		for (Node neighbor : getNeighbors()) {
-			i++;
-			sb.append(neighbor.getLabel());
+		for (int i = 1; i <= numNeighbs; i++) {
+			sb.append(edges.get(i - 1).getDest().getLabel());
 			if (i == numNeighbs - 1) {
 				sb.append(", and ");
 			} else if (i < numNeighbs){
@@ -101,8 +107,46 @@ public class Node {
 	
 	public void addEdge(Edge edge) {
 		edges.add(edge);
+		
+		// If there's more than one edge to the same place, the first one wins, same as it always has
+		if (!edgesByDest.containsKey(edge.getDest())) {
+			edgesByDest.put(edge.getDest(), edge);
+		}
+	}
+	
+	/**
+	 * Number of outgoing edges. Together with getEdge this is a cursor over the edges that doesn't allocate anything:
+	 * 
+	 * for (int i = 0; i < node.getEdgeCount(); i++) {
+	 *     Edge edge = node.getEdge(i);
+	 * }
+	 * 
+	 * @return
+	 */
+	public int getEdgeCount() {
+		return edges.size();
+	}
+	
+	public Edge getEdge(int i) {
+		return edges.get(i);
+	}
+	
+	/**
+	 * Hands every outgoing edge to the visitor, in the order they were added.
+	 * @param visitor
+	 */
+	public void forEachEdge(EdgeVisitor visitor) {
+		for (int i = 0; i < edges.size(); i++) {
+			visitor.visit(edges.get(i));
+		}
 	}
 	
+	/**
+	 * Builds a new list every time, so stay away from it in loops. Use getEdgeCount/getEdge, forEachEdge
+	 * or getEdgeForNeighbor instead.
+	 * 
+	 * @return
+	 */
 	public List<Node> getNeighbors() {
 		List<Node> neighbors = new ArrayList<Node>();
 		for (Edge edge : edges) {
@@ -112,41 +156,51 @@ public class Node {
 		return neighbors;
 	}
 	
+	/**
+	 * Constant time lookup of the edge going to the given neighbor.
+	 * 
+	 * @param neighbor
+	 * @return The edge, or null if the neighbor isn't connected to this node
+	 */
 	public Edge getEdgeForNeighbor(Node neighbor) {
-		for (Edge edge : edges) {
-			if (edge.getDest().equals(neighbor)) {
-				return edge;
-			}
-		}
-		
-		return null;
+		return edgesByDest.get(neighbor);
 	}
 	
+	/**
+	 * The visit state lives on the node, so two searches over the same nodes get in each other's way.
+	 * @deprecated Keep visit state per search instead, like the searches on CompactGraph do
+	 */
+	@Deprecated
 	public Boolean hasUnvisitedNeighbors() {
-		for (Node neighbor : getNeighbors()) {
-			if (!neighbor.hasBeenVisited()) {
+		for (int i = 0; i < edges.size(); i++) {
+			if (!edges.get(i).getDest().hasBeenVisited()) {
 				return Boolean.TRUE;
 			}
 		}
 		return Boolean.FALSE;
 	}
 	
+	@Deprecated
 	public Boolean hasBeenVisited() {
 		return (state == VisitState.VISITED);
 	}
 	
+	@Deprecated
 	public void markAsVisited() {
 		state = VisitState.VISITED;
 	}
 	
+	@Deprecated
 	public void markAsNotVisited() {
 		state = VisitState.NOT_VISITED;
 	}
 	
+	@Deprecated
 	public void markAsVisiting() {
 		state = VisitState.VISITING;
 	}
 	
+	@Deprecated
 	public Boolean isBeingVisited() {
 		return state == VisitState.VISITING;
 	}
@@ -0,0 +1,56 @@
+package traintracks.graph;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * The nodes of a Graph by id, which only ever get added to at the end. One thread adds at a time (the Graph's
+ * writers take turns), and any number of threads can read at once without locking: a reader sees every node
+ * that was in the list when it read the size, and node ids never change, so anything holding on to the list
+ * can go on using it for the ids it knows about as it grows. That way nothing has to copy the list to hand out
+ * a stable view of it.
+ */
+class NodeList extends AbstractList<Node> implements RandomAccess {
+
+	// Written before size, so a reader that sees the new size sees the array the node went into
+	private volatile Node[] nodes;
+	private volatile int size;
+
+	NodeList() {
+		this(16);
+	}
+
+	NodeList(int capacity) {
+		nodes = new Node[Math.max(capacity, 1)];
+	}
+
+	@Override
+	public Node get(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index " + index + " of " + size + " nodes");
+		}
+		return nodes[index];
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Only ever called by one thread at a time.
+	 */
+	@Override
+	public boolean add(Node node) {
+		Node[] current = nodes;
+		if (size == current.length) {
+			// Doubling, so the copies add up to no more than one per node
+			current = Arrays.copyOf(current, current.length * 2);
+			nodes = current;
+		}
+		current[size] = node;
+		size++;
+		return true;
+	}
+}
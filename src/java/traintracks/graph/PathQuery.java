@@ -0,0 +1,58 @@
+package traintracks.graph;
+
+/**
+ * Which paths a path walk (see Graph.findPaths) should go down and hand to its visitor. The limits are checked
+ * as the walk goes, so it never goes any further down a path than it has to. With nothing set, every path that
+ * doesn't go through the same node twice is visited.
+ */
+public class PathQuery {
+
+	private int maxHops = Integer.MAX_VALUE;
+	private int maxDistance = Integer.MAX_VALUE;
+	private Node target;
+
+	/**
+	 * @param maxHops Paths aren't followed any further than this many hops
+	 * @return
+	 */
+	public PathQuery maxHops(int maxHops) {
+		if (maxHops < 0) {
+			throw new IllegalArgumentException("Paths can't be limited to " + maxHops + " hops");
+		}
+		this.maxHops = maxHops;
+		return this;
+	}
+
+	/**
+	 * @param maxDistance Paths aren't followed once they get longer than this
+	 * @return
+	 */
+	public PathQuery maxDistance(int maxDistance) {
+		if (maxDistance < 0) {
+			throw new IllegalArgumentException("Paths can't be limited to a distance of " + maxDistance);
+		}
+		this.maxDistance = maxDistance;
+		return this;
+	}
+
+	/**
+	 * @param target Only paths that end here are visited. The walk still goes through it and on to others
+	 * @return
+	 */
+	public PathQuery to(Node target) {
+		this.target = target;
+		return this;
+	}
+
+	public int getMaxHops() {
+		return maxHops;
+	}
+
+	public int getMaxDistance() {
+		return maxDistance;
+	}
+
+	public Node getTarget() {
+		return target;
+	}
+}
@@ -0,0 +1,18 @@
+package traintracks.graph;
+
+import java.util.List;
+
+/**
+ * Gets called with every path a path walk (see Graph.findPaths) comes across, as it comes across it, so the paths
+ * never have to be kept around all at once.
+ */
+public interface PathVisitor {
+
+	/**
+	 * @param path The nodes on the path, starting with the source. The walk goes on using the same list, so it is
+	 * only good until this returns. Copy it to keep it
+	 * @param distance Length of the path
+	 * @return false to stop the walk
+	 */
+	boolean visit(List<Node> path, int distance);
+}
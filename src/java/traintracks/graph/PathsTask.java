@@ -0,0 +1,171 @@
+package traintracks.graph;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The path walk (see CompactGraph.walkPaths) spread over a fork join pool. Every path out of the source starts
+ * with one of its edges, so the walk splits into one task per first hop, and those split the same way at the next
+ * hop, for as long as there are idle threads around to steal the pieces. Past that a task walks its whole subtree
+ * on its own, with its own visit state. Each task counts or collects its own paths, and the parent adds them up in
+ * edge order once they're done, so the paths come out in the same order as the sequential walk gives them.
+ */
+final class PathsTask extends RecursiveAction {
+
+	private static final long serialVersionUID = 1L;
+
+	// Past this many hops a task always walks the rest of its subtree itself
+	private static final int MAX_SPLIT_HOPS = 12;
+
+	// A task only splits while its thread has fewer than this many tasks queued up that nobody has stolen yet
+	private static final int SURPLUS_TASKS = 2;
+
+	// Visit state for the walks, one per worker thread. All false between walks
+	private static final ThreadLocal<boolean[]> ON_PATH = new ThreadLocal<boolean[]>();
+
+	private final CompactGraph graph;
+	private final int[] prefix;
+	private final int distance;
+	private final int maxHops;
+	private final int maxDistance;
+	private final int target;
+	private final boolean collect;
+
+	// The hop into prefix's last node goes back to a node already on it, so the path ends there
+	private final boolean closesCycle;
+
+	private long count;
+	private List<ArrayList<Node>> paths;
+
+	private PathsTask(CompactGraph graph, int[] prefix, int distance, int maxHops, int maxDistance, int target, boolean collect, boolean closesCycle) {
+		this.graph = graph;
+		this.prefix = prefix;
+		this.distance = distance;
+		this.maxHops = maxHops;
+		this.maxDistance = maxDistance;
+		this.target = target;
+		this.collect = collect;
+		this.closesCycle = closesCycle;
+	}
+
+	/**
+	 * @param graph
+	 * @param source
+	 * @param maxHops
+	 * @param maxDistance
+	 * @param target -1 for every path
+	 * @param pool
+	 * @return How many paths CompactGraph.walkPaths would visit, with nothing on the path before source
+	 */
+	static long count(CompactGraph graph, int source, int maxHops, int maxDistance, int target, ForkJoinPool pool) {
+		PathsTask task = new PathsTask(graph, new int[] { source }, 0, maxHops, maxDistance, target, false, false);
+		pool.invoke(task);
+		return task.count;
+	}
+
+	/**
+	 * Same as count, but with a copy of every path, in the order the sequential walk visits them.
+	 */
+	static List<ArrayList<Node>> collect(CompactGraph graph, int source, int maxHops, int maxDistance, int target, ForkJoinPool pool) {
+		PathsTask task = new PathsTask(graph, new int[] { source }, 0, maxHops, maxDistance, target, true, false);
+		pool.invoke(task);
+		return task.paths;
+	}
+
+	@Override
+	protected void compute() {
+		if (collect) {
+			paths = new ArrayList<ArrayList<Node>>();
+		}
+		int hops = prefix.length - 1;
+		int node = prefix[hops];
+		if (hops > 0 && (target == -1 || node == target)) {
+			count++;
+			if (collect) {
+				paths.add(toNodes(prefix.length));
+			}
+		}
+		if (closesCycle || hops == maxHops) {
+			return;
+		}
+
+		if (hops < MAX_SPLIT_HOPS && (hops == 0 || getSurplusQueuedTaskCount() < SURPLUS_TASKS)) {
+			split(node);
+		} else {
+			walk(node);
+		}
+	}
+
+	private void split(int node) {
+		List<PathsTask> children = new ArrayList<PathsTask>();
+		for (int edge = graph.getFirstEdge(node), end = graph.getEndEdge(node); edge < end; edge++) {
+			int neighbor = graph.getEdgeTarget(edge);
+			long alternateDistance = (long) distance + graph.getEdgeWeight(edge);
+			if (alternateDistance > maxDistance) {
+				continue;
+			}
+
+			int[] childPrefix = new int[prefix.length + 1];
+			System.arraycopy(prefix, 0, childPrefix, 0, prefix.length);
+			childPrefix[prefix.length] = neighbor;
+			children.add(new PathsTask(graph, childPrefix, (int) alternateDistance, maxHops, maxDistance, target, collect, isOnPrefix(neighbor)));
+		}
+
+		invokeAll(children);
+		for (PathsTask child : children) {
+			count += child.count;
+			if (collect) {
+				paths.addAll(child.paths);
+			}
+		}
+	}
+
+	private void walk(int node) {
+		boolean[] onPath = ON_PATH.get();
+		if (onPath == null || onPath.length != graph.getNodeCount()) {
+			onPath = new boolean[graph.getNodeCount()];
+			ON_PATH.set(onPath);
+		}
+
+		// walkPaths flags the node it starts from itself
+		for (int i = 0; i < prefix.length - 1; i++) {
+			onPath[prefix[i]] = true;
+		}
+		try {
+			graph.walkPaths(onPath, toNodes(prefix.length), node, maxHops - (prefix.length - 1), maxDistance - distance, target, new PathVisitor() {
+				@Override
+				public boolean visit(List<Node> path, int pathDistance) {
+					count++;
+					if (collect) {
+						paths.add(new ArrayList<Node>(path));
+					}
+					return true;
+				}
+			});
+		} finally {
+			for (int i = 0; i < prefix.length; i++) {
+				onPath[prefix[i]] = false;
+			}
+		}
+	}
+
+	// Prefixes are short, a scan is quicker than keeping visit state for every task
+	private boolean isOnPrefix(int node) {
+		for (int hop : prefix) {
+			if (hop == node) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private ArrayList<Node> toNodes(int length) {
+		ArrayList<Node> result = new ArrayList<Node>(length);
+		for (int i = 0; i < length; i++) {
+			result.add(graph.getNode(prefix[i]));
+		}
+		return result;
+	}
+}
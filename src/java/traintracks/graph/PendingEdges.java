@@ -0,0 +1,78 @@
+package traintracks.graph;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The edges added to a Graph since its last snapshot was taken, on top of that snapshot. With these, an edge can
+ * be looked up without taking a new snapshot for every edge that comes in, and when a new snapshot is needed it
+ * is made by extending the last one rather than going back over every Node and Edge.
+ *
+ * The Graph's writers add to it with the write lock held; readers look edges up without locking. A Graph swaps
+ * in a new one, on top of the new snapshot, whenever it takes one.
+ */
+final class PendingEdges {
+
+	private final CompactGraph base;
+
+	// The edges in the order they came in, for extend. Guarded by the graph's write lock
+	private int[] sources = new int[16];
+	private int[] dests = new int[16];
+	private int[] weights = new int[16];
+	private int count;
+
+	// The same edges for the readers, by source << 32 | dest
+	private final Map<Long, Integer> weightsByEdge = new ConcurrentHashMap<Long, Integer>();
+
+	PendingEdges(CompactGraph base) {
+		this.base = base;
+	}
+
+	CompactGraph getBase() {
+		return base;
+	}
+
+	/**
+	 * Only for edges that aren't in the graph yet.
+	 */
+	void add(int source, int dest, int weight) {
+		if (count == sources.length) {
+			sources = Arrays.copyOf(sources, count * 2);
+			dests = Arrays.copyOf(dests, count * 2);
+			weights = Arrays.copyOf(weights, count * 2);
+		}
+		sources[count] = source;
+		dests[count] = dest;
+		weights[count] = weight;
+		count++;
+		weightsByEdge.put(((long) source << 32) | dest, weight);
+	}
+
+	/**
+	 * @param source
+	 * @param dest
+	 * @return The weight of the edge source -> dest, or null if there is no such edge
+	 */
+	Integer weight(int source, int dest) {
+		if (source < base.getNodeCount() && dest < base.getNodeCount()) {
+			int edge = base.findEdge(source, dest);
+			if (edge != -1) {
+				return base.getEdgeWeight(edge);
+			}
+		}
+		return weightsByEdge.get(((long) source << 32) | dest);
+	}
+
+	/**
+	 * The snapshot with these edges added. Only call with the write lock held.
+	 *
+	 * @param nodes Every node in the graph now, by id, starting with the ones in the base snapshot
+	 * @param index Id of every node in the graph
+	 * @return
+	 */
+	CompactGraph extend(List<Node> nodes, Map<Node, Integer> index) {
+		return base.extend(nodes, index, sources, dests, weights, count);
+	}
+}
@@ -0,0 +1,37 @@
+package traintracks.graph;
+
+/**
+ * A reusable shortest path search between two nodes of one snapshot. Implementations keep scratch space the
+ * size of the graph between searches, so one belongs to one thread at a time.
+ */
+interface PointToPointSearch {
+
+	CompactGraph getGraph();
+
+	/**
+	 * @param source
+	 * @param target Must not be the source
+	 * @return The distance from source to target, or -1 if there is no route
+	 */
+	int search(int source, int target);
+
+	/**
+	 * @return The distance the last search found, or -1 if it didn't find a route
+	 */
+	int getDistance();
+
+	/**
+	 * @return The nodes on the route the last search found, without the source, or null if it didn't find one
+	 */
+	int[] getPath();
+
+	/**
+	 * @return How many nodes the last search settled
+	 */
+	int getSettledCount();
+
+	/**
+	 * @return How many edges the last search looked along, from the nodes it settled
+	 */
+	int getRelaxedCount();
+}
@@ -1,80 +1,206 @@
 package traintracks.graph;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.RandomAccess;
 
 /**
  * Struct style class to represent the route from one node to another 
+ * 
+ * Routes the Graph makes keep their path as an array of node ids, which stay the same for a node in every
+ * snapshot of its graph, and only turn them into Nodes when getPath() asks for them. Routes made by hand with
+ * new Route() keep a plain list of Nodes.
  * @author mark
  *
  */
 
 public class Route {
 
-	private Integer distance;
-	public Integer getDistance() {
+	private int distance;
+	public int getDistance() {
 		return distance;
 	}
 
-	public void setDistance(Integer distance) {
+	public void setDistance(int distance) {
 		this.distance = distance;
 	}
-	
-	public Integer calculateDistance() {
-		Integer distance = 0;
+
+	public int calculateDistance() {
+		if (graph != null) {
+			return calculateDistance(graph.freeze());
+		}
+
+		List<Node> path = getPath();
+		int distance = 0;
 		for (int i = 0; i < path.size(); i++) {
 			if (i != path.size() - 1) {
 				distance += path.get(i).getEdgeForNeighbor(path.get(i + 1)).getWeight();
 			}
 		}
-		
+
 		this.distance = distance;
 		return distance;
 	}
 
-	public Integer getHops() {
+	public int getHops() {
 		return hops;
 	}
 
-	public void setHops(Integer hops) {
+	public void setHops(int hops) {
 		this.hops = hops;
 	}
 
+	/**
+	 * @return The nodes on the route. For routes the Graph made, this is a read only view that looks the nodes
+	 * up as it's read
+	 */
 	public List<Node> getPath() {
-		return path;
+		return ids == null ? path : new NodeView();
 	}
 
 	public void setPath(List<Node> path) {
 		this.path = path;
+		this.ids = null;
 	}
 
-	private Integer hops;
+	private int hops;
+
+	// The path, if the route was made by hand
 	private List<Node> path;
-	
+
+	// Otherwise the path as the first length node ids of ids, and the nodes by id to look them up in
+	private int[] ids;
+	private int length;
+	private List<Node> nodesById;
+
+	// Graph this route was made on, if any. Hops are looked up in its snapshot instead of on the nodes
+	private Graph graph;
+
 	public Route() {
 		path = new ArrayList<Node>();
 	}
-	
+
+	Route(Graph graph) {
+		this();
+		this.graph = graph;
+	}
+
+	/**
+	 * @param graph The graph to look up hops added with to() in, or null to go by the nodes' own edges
+	 * @param nodesById The nodes by id, as CompactGraph.getNodes() or the graph itself gives them
+	 * @param ids The path. Taken over, not copied
+	 * @param distance
+	 * @param hops
+	 */
+	Route(Graph graph, List<Node> nodesById, int[] ids, int distance, int hops) {
+		this.graph = graph;
+		this.nodesById = nodesById;
+		this.ids = ids;
+		this.length = ids.length;
+		this.distance = distance;
+		this.hops = hops;
+	}
+
 	public Route addHop(Node node) {
-		path.add(path.size(), node);
-		
+		if (ids == null) {
+			path.add(path.size(), node);
+			return this;
+		}
+
+		int id = idOf(node);
+		if (id == -1) {
+			// Can't be kept as an id, so the route goes over to a list
+			setPath(new ArrayList<Node>(getPath()));
+			path.add(node);
+		} else {
+			append(id);
+		}
 		return this;
 	}
-	
+
 	public Route to(Node dest) {
 		// Indicates that no such route exists
 		if (distance == -1) {
 			return this;
 		}
-		if (path.get(hops).getEdgeForNeighbor(dest) == null) {
+		Integer weight = weightTo(dest);
+		if (weight == null) {
 			distance = -1;
 			return this;
 		}
-		distance += path.get(hops).getEdgeForNeighbor(dest).getWeight();
-		path.add(dest);
+		distance += weight;
+		addHop(dest);
 		hops++;
 		return this;
 	}
-	
-	
+
+	private int calculateDistance(CompactGraph graph) {
+		int[] path;
+		if (ids != null) {
+			path = Arrays.copyOf(ids, length);
+		} else {
+			path = new int[this.path.size()];
+			for (int i = 0; i < path.length; i++) {
+				path[i] = graph.indexOf(this.path.get(i));
+				if (path[i] == -1) {
+					throw new IllegalStateException(this.path.get(i) + " is not part of the graph this route was made on");
+				}
+			}
+		}
+
+		distance = graph.routeDistance(path);
+		return distance;
+	}
+
+	// Weight of the hop from the end of the route to dest, or null if they aren't connected
+	private Integer weightTo(Node dest) {
+		Node last = getPath().get(getPath().size() - 1);
+		if (graph == null) {
+			Edge edge = last.getEdgeForNeighbor(dest);
+			return edge == null ? null : edge.getWeight();
+		}
+
+		int from = ids != null ? ids[length - 1] : graph.idOf(last);
+		int to = graph.idOf(dest);
+		return (from == -1 || to == -1) ? null : graph.edgeWeight(from, to);
+	}
+
+	// Id of the node in the graph, or -1 if it isn't in it or there is no graph to look in
+	private int idOf(Node node) {
+		if (graph == null) {
+			return -1;
+		}
+		int id = graph.idOf(node);
+		if (id >= nodesById.size()) {
+			// The node is newer than the ones we had, and ids never change, so the graph's own list covers the old ones too
+			nodesById = graph.getNodeList();
+		}
+		return id;
+	}
+
+	private void append(int id) {
+		if (length == ids.length) {
+			ids = Arrays.copyOf(ids, Math.max(4, length * 2));
+		}
+		ids[length++] = id;
+	}
+
+	// What getPath() hands out for a route kept as ids
+	private final class NodeView extends AbstractList<Node> implements RandomAccess {
+
+		@Override
+		public Node get(int index) {
+			if (index < 0 || index >= length) {
+				throw new IndexOutOfBoundsException("Index " + index + " on a route of " + length + " nodes");
+			}
+			return nodesById.get(ids[index]);
+		}
+
+		@Override
+		public int size() {
+			return length;
+		}
+	}
 }
@@ -0,0 +1,76 @@
+package traintracks.graph;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Point to point searches that have finished, kept for the next query to reuse so it doesn't have to allocate
+ * O(V) of scratch space again. Every search in a pool was made for the same thing: a snapshot for
+ * BidirectionalDijkstra, a set of Landmarks for AltSearch or a ContractionHierarchy for its queries. Graph
+ * drops the pool and makes a new one as soon as that changes, so searches that are no use any more go with it.
+ *
+ * Any number of threads can take and give back searches at once. A pool holds as many searches as there have
+ * been queries running at the same time, not one per thread that has ever asked.
+ */
+final class SearchPool {
+
+	// What the searches run on
+	private final Object engine;
+
+	private final Queue<PointToPointSearch> idle = new ConcurrentLinkedQueue<PointToPointSearch>();
+
+	SearchPool(CompactGraph graph) {
+		engine = graph;
+	}
+
+	SearchPool(Landmarks landmarks) {
+		engine = landmarks;
+	}
+
+	SearchPool(ContractionHierarchy hierarchy) {
+		engine = hierarchy;
+	}
+
+	/**
+	 * @param engine
+	 * @return Whether this pool's searches run on engine
+	 */
+	boolean isFor(Object engine) {
+		return this.engine == engine;
+	}
+
+	/**
+	 * @return An idle search, or a new one if they're all in use
+	 */
+	PointToPointSearch take() {
+		PointToPointSearch search = idle.poll();
+		if (search != null) {
+			return search;
+		}
+		if (engine instanceof ContractionHierarchy) {
+			return ((ContractionHierarchy) engine).newQuery();
+		} else if (engine instanceof Landmarks) {
+			return new AltSearch((Landmarks) engine);
+		}
+		return new BidirectionalDijkstra((CompactGraph) engine);
+	}
+
+	/**
+	 * Hands a search from take back once nothing is reading it any more. Searches made for something else, by a
+	 * pool this one has since replaced, are left for the garbage collector.
+	 */
+	void release(PointToPointSearch search) {
+		if (engineOf(search) == engine) {
+			idle.offer(search);
+		}
+	}
+
+	private static Object engineOf(PointToPointSearch search) {
+		if (search instanceof ContractionHierarchy.Query) {
+			return ((ContractionHierarchy.Query) search).getHierarchy();
+		} else if (search instanceof AltSearch) {
+			return ((AltSearch) search).getLandmarks();
+		}
+		return search.getGraph();
+	}
+}
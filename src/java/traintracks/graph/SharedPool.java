@@ -0,0 +1,24 @@
+package traintracks.graph;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * The fork join pool the parallel work runs on when the caller doesn't pass one of its own: one for the whole JVM,
+ * with a thread per core, made the first time it's needed and never shut down. Java 7 has no
+ * ForkJoinPool.commonPool(), so this stands in for it. Its threads are daemons, so it never keeps the JVM running,
+ * and they die off on their own once there's been nothing to do for a while.
+ */
+final class SharedPool {
+
+	private SharedPool() {
+	}
+
+	static ForkJoinPool get() {
+		return Holder.POOL;
+	}
+
+	// Not made until someone asks for it
+	private static final class Holder {
+		static final ForkJoinPool POOL = new ForkJoinPool();
+	}
+}
@@ -0,0 +1,322 @@
+package traintracks.graph;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Result of one single source shortest path search: the distance to every node and the node before it on its
+ * shortest route, both indexed by node id. Unreachable nodes have a distance of Integer.MAX_VALUE and no
+ * predecessor (-1). That's all there is to it, two ints per node; a Route to a node is only put together when
+ * it's asked for, by following the predecessors back from it.
+ *
+ * Graph keeps one of these for every source it has been asked about. A tree never changes once anyone else can
+ * see it: when a new edge makes some of its routes shorter, Graph makes a new tree with just the changed entries
+ * laid over this one's arrays (see TreePatch) and caches that instead, so a tree can be read from any thread while
+ * edges are being added, and a new edge only costs as much as the routes it changes. Once the changes pile up to
+ * a good part of the tree, they are folded into fresh arrays.
+ */
+public class ShortestPathTree {
+
+	private final Graph graph;
+	private final List<Node> nodes;
+	private final int source;
+	private final int[] distances;
+	private final int[] predecessors;
+
+	// Entries that have changed since the arrays were filled in, which take their place
+	private final TreePatch patch;
+
+	// Ids the tree knows about. Nodes past the end of the arrays can only be reached through the patch
+	private final int nodeCount;
+
+	// Nodes that can be reached, other than the source
+	private final int routeCount;
+
+	/**
+	 * @param graph Graph the search ran on
+	 * @param nodes The nodes by id. Must cover every node the arrays do
+	 * @param source
+	 * @param distances
+	 * @param predecessors
+	 */
+	ShortestPathTree(Graph graph, List<Node> nodes, int source, int[] distances, int[] predecessors) {
+		this.graph = graph;
+		this.nodes = nodes;
+		this.source = source;
+		this.distances = distances;
+		this.predecessors = predecessors;
+		this.patch = TreePatch.EMPTY;
+		this.nodeCount = distances.length;
+		this.routeCount = countRoutes(source, distances);
+	}
+
+	private ShortestPathTree(ShortestPathTree tree, List<Node> nodes, int nodeCount, TreePatch patch, int routeCount) {
+		this.graph = tree.graph;
+		this.nodes = nodes;
+		this.source = tree.source;
+		this.distances = tree.distances;
+		this.predecessors = tree.predecessors;
+		this.patch = patch;
+		this.nodeCount = nodeCount;
+		this.routeCount = routeCount;
+	}
+
+	/**
+	 * @return The node the routes start from
+	 */
+	public Node getSource() {
+		return nodes.get(source);
+	}
+
+	/**
+	 * @param node
+	 * @return The shortest distance from the source to node, or -1 if there is no route to it. 0 for the source
+	 */
+	public int getDistance(Node node) {
+		int id = idOf(node);
+		return isReachable(id) ? distanceTo(id) : -1;
+	}
+
+	/**
+	 * Puts together the route to one node, by following the predecessors back to the source.
+	 *
+	 * @param node
+	 * @return The route, with the path leaving out the source like Graph.shortestPath, or null if there is no
+	 * route to node or it is the source
+	 */
+	public Route routeTo(Node node) {
+		int id = idOf(node);
+		return id == source || !isReachable(id) ? null : routeTo(id);
+	}
+
+	/**
+	 * @return Every node that can be reached from the source, other than the source, mapped to its route. The map is
+	 * a read only view: no Route is made until the map is asked for it, and a new one every time
+	 */
+	public Map<Node, Route> getRoutes() {
+		return new RouteMap();
+	}
+
+	/**
+	 * @return Roughly how much memory the tree takes up, for caches that go by size
+	 */
+	public long getSizeInBytes() {
+		// Two int arrays with their headers, the tree itself and whatever has been patched in
+		return 2 * (16 + 4L * distances.length) + 56 + patch.getSizeInBytes();
+	}
+
+	int getSourceId() {
+		return source;
+	}
+
+	// The source and every node that can be reached from it
+	int getSettledCount() {
+		return routeCount + 1;
+	}
+
+	int getNodeCount() {
+		return nodeCount;
+	}
+
+	int distanceTo(int node) {
+		if (patch.size() > 0) {
+			long entry = patch.get(node);
+			if (entry != TreePatch.NONE) {
+				return TreePatch.distanceOf(entry);
+			}
+		}
+		return node < distances.length ? distances[node] : Integer.MAX_VALUE;
+	}
+
+	private int predecessorOf(int node) {
+		if (patch.size() > 0) {
+			long entry = patch.get(node);
+			if (entry != TreePatch.NONE) {
+				return TreePatch.predecessorOf(entry);
+			}
+		}
+		return node < predecessors.length ? predecessors[node] : -1;
+	}
+
+	boolean isReachable(int node) {
+		return node >= 0 && distanceTo(node) != Integer.MAX_VALUE;
+	}
+
+	Route routeTo(int node) {
+		if (patch.size() == 0) {
+			return graph.makeRoute(nodes, source, node, distances[node], predecessors, 0);
+		}
+
+		int hops = 0;
+		for (int hop = node; hop != source && hop != -1; hop = predecessorOf(hop)) {
+			hops++;
+		}
+		int[] path = new int[hops];
+		int i = hops;
+		for (int hop = node; i > 0; hop = predecessorOf(hop)) {
+			path[--i] = hop;
+		}
+		return new Route(graph, nodes, path, distanceTo(node), hops);
+	}
+
+	/**
+	 * This tree with some of its routes made shorter, for Graph to work a new edge in. Shares everything with this
+	 * tree but the changed entries, unless there have been enough changes since the arrays were filled in to make
+	 * it worth starting on fresh ones.
+	 *
+	 * @param nodes The nodes by id, covering every id the tree can reach now
+	 * @param nodeCount How many nodes the graph has now
+	 * @param ids The nodes whose routes got shorter, in ascending order
+	 * @param entries Their new distance and predecessor, see TreePatch.entry
+	 * @param count How many of ids there are
+	 * @return
+	 */
+	ShortestPathTree patched(List<Node> nodes, int nodeCount, int[] ids, long[] entries, int count) {
+		int newRoutes = 0;
+		for (int i = 0; i < count; i++) {
+			if (!isReachable(ids[i])) {
+				newRoutes++;
+			}
+		}
+		ShortestPathTree patched = new ShortestPathTree(this, nodes, Math.max(nodeCount, this.nodeCount), patch.with(ids, entries, count),
+				routeCount + newRoutes);
+
+		// Folding the changes in costs a pass over the arrays, so with a quarter of them changed it has paid for itself
+		return patched.patch.size() > distances.length / 4 + 64 ? patched.compact() : patched;
+	}
+
+	private ShortestPathTree compact() {
+		final int[] newDistances = Arrays.copyOf(distances, nodeCount);
+		final int[] newPredecessors = Arrays.copyOf(predecessors, nodeCount);
+		Arrays.fill(newDistances, distances.length, nodeCount, Integer.MAX_VALUE);
+		Arrays.fill(newPredecessors, predecessors.length, nodeCount, -1);
+		patch.forEach(new TreePatch.Visitor() {
+			@Override
+			public void visit(int id, long entry) {
+				newDistances[id] = TreePatch.distanceOf(entry);
+				newPredecessors[id] = TreePatch.predecessorOf(entry);
+			}
+		});
+		return new ShortestPathTree(graph, nodes, source, newDistances, newPredecessors);
+	}
+
+	private static int countRoutes(int source, int[] distances) {
+		int routeCount = 0;
+		for (int node = 0; node < distances.length; node++) {
+			if (node != source && distances[node] != Integer.MAX_VALUE) {
+				routeCount++;
+			}
+		}
+		return routeCount;
+	}
+
+	// Ids never change, so the graph's own index will do, without waiting for a snapshot of it
+	private int idOf(Object node) {
+		return node instanceof Node ? graph.idOf((Node) node) : -1;
+	}
+
+	// What getRoutes() hands out
+	private final class RouteMap extends AbstractMap<Node, Route> {
+
+		@Override
+		public Route get(Object key) {
+			int id = idOf(key);
+			return id == source || !isReachable(id) ? null : routeTo(id);
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			int id = idOf(key);
+			return id != source && isReachable(id);
+		}
+
+		@Override
+		public int size() {
+			return routeCount;
+		}
+
+		@Override
+		public Set<Map.Entry<Node, Route>> entrySet() {
+			return new AbstractSet<Map.Entry<Node, Route>>() {
+				@Override
+				public Iterator<Map.Entry<Node, Route>> iterator() {
+					return new RouteIterator();
+				}
+
+				@Override
+				public int size() {
+					return routeCount;
+				}
+			};
+		}
+	}
+
+	// Goes through the reachable nodes in id order, making each one's Route only if the entry's value is asked for
+	private final class RouteIterator implements Iterator<Map.Entry<Node, Route>> {
+
+		private int next = advance(0);
+
+		@Override
+		public boolean hasNext() {
+			return next < nodeCount;
+		}
+
+		@Override
+		public Map.Entry<Node, Route> next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			int node = next;
+			next = advance(node + 1);
+			return new RouteEntry(node);
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		private int advance(int node) {
+			while (node < nodeCount && (node == source || distanceTo(node) == Integer.MAX_VALUE)) {
+				node++;
+			}
+			return node;
+		}
+	}
+
+	// Routes are made fresh every time and have no equals of their own, so entries don't either
+	private final class RouteEntry implements Map.Entry<Node, Route> {
+
+		private final int node;
+
+		RouteEntry(int node) {
+			this.node = node;
+		}
+
+		@Override
+		public Node getKey() {
+			return nodes.get(node);
+		}
+
+		@Override
+		public Route getValue() {
+			return routeTo(node);
+		}
+
+		@Override
+		public Route setValue(Route value) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public String toString() {
+			return getKey() + "=" + getValue();
+		}
+	}
+}
@@ -0,0 +1,71 @@
+package traintracks.graph;
+
+/**
+ * Where a Graph keeps the shortest path trees it has worked out, one per source (see Graph.shortestPathTree).
+ * Implementations decide how many to keep and which to let go of, and must be safe to use from many threads
+ * at once. Graph never locks to read from the cache, so every query goes through get or peek: a cache that takes
+ * a lock there puts all the queries on the graph behind that one lock. The default, ConcurrentShortestPathTreeCache,
+ * doesn't; LruShortestPathTreeCache does, and is worth it when the trees wouldn't all fit in memory.
+ *
+ * Trees only ever go in and get patched with the graph's writeLock held (see Graph.addEdge), so there is never
+ * more than one writer at a time.
+ */
+public interface ShortestPathTreeCache {
+
+	/**
+	 * A new tree for a source, worked out from its old one.
+	 */
+	interface Patch {
+
+		/**
+		 * @param source
+		 * @param tree
+		 * @return The tree to keep in its place, or null to leave it as it is
+		 */
+		ShortestPathTree patch(Node source, ShortestPathTree tree);
+	}
+
+	/**
+	 * @param source
+	 * @return The cached tree, or null. Counts as a hit or a miss
+	 */
+	ShortestPathTree get(Node source);
+
+	/**
+	 * Same as get, for when the caller only wants a tree that's already there and won't make one if there
+	 * isn't. Doesn't count as a hit or a miss. Whether it counts as a use of the tree is up to the cache.
+	 *
+	 * @param source
+	 * @return The cached tree, or null
+	 */
+	ShortestPathTree peek(Node source);
+
+	/**
+	 * Caches the tree unless there already is one for the source.
+	 *
+	 * @param source
+	 * @param tree
+	 * @return The tree that was already there, or null if there wasn't one
+	 */
+	ShortestPathTree putIfAbsent(Node source, ShortestPathTree tree);
+
+	/**
+	 * Runs every cached tree through the patch, in place, and keeps whatever it hands back instead. Doesn't
+	 * count as a use of any of them.
+	 *
+	 * @param patch
+	 */
+	void patchAll(Patch patch);
+
+	void clear();
+
+	int size();
+
+	boolean isEmpty();
+
+	long getHitCount();
+
+	long getMissCount();
+
+	long getEvictionCount();
+}
@@ -0,0 +1,36 @@
+package traintracks.graph;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A count that lots of threads add to at once, like a cache's hit count. One AtomicLong would have every thread
+ * fighting over the same cache line, so the count is spread over a few cells, each on a line of its own, and a
+ * thread always adds to the one its id picks. Reading it adds the cells up. Java 7 has no LongAdder, and this is
+ * the part of it we need.
+ */
+final class StripedCounter {
+
+	// Cells are this many longs apart, so no two share a 64 byte cache line
+	private static final int SPACING = 8;
+
+	private final AtomicLongArray cells;
+	private final int mask;
+
+	StripedCounter() {
+		int stripes = Integer.highestOneBit(Math.min(64, Runtime.getRuntime().availableProcessors() * 2 - 1)) << 1;
+		cells = new AtomicLongArray(stripes * SPACING);
+		mask = stripes - 1;
+	}
+
+	void increment() {
+		cells.incrementAndGet(((int) Thread.currentThread().getId() & mask) * SPACING);
+	}
+
+	long sum() {
+		long sum = 0;
+		for (int i = 0; i < cells.length(); i += SPACING) {
+			sum += cells.get(i);
+		}
+		return sum;
+	}
+}
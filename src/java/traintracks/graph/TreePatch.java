@@ -0,0 +1,187 @@
+package traintracks.graph;
+
+import java.util.Arrays;
+
+/**
+ * The entries of a ShortestPathTree that new edges have changed since its arrays were filled in: a distance and a
+ * predecessor for each node id that got a shorter route. It is a persistent radix tree, 32 ways at every level, so
+ * working more changes in makes a new patch that shares everything but the paths down to the changed entries with
+ * the old one. The old patch stays exactly as it was for whoever is still reading it.
+ *
+ * Inner nodes are Object[32], leaves are long[32] holding distance << 32 | predecessor, with NONE where nothing
+ * has changed. Levels that nothing has changed under are left out.
+ */
+final class TreePatch {
+
+	static final long NONE = -1L;
+
+	static final TreePatch EMPTY = new TreePatch(null, 0, 0, 0);
+
+	private static final int BITS = 5;
+	private static final int WIDTH = 1 << BITS;
+	private static final int MASK = WIDTH - 1;
+
+	// Bytes a leaf or an inner node takes up, header included
+	private static final int NODE_BYTES = 16 + 8 * WIDTH;
+
+	private final Object root;
+
+	// How far the root's index into its children is shifted. 0 when the root is a leaf
+	private final int shift;
+
+	private final int size;
+	private final long bytes;
+
+	private TreePatch(Object root, int shift, int size, long bytes) {
+		this.root = root;
+		this.shift = shift;
+		this.size = size;
+		this.bytes = bytes;
+	}
+
+	/**
+	 * @return How many entries have been changed
+	 */
+	int size() {
+		return size;
+	}
+
+	long getSizeInBytes() {
+		return bytes;
+	}
+
+	/**
+	 * @param id
+	 * @return distance << 32 | predecessor, or NONE if the entry hasn't changed
+	 */
+	long get(int id) {
+		if (root == null || (id >>> shift) >= WIDTH) {
+			return NONE;
+		}
+		Object node = root;
+		for (int level = shift; level > 0; level -= BITS) {
+			node = ((Object[]) node)[(id >>> level) & MASK];
+			if (node == null) {
+				return NONE;
+			}
+		}
+		return ((long[]) node)[id & MASK];
+	}
+
+	static long entry(int distance, int predecessor) {
+		return ((long) distance << 32) | (predecessor & 0xFFFFFFFFL);
+	}
+
+	static int distanceOf(long entry) {
+		return (int) (entry >>> 32);
+	}
+
+	static int predecessorOf(long entry) {
+		return (int) entry;
+	}
+
+	/**
+	 * A new patch with these entries changed as well. Every node on the way down to them is copied once,
+	 * the rest is shared.
+	 *
+	 * @param ids The ids to change, in ascending order, each at most once
+	 * @param entries What to change them to, see entry
+	 * @param count How many of ids to use
+	 * @return
+	 */
+	TreePatch with(int[] ids, long[] entries, int count) {
+		if (count == 0) {
+			return this;
+		}
+
+		// Grow upwards until the root covers the biggest id, the old root becoming the first child
+		Object newRoot = root;
+		int newShift = shift;
+		while ((ids[count - 1] >>> newShift) >= WIDTH) {
+			if (newRoot != null) {
+				Object[] parent = new Object[WIDTH];
+				parent[0] = newRoot;
+				newRoot = parent;
+			}
+			newShift += BITS;
+		}
+
+		long[] added = new long[2];
+		newRoot = set(newRoot, newShift, ids, entries, 0, count, added);
+		long grownBytes = (newShift - shift) / BITS * (root != null ? NODE_BYTES : 0);
+		return new TreePatch(newRoot, newShift, size + (int) added[0], bytes + grownBytes + added[1]);
+	}
+
+	/**
+	 * Every changed entry, in id order.
+	 */
+	void forEach(Visitor visitor) {
+		if (root != null) {
+			forEach(root, shift, 0, visitor);
+		}
+	}
+
+	interface Visitor {
+		void visit(int id, long entry);
+	}
+
+	// Copy of node (or a new one where there was none) with ids[from..to) set, all of which fall under it.
+	// added gets the number of entries that weren't changed before, and the bytes of the nodes that weren't there
+	private static Object set(Object node, int level, int[] ids, long[] entries, int from, int to, long[] added) {
+		if (level == 0) {
+			long[] leaf;
+			if (node == null) {
+				leaf = new long[WIDTH];
+				Arrays.fill(leaf, NONE);
+				added[1] += NODE_BYTES;
+			} else {
+				leaf = ((long[]) node).clone();
+			}
+			for (int i = from; i < to; i++) {
+				int slot = ids[i] & MASK;
+				if (leaf[slot] == NONE) {
+					added[0]++;
+				}
+				leaf[slot] = entries[i];
+			}
+			return leaf;
+		}
+
+		Object[] inner;
+		if (node == null) {
+			inner = new Object[WIDTH];
+			added[1] += NODE_BYTES;
+		} else {
+			inner = ((Object[]) node).clone();
+		}
+		int i = from;
+		while (i < to) {
+			int child = (ids[i] >>> level) & MASK;
+			int end = i + 1;
+			while (end < to && ((ids[end] >>> level) & MASK) == child) {
+				end++;
+			}
+			inner[child] = set(inner[child], level - BITS, ids, entries, i, end, added);
+			i = end;
+		}
+		return inner;
+	}
+
+	private static void forEach(Object node, int level, int base, Visitor visitor) {
+		if (level == 0) {
+			long[] leaf = (long[]) node;
+			for (int slot = 0; slot < WIDTH; slot++) {
+				if (leaf[slot] != NONE) {
+					visitor.visit(base | slot, leaf[slot]);
+				}
+			}
+			return;
+		}
+		Object[] inner = (Object[]) node;
+		for (int child = 0; child < WIDTH; child++) {
+			if (inner[child] != null) {
+				forEach(inner[child], level - BITS, base | (child << level), visitor);
+			}
+		}
+	}
+}
@@ -0,0 +1,94 @@
+package traintracks.graph.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * The MetricsSink to use unless you have somewhere else to send them: keeps counts, totals and a latency
+ * histogram for every kind of operation (see OperationMetrics), which can be read straight off or published
+ * as one MBean per operation. One of these can be shared by as many graphs as you like, their operations are
+ * simply added up together.
+ *
+ * Graph graph = ...;
+ * GraphMetrics metrics = new GraphMetrics();
+ * metrics.register("network");
+ * graph.setMetricsSink(metrics);
+ */
+public class GraphMetrics implements MetricsSink {
+
+	private final Map<Operation, OperationMetrics> operations = new EnumMap<Operation, OperationMetrics>(Operation.class);
+
+	// What register put in the MBean server, guarded by this
+	private final List<ObjectName> registered = new ArrayList<ObjectName>();
+
+	public GraphMetrics() {
+		for (Operation operation : Operation.values()) {
+			operations.put(operation, new OperationMetrics(operation.isCacheable()));
+		}
+	}
+
+	@Override
+	public void record(Operation operation, long nanos, long settled, long relaxed, long allocatedBytes, boolean cached) {
+		operations.get(operation).record(nanos, settled, relaxed, allocatedBytes, cached);
+	}
+
+	public OperationMetrics get(Operation operation) {
+		return operations.get(operation);
+	}
+
+	/**
+	 * Publishes every operation's metrics on the platform MBean server, as
+	 * traintracks:type=GraphMetrics,name=<name>,operation=<operation>, where jconsole and friends can see them.
+	 *
+	 * @param name Tells these metrics apart from any other graph's
+	 * @throws JMException If the name isn't allowed in an ObjectName, or is taken already
+	 */
+	public synchronized void register(String name) throws JMException {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		for (Map.Entry<Operation, OperationMetrics> entry : operations.entrySet()) {
+			ObjectName objectName = new ObjectName("traintracks:type=GraphMetrics,name=" + ObjectName.quote(name)
+					+ ",operation=" + entry.getKey().name().toLowerCase());
+			server.registerMBean(entry.getValue(), objectName);
+			registered.add(objectName);
+		}
+	}
+
+	/**
+	 * Takes down whatever register published.
+	 *
+	 * @throws JMException
+	 */
+	public synchronized void unregister() throws JMException {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		for (ObjectName objectName : registered) {
+			if (server.isRegistered(objectName)) {
+				server.unregisterMBean(objectName);
+			}
+		}
+		registered.clear();
+	}
+
+	public void reset() {
+		for (OperationMetrics metrics : operations.values()) {
+			metrics.reset();
+		}
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder result = new StringBuilder();
+		for (Map.Entry<Operation, OperationMetrics> entry : operations.entrySet()) {
+			if (entry.getValue().getCount() > 0) {
+				result.append(entry.getKey().name().toLowerCase()).append(": ").append(entry.getValue()).append('\n');
+			}
+		}
+		return result.toString();
+	}
+}
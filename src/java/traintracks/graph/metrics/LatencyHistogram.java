@@ -0,0 +1,63 @@
+package traintracks.graph.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latencies in nanoseconds, counted into power of two buckets: bucket i holds the ones from 2^(i-1) up to 2^i - 1,
+ * so a percentile is only known to within a factor of two. That's plenty to tell a 1ms query from a 1s one, and
+ * recording one is a couple of atomic adds with no locking and no allocation, whatever the spread.
+ */
+final class LatencyHistogram {
+
+	private final AtomicLongArray buckets = new AtomicLongArray(64);
+	private final AtomicLong max = new AtomicLong();
+
+	void record(long nanos) {
+		long value = Math.max(0, nanos);
+		buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(value));
+		long current = max.get();
+		while (value > current && !max.compareAndSet(current, value)) {
+			current = max.get();
+		}
+	}
+
+	long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * @param fraction Between 0 and 1, eg. 0.99
+	 * @return The top of the bucket the percentile falls in, but never more than the highest latency seen.
+	 * 0 if nothing has been recorded
+	 */
+	long getPercentile(double fraction) {
+		long[] counts = new long[buckets.length()];
+		long total = 0;
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] = buckets.get(i);
+			total += counts[i];
+		}
+		if (total == 0) {
+			return 0;
+		}
+
+		long rank = (long) Math.ceil(fraction * total);
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= rank && counts[i] > 0) {
+				long top = (1L << i) - 1;
+				return Math.min(top, getMax());
+			}
+		}
+		return getMax();
+	}
+
+	void reset() {
+		for (int i = 0; i < buckets.length(); i++) {
+			buckets.set(i, 0);
+		}
+		max.set(0);
+	}
+}
@@ -0,0 +1,102 @@
+package traintracks.graph.metrics;
+
+import java.lang.management.ManagementFactory;
+
+import traintracks.graph.metrics.MetricsSink.Operation;
+
+/**
+ * One operation being measured for a MetricsSink: the clock and the thread's allocation counter when it started,
+ * plus whatever the operation adds up about its own work on the way. start hands back NONE for the NOOP sink, which
+ * ignores everything, so code being measured can report to it without checking whether anyone is listening.
+ *
+ * A Measurement belongs to the thread that started it.
+ */
+public final class Measurement {
+
+	public static final Measurement NONE = new Measurement();
+
+	// Per thread allocation counts, if the JVM keeps them. HotSpot and OpenJ9 both do, through their own extension
+	private static final com.sun.management.ThreadMXBean ALLOCATIONS = allocationCounter();
+
+	private final MetricsSink sink;
+	private final Operation operation;
+	private final long startNanos;
+	private final long startAllocated;
+
+	private long settled;
+	private long relaxed;
+	private boolean cached;
+
+	private Measurement() {
+		sink = null;
+		operation = null;
+		startNanos = 0;
+		startAllocated = 0;
+	}
+
+	private Measurement(MetricsSink sink, Operation operation) {
+		this.sink = sink;
+		this.operation = operation;
+		this.startAllocated = allocatedBytes();
+		this.startNanos = System.nanoTime();
+	}
+
+	/**
+	 * @param sink
+	 * @param operation
+	 * @return A measurement that has just started, or NONE if the sink is NOOP
+	 */
+	public static Measurement start(MetricsSink sink, Operation operation) {
+		return sink == MetricsSink.NOOP ? NONE : new Measurement(sink, operation);
+	}
+
+	public void addSettled(long nodes) {
+		// NONE is shared by every thread, so it must never be written to
+		if (sink != null) {
+			settled += nodes;
+		}
+	}
+
+	public void addRelaxed(long edges) {
+		if (sink != null) {
+			relaxed += edges;
+		}
+	}
+
+	public void setCached(boolean cached) {
+		if (sink != null) {
+			this.cached = cached;
+		}
+	}
+
+	/**
+	 * Reports the operation to the sink. Only call this once.
+	 */
+	public void finish() {
+		if (sink == null) {
+			return;
+		}
+		long nanos = System.nanoTime() - startNanos;
+		long allocated = startAllocated == -1 ? -1 : allocatedBytes() - startAllocated;
+		sink.record(operation, nanos, settled, relaxed, allocated, cached);
+	}
+
+	private static long allocatedBytes() {
+		return ALLOCATIONS == null ? -1 : ALLOCATIONS.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	private static com.sun.management.ThreadMXBean allocationCounter() {
+		try {
+			java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+			if (threads instanceof com.sun.management.ThreadMXBean) {
+				com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+				if (allocations.isThreadAllocatedMemorySupported() && allocations.isThreadAllocatedMemoryEnabled()) {
+					return allocations;
+				}
+			}
+		} catch (LinkageError e) {
+			// No com.sun.management on this JVM, so no allocation counts
+		}
+		return null;
+	}
+}
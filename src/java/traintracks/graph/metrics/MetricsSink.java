@@ -0,0 +1,56 @@
+package traintracks.graph.metrics;
+
+/**
+ * Where a Graph reports what its operations cost: one call per operation, once it has finished, on the thread
+ * that ran it. Queries run on many threads at once, so implementations have to be thread safe, and they should be
+ * quick, as whatever they do is added on to every query. GraphMetrics keeps counts and latency histograms and
+ * publishes them over JMX; write your own to send them somewhere else, or to log the slow queries.
+ *
+ * A Graph starts out with NOOP. It recognises it and then doesn't measure anything at all, so with metrics
+ * switched off an operation costs one extra field read and nothing else.
+ */
+public interface MetricsSink {
+
+	enum Operation {
+		SHORTEST_ROUTES(true),
+		SHORTEST_PATH(true),
+		SHORTEST_DISTANCE(true),
+		FIND_PATHS(false),
+
+		// countPaths and findPaths over a fork join pool. Only the calling thread's allocations are counted, the
+		// walk itself allocates on the pool's threads
+		PARALLEL_PATHS(false),
+		ADD_EDGE(false),
+		PARSE(false);
+
+		private final boolean cacheable;
+
+		private Operation(boolean cacheable) {
+			this.cacheable = cacheable;
+		}
+
+		/**
+		 * @return Whether a cache can answer it, so whether its hits and misses mean anything
+		 */
+		public boolean isCacheable() {
+			return cacheable;
+		}
+	}
+
+	MetricsSink NOOP = new MetricsSink() {
+		@Override
+		public void record(Operation operation, long nanos, long settled, long relaxed, long allocatedBytes, boolean cached) {
+		}
+	};
+
+	/**
+	 * @param operation
+	 * @param nanos How long it took, start to finish
+	 * @param settled Nodes the search took off its frontier. 0 if it didn't have to search
+	 * @param relaxed Edges the search looked along from the nodes it settled
+	 * @param allocatedBytes What the calling thread allocated on the way, or -1 if the JVM can't tell. Work handed
+	 * to other threads isn't in it
+	 * @param cached Whether it was answered from a cached shortest path tree or the all pairs matrix
+	 */
+	void record(Operation operation, long nanos, long settled, long relaxed, long allocatedBytes, boolean cached);
+}
@@ -0,0 +1,140 @@
+package traintracks.graph.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Running totals for one kind of operation. Every field is its own atomic, so recording never locks, but a
+ * reader can see one operation counted in some totals and not yet in others. reset() has the same caveat.
+ */
+public class OperationMetrics implements OperationMetricsMBean {
+
+	private final boolean cacheable;
+
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong cacheHits = new AtomicLong();
+	private final AtomicLong nanos = new AtomicLong();
+	private final AtomicLong settled = new AtomicLong();
+	private final AtomicLong relaxed = new AtomicLong();
+
+	// -1 once an operation has come in without an allocation count
+	private final AtomicLong allocatedBytes = new AtomicLong();
+
+	private final LatencyHistogram latencies = new LatencyHistogram();
+
+	/**
+	 * @param cacheable Whether the operation can be answered from a cache. Cache hits and misses are only
+	 * counted if it can
+	 */
+	public OperationMetrics(boolean cacheable) {
+		this.cacheable = cacheable;
+	}
+
+	void record(long nanos, long settled, long relaxed, long allocatedBytes, boolean cached) {
+		count.incrementAndGet();
+		if (cached) {
+			cacheHits.incrementAndGet();
+		}
+		this.nanos.addAndGet(nanos);
+		if (settled != 0) {
+			this.settled.addAndGet(settled);
+		}
+		if (relaxed != 0) {
+			this.relaxed.addAndGet(relaxed);
+		}
+		if (allocatedBytes == -1) {
+			this.allocatedBytes.set(-1);
+		} else if (this.allocatedBytes.get() != -1) {
+			this.allocatedBytes.addAndGet(allocatedBytes);
+		}
+		latencies.record(nanos);
+	}
+
+	@Override
+	public long getCount() {
+		return count.get();
+	}
+
+	@Override
+	public long getCacheHits() {
+		return cacheHits.get();
+	}
+
+	@Override
+	public long getCacheMisses() {
+		return cacheable ? count.get() - cacheHits.get() : 0;
+	}
+
+	@Override
+	public double getMeanMicros() {
+		return mean(nanos.get()) / 1000;
+	}
+
+	@Override
+	public long getMedianMicros() {
+		return latencies.getPercentile(0.5) / 1000;
+	}
+
+	@Override
+	public long get99thPercentileMicros() {
+		return latencies.getPercentile(0.99) / 1000;
+	}
+
+	@Override
+	public long get999thPercentileMicros() {
+		return latencies.getPercentile(0.999) / 1000;
+	}
+
+	@Override
+	public long getMaxMicros() {
+		return latencies.getMax() / 1000;
+	}
+
+	@Override
+	public long getNodesSettled() {
+		return settled.get();
+	}
+
+	@Override
+	public long getEdgesRelaxed() {
+		return relaxed.get();
+	}
+
+	@Override
+	public double getMeanNodesSettled() {
+		return mean(settled.get());
+	}
+
+	@Override
+	public long getAllocatedBytes() {
+		return allocatedBytes.get();
+	}
+
+	@Override
+	public double getMeanAllocatedBytes() {
+		long bytes = allocatedBytes.get();
+		return bytes == -1 ? -1 : mean(bytes);
+	}
+
+	@Override
+	public void reset() {
+		count.set(0);
+		cacheHits.set(0);
+		nanos.set(0);
+		settled.set(0);
+		relaxed.set(0);
+		allocatedBytes.set(0);
+		latencies.reset();
+	}
+
+	@Override
+	public String toString() {
+		return count.get() + " calls" + (cacheable ? " (" + cacheHits.get() + " cached)" : "") + ", mean " + String.format("%.1f", getMeanMicros()) + "us, p50 "
+				+ getMedianMicros() + "us, p99 " + get99thPercentileMicros() + "us, max " + getMaxMicros() + "us, "
+				+ settled.get() + " nodes settled, " + relaxed.get() + " edges relaxed, " + allocatedBytes.get() + " bytes allocated";
+	}
+
+	private double mean(long total) {
+		long calls = count.get();
+		return calls == 0 ? 0 : (double) total / calls;
+	}
+}
@@ -0,0 +1,45 @@
+package traintracks.graph.metrics;
+
+/**
+ * What JMX shows for one kind of Graph operation (see GraphMetrics.register). Latencies are in microseconds and
+ * the percentiles are only good to within a factor of two, see LatencyHistogram.
+ */
+public interface OperationMetricsMBean {
+
+	long getCount();
+
+	/**
+	 * @return Calls a cache answered. Always 0 for operations that no cache can answer, see Operation.isCacheable()
+	 */
+	long getCacheHits();
+
+	/**
+	 * @return Calls no cache could answer. Always 0 for operations that no cache can answer
+	 */
+	long getCacheMisses();
+
+	double getMeanMicros();
+
+	long getMedianMicros();
+
+	long get99thPercentileMicros();
+
+	long get999thPercentileMicros();
+
+	long getMaxMicros();
+
+	long getNodesSettled();
+
+	long getEdgesRelaxed();
+
+	double getMeanNodesSettled();
+
+	/**
+	 * @return Bytes allocated by the operations, or -1 if the JVM doesn't count them
+	 */
+	long getAllocatedBytes();
+
+	double getMeanAllocatedBytes();
+
+	void reset();
+}
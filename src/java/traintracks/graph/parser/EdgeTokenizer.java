@@ -0,0 +1,153 @@
+package traintracks.graph.parser;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Turns the raw bytes of an edge list into edges, one buffer at a time, without regexes or a String per token.
+ * Edges are separated by commas and/or whitespace (so one edge per line works too), and each one is either
+ *
+ * AB5         - two single letter stations followed by the distance, the original format
+ * Bath:York:5 - any two station names and the distance, separated by colons
+ *
+ * Station names are given ids by the LabelTable, and every edge is handed to the sink as soon as its
+ * token ends.
+ */
+class EdgeTokenizer {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	interface EdgeSink {
+		void edge(int source, int dest, int weight);
+	}
+
+	private final LabelTable labels;
+	private final EdgeSink sink;
+
+	// Bytes of the token we're in the middle of, which may have started in an earlier buffer
+	private byte[] token = new byte[64];
+	private int tokenLength;
+
+	// Scratch space for buffers that aren't backed by an array
+	private byte[] chunk;
+
+	EdgeTokenizer(LabelTable labels, EdgeSink sink) {
+		this.labels = labels;
+		this.sink = sink;
+	}
+
+	void feed(ByteBuffer buffer) {
+		if (buffer.hasArray()) {
+			int start = buffer.arrayOffset() + buffer.position();
+			feed(buffer.array(), start, start + buffer.remaining());
+			buffer.position(buffer.limit());
+			return;
+		}
+
+		if (chunk == null) {
+			chunk = new byte[8192];
+		}
+		while (buffer.hasRemaining()) {
+			int length = Math.min(chunk.length, buffer.remaining());
+			buffer.get(chunk, 0, length);
+			feed(chunk, 0, length);
+		}
+	}
+
+	void feed(byte[] bytes, int start, int end) {
+		for (int i = start; i < end; i++) {
+			byte b = bytes[i];
+			if (isSeparator(b)) {
+				endToken();
+			} else {
+				if (tokenLength == token.length) {
+					token = Arrays.copyOf(token, tokenLength * 2);
+				}
+				token[tokenLength++] = b;
+			}
+		}
+	}
+
+	/**
+	 * Call once the input has run out, to flush the last edge.
+	 */
+	void finish() {
+		endToken();
+	}
+
+	static boolean isSeparator(byte b) {
+		return b == ',' || b == ' ' || b == '\n' || b == '\r' || b == '\t';
+	}
+
+	private void endToken() {
+		if (tokenLength == 0) {
+			return;
+		}
+		parseToken();
+		tokenLength = 0;
+	}
+
+	private void parseToken() {
+		int firstColon = -1;
+		int secondColon = -1;
+		for (int i = 0; i < tokenLength; i++) {
+			if (token[i] == ':') {
+				if (firstColon == -1) {
+					firstColon = i;
+				} else if (secondColon == -1) {
+					secondColon = i;
+				} else {
+					throw invalidToken();
+				}
+			}
+		}
+
+		int source;
+		int dest;
+		int weight;
+		if (firstColon != -1) {
+			if (secondColon == -1 || firstColon == 0 || secondColon == firstColon + 1) {
+				throw invalidToken();
+			}
+			weight = parseWeight(secondColon + 1);
+			source = labels.idOf(token, 0, firstColon);
+			dest = labels.idOf(token, firstColon + 1, secondColon);
+		} else {
+			if (tokenLength < 3 || !isLetter(token[0]) || !isLetter(token[1])) {
+				throw invalidToken();
+			}
+			weight = parseWeight(2);
+			source = labels.idOf(token, 0, 1);
+			dest = labels.idOf(token, 1, 2);
+		}
+
+		sink.edge(source, dest, weight);
+	}
+
+	private int parseWeight(int start) {
+		if (start >= tokenLength) {
+			throw invalidToken();
+		}
+		int weight = 0;
+		for (int i = start; i < tokenLength; i++) {
+			int digit = token[i] - '0';
+			if (digit < 0 || digit > 9 || weight > (Integer.MAX_VALUE - digit) / 10) {
+				throw invalidToken();
+			}
+			weight = weight * 10 + digit;
+		}
+		return weight;
+	}
+
+	private static boolean isLetter(byte b) {
+		return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z');
+	}
+
+	private RuntimeException invalidToken() {
+		String node = new String(token, 0, tokenLength, UTF_8);
+		return new RuntimeException("Node description " + node + " does not fit the expected format. Must be two characters followed by a number, "
+				+ "or two station names and a number separated by colons (eg. Bath:York:5), with no spaces or special characters in between. "
+				+ "Distance must be an integer.");
+	}
+}
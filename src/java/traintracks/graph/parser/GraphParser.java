@@ -1,71 +1,114 @@
 package traintracks.graph.parser;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
 
 import traintracks.graph.Graph;
 import traintracks.graph.Node;
+import traintracks.graph.metrics.Measurement;
+import traintracks.graph.metrics.MetricsSink;
+import traintracks.graph.metrics.MetricsSink.Operation;
 
 public class GraphParser {
 
-	private String graphAsString;
-	private static Pattern nodeRegex = Pattern.compile("[a-zA-Z][a-zA-Z][0-9]+");
-	private Map<String, Node> nodes;
-	
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private ReadableByteChannel input;
+	private LabelTable labels;
+	private List<Node> nodes;
+	private MetricsSink metrics = MetricsSink.NOOP;
+
 	/**
 	 * Text of csv input (eg. AB3, CD5, AG3). This isn't very robust parsing.
 	 * @param graphAsString
 	 */
 	public GraphParser(String graphAsString) {
-		this.graphAsString = graphAsString;
-		nodes = new HashMap<String, Node>();
+		this(new StringReader(graphAsString));
+	}
+
+	public GraphParser(Reader reader) {
+		this(new ReaderChannel(reader));
+	}
+
+	public GraphParser(InputStream in) {
+		this(Channels.newChannel(in));
+	}
+
+	/**
+	 * Reads the edges straight off the channel a buffer at a time, so the text never has to fit in memory.
+	 * Edges can be separated by commas, whitespace or new lines. Besides the original two letter form (AB5),
+	 * stations can have any name if the edge is written as source:destination:distance (eg. Bath:York:5).
+	 *
+	 * The channel is read to the end but not closed.
+	 *
+	 * @param input
+	 */
+	public GraphParser(ReadableByteChannel input) {
+		this.input = input;
+		labels = new LabelTable();
+		nodes = new ArrayList<Node>();
+	}
+
+	/**
+	 * Reports how long parse takes to the sink, and hands the sink on to the graph once it's built. The edges
+	 * going in while parsing aren't reported one by one.
+	 *
+	 * @param metrics
+	 * @return this
+	 */
+	public GraphParser metrics(MetricsSink metrics) {
+		this.metrics = metrics;
+		return this;
 	}
-	
+
 	public Graph parse() {
-		Graph graph = new Graph();
-		
-		String[] nodes = graphAsString.split(",");
-		for (String nodeString : nodes) {
-			nodeString = nodeString.trim();
-			validateNode(nodeString);
-			
-			String firstNodeName = String.valueOf(nodeString.charAt(0));
-			String secondNodeName = String.valueOf(nodeString.charAt(1));
-			Integer distance = Integer.parseInt(nodeString.substring(2));
-			
-			Node firstNode = null;
-			Node secondNode = null;
-			if (!nodeExists(firstNodeName)) {
-				firstNode = new Node(firstNodeName);
-				this.nodes.put(firstNodeName, firstNode);
-			} else {
-				firstNode = this.nodes.get(firstNodeName);
+		Measurement measurement = Measurement.start(metrics, Operation.PARSE);
+		try {
+			Graph graph = read();
+			graph.setMetricsSink(metrics);
+			return graph;
+		} finally {
+			measurement.finish();
+		}
+	}
+
+	private Graph read() {
+		final Graph graph = new Graph();
+
+		EdgeTokenizer tokenizer = new EdgeTokenizer(labels, new EdgeTokenizer.EdgeSink() {
+			@Override
+			public void edge(int source, int dest, int weight) {
+				graph.addEdge(nodeFor(source), nodeFor(dest), weight);
 			}
-			
-			if (!nodeExists(secondNodeName)) {
-				secondNode = new Node(secondNodeName);
-				this.nodes.put(secondNodeName, secondNode);
-			} else {
-				secondNode = this.nodes.get(secondNodeName);
+		});
+
+		ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		try {
+			while (input.read(buffer) != -1) {
+				buffer.flip();
+				tokenizer.feed(buffer);
+				buffer.clear();
 			}
-			
-			graph.addEdge(firstNode, secondNode, distance);
+		} catch (IOException e) {
+			throw new RuntimeException("Couldn't read the graph: " + e.getMessage(), e);
 		}
-		
+		tokenizer.finish();
+
 		return graph;
 	}
-	
-	private boolean nodeExists(String nodeName) {
-		return nodes.containsKey(nodeName);
-	}
 
-	private void validateNode(String node) {
-		Matcher m = nodeRegex.matcher(node);
-		if (!m.matches()) {
-			throw new RuntimeException("Node description " + node + " does not fit the expected format. Must be two characters followed by a number with no spaces or special characters in between. Distance must be an integer.");
+	// Ids come out of the label table in order, so a new one is always the next node to make
+	private Node nodeFor(int id) {
+		if (id == nodes.size()) {
+			nodes.add(new Node(labels.getLabel(id)));
 		}
-		
+		return nodes.get(id);
 	}
 }
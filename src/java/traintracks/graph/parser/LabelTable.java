@@ -0,0 +1,114 @@
+package traintracks.graph.parser;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Hands out ids 0, 1, 2, ... to station names as they are seen, straight from the raw bytes of the input.
+ * Looking up a name that is already known doesn't allocate anything; a String is only made the first time a
+ * name turns up. Open addressing, with all the name bytes packed into one array.
+ */
+class LabelTable {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private int[] slots = new int[64]; // id + 1, 0 for empty
+	private int[] hashes = new int[32];
+	private int[] starts = new int[32];
+	private int[] lengths = new int[32];
+	private String[] labels = new String[32];
+	private byte[] names = new byte[256];
+	private int namesSize;
+	private int size;
+
+	int size() {
+		return size;
+	}
+
+	String getLabel(int id) {
+		return labels[id];
+	}
+
+	/**
+	 * @param bytes
+	 * @param start
+	 * @param end
+	 * @return The id of the name in bytes[start .. end), which gets a new one if it hasn't been seen before
+	 */
+	int idOf(byte[] bytes, int start, int end) {
+		int hash = hash(bytes, start, end);
+		int mask = slots.length - 1;
+		int slot = hash & mask;
+		while (slots[slot] != 0) {
+			int id = slots[slot] - 1;
+			if (hashes[id] == hash && sameName(id, bytes, start, end)) {
+				return id;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return add(bytes, start, end, hash, slot);
+	}
+
+	private int add(byte[] bytes, int start, int end, int hash, int slot) {
+		int length = end - start;
+		if (size == hashes.length) {
+			int capacity = size * 2;
+			hashes = Arrays.copyOf(hashes, capacity);
+			starts = Arrays.copyOf(starts, capacity);
+			lengths = Arrays.copyOf(lengths, capacity);
+			labels = Arrays.copyOf(labels, capacity);
+		}
+		if (namesSize + length > names.length) {
+			names = Arrays.copyOf(names, Math.max(names.length * 2, namesSize + length));
+		}
+
+		int id = size++;
+		System.arraycopy(bytes, start, names, namesSize, length);
+		hashes[id] = hash;
+		starts[id] = namesSize;
+		lengths[id] = length;
+		labels[id] = new String(bytes, start, length, UTF_8);
+		namesSize += length;
+		slots[slot] = id + 1;
+
+		// Keep the table at most half full
+		if (size * 2 > slots.length) {
+			rehash();
+		}
+		return id;
+	}
+
+	private void rehash() {
+		slots = new int[slots.length * 2];
+		int mask = slots.length - 1;
+		for (int id = 0; id < size; id++) {
+			int slot = hashes[id] & mask;
+			while (slots[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			slots[slot] = id + 1;
+		}
+	}
+
+	private boolean sameName(int id, byte[] bytes, int start, int end) {
+		if (lengths[id] != end - start) {
+			return false;
+		}
+		int offset = starts[id];
+		for (int i = start; i < end; i++) {
+			if (names[offset++] != bytes[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int hash(byte[] bytes, int start, int end) {
+		int hash = 1;
+		for (int i = start; i < end; i++) {
+			hash = 31 * hash + bytes[i];
+		}
+		// Spread the bits, the table only looks at the low ones
+		return hash ^ (hash >>> 16);
+	}
+}
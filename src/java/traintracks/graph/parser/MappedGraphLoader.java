@@ -0,0 +1,237 @@
+package traintracks.graph.parser;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import traintracks.graph.Graph;
+import traintracks.graph.Node;
+import traintracks.graph.metrics.Measurement;
+import traintracks.graph.metrics.MetricsSink;
+import traintracks.graph.metrics.MetricsSink.Operation;
+
+/**
+ * Loads a big edge list file on all cores. The file is memory mapped and cut into chunks at edge boundaries
+ * (a comma or whitespace), every chunk is tokenized on its own thread into plain int arrays with its own
+ * station names, and then the chunks are merged into one Graph, in file order, in a single pass at the end.
+ * The result is the same graph GraphParser would build from the same file.
+ */
+public class MappedGraphLoader {
+
+	// Chunks are at least this big, there's no point in a thread for a few edges
+	private static final long MIN_CHUNK_SIZE = 1 << 20;
+
+	// And at most this big, a single mapping can't go past 2GB anyway
+	private static final long MAX_CHUNK_SIZE = 1 << 28;
+
+	private File file;
+	private int threads;
+	private MetricsSink metrics = MetricsSink.NOOP;
+
+	public MappedGraphLoader(File file) {
+		this(file, Runtime.getRuntime().availableProcessors());
+	}
+
+	public MappedGraphLoader(File file, int threads) {
+		this.file = file;
+		this.threads = threads;
+	}
+
+	/**
+	 * Same as GraphParser.metrics. Only what the calling thread allocates is counted, not the chunk parsers.
+	 *
+	 * @param metrics
+	 * @return this
+	 */
+	public MappedGraphLoader metrics(MetricsSink metrics) {
+		this.metrics = metrics;
+		return this;
+	}
+
+	public Graph load() throws IOException {
+		Measurement measurement = Measurement.start(metrics, Operation.PARSE);
+		try {
+			Graph graph = loadChunks();
+			graph.setMetricsSink(metrics);
+			return graph;
+		} finally {
+			measurement.finish();
+		}
+	}
+
+	private Graph loadChunks() throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			FileChannel channel = raf.getChannel();
+			List<Future<Chunk>> chunks = new ArrayList<Future<Chunk>>();
+			long[] boundaries = findBoundaries(channel);
+			for (int i = 0; i < boundaries.length - 1; i++) {
+				chunks.add(executor.submit(new ChunkParser(channel, boundaries[i], boundaries[i + 1])));
+			}
+			return merge(chunks);
+		} finally {
+			executor.shutdownNow();
+			raf.close();
+		}
+	}
+
+	/**
+	 * Splits the file into roughly equal chunks, a few per thread so a slow one doesn't hold everyone up.
+	 * Every boundary is moved forward to just after the next separator, so no edge is ever cut in two.
+	 *
+	 * @param channel
+	 * @return Start offsets of the chunks, followed by the size of the file
+	 * @throws IOException
+	 */
+	private long[] findBoundaries(FileChannel channel) throws IOException {
+		long size = channel.size();
+		long chunkSize = Math.min(MAX_CHUNK_SIZE, Math.max(MIN_CHUNK_SIZE, size / (threads * 4L)));
+
+		List<Long> boundaries = new ArrayList<Long>();
+		boundaries.add(0L);
+		ByteBuffer window = ByteBuffer.allocate(4096);
+		long position = chunkSize;
+		while (position < size) {
+			position = nextSeparator(channel, window, position);
+			if (position >= size) {
+				break;
+			}
+			boundaries.add(position + 1);
+			position += chunkSize;
+		}
+		boundaries.add(size);
+
+		long[] result = new long[boundaries.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = boundaries.get(i);
+		}
+		return result;
+	}
+
+	private long nextSeparator(FileChannel channel, ByteBuffer window, long position) throws IOException {
+		while (true) {
+			window.clear();
+			int read = channel.read(window, position);
+			if (read <= 0) {
+				return channel.size();
+			}
+			for (int i = 0; i < read; i++) {
+				if (EdgeTokenizer.isSeparator(window.get(i))) {
+					return position + i;
+				}
+			}
+			position += read;
+		}
+	}
+
+	/**
+	 * Lines the station ids of every chunk up with one set of nodes, and adds the edges in file order, a chunk
+	 * at a time (see Graph.addEdges). A chunk is let go of as soon as its edges are in.
+	 */
+	private Graph merge(List<Future<Chunk>> chunks) throws IOException {
+		Graph graph = new Graph();
+		Map<String, Node> nodes = new HashMap<String, Node>();
+
+		for (int c = 0; c < chunks.size(); c++) {
+			Chunk chunk = await(chunks.get(c));
+			chunks.set(c, null);
+
+			Node[] chunkNodes = new Node[chunk.labels.size()];
+			for (int id = 0; id < chunkNodes.length; id++) {
+				String label = chunk.labels.getLabel(id);
+				Node node = nodes.get(label);
+				if (node == null) {
+					node = new Node(label);
+					nodes.put(label, node);
+				}
+				chunkNodes[id] = node;
+			}
+
+			graph.addEdges(chunkNodes, chunk.sources, chunk.dests, chunk.weights, chunk.edgeCount);
+		}
+
+		return graph;
+	}
+
+	private Chunk await(Future<Chunk> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while loading " + file, e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			throw new IOException("Couldn't load " + file, cause);
+		}
+	}
+
+	/**
+	 * The edges of one chunk, with station ids that only mean something together with its own labels.
+	 */
+	private static class Chunk implements EdgeTokenizer.EdgeSink {
+
+		private LabelTable labels = new LabelTable();
+		private int[] sources = new int[1024];
+		private int[] dests = new int[1024];
+		private int[] weights = new int[1024];
+		private int edgeCount;
+
+		@Override
+		public void edge(int source, int dest, int weight) {
+			if (edgeCount == sources.length) {
+				sources = Arrays.copyOf(sources, edgeCount * 2);
+				dests = Arrays.copyOf(dests, edgeCount * 2);
+				weights = Arrays.copyOf(weights, edgeCount * 2);
+			}
+			sources[edgeCount] = source;
+			dests[edgeCount] = dest;
+			weights[edgeCount] = weight;
+			edgeCount++;
+		}
+	}
+
+	private static class ChunkParser implements Callable<Chunk> {
+
+		private FileChannel channel;
+		private long start;
+		private long end;
+
+		ChunkParser(FileChannel channel, long start, long end) {
+			this.channel = channel;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		public Chunk call() throws IOException {
+			Chunk chunk = new Chunk();
+			if (end > start) {
+				MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+				EdgeTokenizer tokenizer = new EdgeTokenizer(chunk.labels, chunk);
+				tokenizer.feed(buffer);
+				tokenizer.finish();
+			}
+			return chunk;
+		}
+	}
+}
@@ -0,0 +1,76 @@
+package traintracks.graph.parser;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.Charset;
+
+/**
+ * Lets the byte based parser read from a Reader, by encoding the characters to UTF-8 as they are read.
+ */
+class ReaderChannel implements ReadableByteChannel {
+
+	private final Reader reader;
+	private final CharsetEncoder encoder = Charset.forName("UTF-8").newEncoder();
+	private final CharBuffer chars = CharBuffer.allocate(8192);
+	private boolean endOfInput;
+	private boolean flushed;
+	private boolean open = true;
+
+	ReaderChannel(Reader reader) {
+		this.reader = reader;
+		chars.flip();
+	}
+
+	@Override
+	public int read(ByteBuffer dst) throws IOException {
+		if (!open) {
+			throw new ClosedChannelException();
+		}
+
+		int start = dst.position();
+		while (dst.hasRemaining() && !flushed) {
+			CoderResult result = encoder.encode(chars, dst, endOfInput);
+			if (result.isError()) {
+				result.throwException();
+			}
+			if (result.isOverflow()) {
+				break;
+			}
+
+			if (endOfInput) {
+				if (encoder.flush(dst).isOverflow()) {
+					break;
+				}
+				flushed = true;
+				break;
+			}
+
+			chars.compact();
+			int read = reader.read(chars);
+			chars.flip();
+			if (read == -1) {
+				endOfInput = true;
+			}
+		}
+
+		int written = dst.position() - start;
+		return (written == 0 && flushed) ? -1 : written;
+	}
+
+	@Override
+	public boolean isOpen() {
+		return open;
+	}
+
+	@Override
+	public void close() throws IOException {
+		open = false;
+		reader.close();
+	}
+}
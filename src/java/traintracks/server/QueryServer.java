@@ -0,0 +1,320 @@
+package traintracks.server;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.Charset;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import traintracks.graph.Graph;
+import traintracks.graph.Node;
+import traintracks.graph.Route;
+
+/**
+ * Answers queries about one graph over TCP, so the graph is only read in once and not for every question.
+ * The protocol is a line of text per query and a line back per answer, as many queries per connection as
+ * the client likes:
+ *
+ * DISTANCE A B C          distance along the route A -> B -> C
+ * SHORTEST A C            distance of the shortest route from A to C, then its stations
+ * TRIPS A C 1 3           number of trips from A to C with 1 to 3 stops
+ * ROUTES A C 30           number of routes from A to C shorter than 30
+ * QUIT                    closes the connection
+ *
+ * Answers are a number (followed by the stations for SHORTEST), NO SUCH ROUTE, or ERROR and what was wrong.
+ * A query that fails gets its ERROR line like any other answer, it never costs the client its connection.
+ *
+ * Every connection gets its own thread, a virtual one when the JVM has them (Java 21 on), otherwise one from
+ * a pool that never grows past maxConnections. Answers have to come back in the order the queries were sent,
+ * so a connection's queries are answered one after the other on its thread. Queries don't lock anything (see
+ * Graph), so connections never wait on each other.
+ *
+ * Nothing a client sends can tie the server up for good: past maxConnections, new connections get an ERROR
+ * line and are closed, a connection that sends nothing for readTimeout is closed, and TRIPS and ROUTES, whose
+ * cost grows with the stops and the distance asked for, are turned down past maxStops and maxDistance.
+ */
+public class QueryServer {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static final String NO_SUCH_ROUTE = "NO SUCH ROUTE";
+
+	private final Graph graph;
+	private final ServerSocket serverSocket;
+
+	private volatile int maxStops = 50;
+	private volatile int maxDistance = 100000;
+	private volatile int readTimeout = 60000;
+	private volatile int maxConnections = 1000;
+
+	/**
+	 * Binds to the port straight away, so it can be connected to before serve is called.
+	 *
+	 * @param graph
+	 * @param port The port to listen on, or 0 for any free one
+	 * @throws IOException If the port can't be bound
+	 */
+	public QueryServer(Graph graph, int port) throws IOException {
+		this.graph = graph;
+		this.serverSocket = new ServerSocket();
+		serverSocket.setReuseAddress(true);
+		serverSocket.bind(new InetSocketAddress(port));
+	}
+
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	/**
+	 * @param maxStops The most stops TRIPS can be asked for
+	 * @return
+	 */
+	public QueryServer maxStops(int maxStops) {
+		this.maxStops = atLeastOne("Max stops", maxStops);
+		return this;
+	}
+
+	/**
+	 * @param maxDistance The longest distance ROUTES can be asked for
+	 * @return
+	 */
+	public QueryServer maxDistance(int maxDistance) {
+		this.maxDistance = atLeastOne("Max distance", maxDistance);
+		return this;
+	}
+
+	/**
+	 * @param readTimeout How long a connection can go without sending anything before it's closed, in
+	 * milliseconds. Applies to connections made after it's set
+	 * @return
+	 */
+	public QueryServer readTimeout(int readTimeout) {
+		this.readTimeout = atLeastOne("Read timeout", readTimeout);
+		return this;
+	}
+
+	/**
+	 * @param maxConnections How many connections can be open at once. Set it before calling serve
+	 * @return
+	 */
+	public QueryServer maxConnections(int maxConnections) {
+		this.maxConnections = atLeastOne("Max connections", maxConnections);
+		return this;
+	}
+
+	/**
+	 * Takes connections until close is called, handing every one to its own thread.
+	 *
+	 * @throws IOException
+	 */
+	public void serve() throws IOException {
+		final Semaphore connections = new Semaphore(maxConnections);
+		ExecutorService executor = newExecutor(maxConnections);
+		try {
+			while (true) {
+				final Socket socket;
+				try {
+					socket = serverSocket.accept();
+				} catch (SocketException e) {
+					if (serverSocket.isClosed()) {
+						return;
+					}
+					throw e;
+				}
+				if (!connections.tryAcquire()) {
+					refuse(socket);
+					continue;
+				}
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							handle(socket);
+						} finally {
+							connections.release();
+						}
+					}
+				});
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Stops taking new connections. The ones already open are answered until their clients are done.
+	 *
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		serverSocket.close();
+	}
+
+	private void handle(Socket socket) {
+		try {
+			try {
+				// Times out as a SocketTimeoutException, which closes the connection like any other IOException
+				socket.setSoTimeout(readTimeout);
+				BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), UTF_8));
+				Writer out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), UTF_8));
+				String line;
+				while ((line = in.readLine()) != null) {
+					String query = line.trim();
+					if (query.isEmpty()) {
+						continue;
+					}
+					if (query.equalsIgnoreCase("QUIT")) {
+						break;
+					}
+					out.write(answer(query));
+					out.write('\n');
+					out.flush();
+				}
+			} finally {
+				socket.close();
+			}
+		} catch (IOException e) {
+			// The client went away, nothing to be done about it
+		}
+	}
+
+	// Done on the accepting thread, so it mustn't wait on the client. The line fits in the socket's send buffer
+	private static void refuse(Socket socket) {
+		try {
+			try {
+				Writer out = new OutputStreamWriter(socket.getOutputStream(), UTF_8);
+				out.write("ERROR too many connections\n");
+				out.flush();
+			} finally {
+				socket.close();
+			}
+		} catch (IOException e) {
+			// Gone already
+		}
+	}
+
+	/**
+	 * @param query One line of the protocol
+	 * @return The answer, without the new line
+	 */
+	private String answer(String query) {
+		String[] words = query.split("\\s+");
+		String command = words[0].toUpperCase();
+		try {
+			if (command.equals("DISTANCE")) {
+				return distance(words);
+			} else if (command.equals("SHORTEST")) {
+				return shortest(words);
+			} else if (command.equals("TRIPS")) {
+				expect(words, 5, "TRIPS <from> <to> <min stops> <max stops>");
+				int stops = atMost(number(words[4]), maxStops, "stops");
+				return String.valueOf(graph.countTrips(node(words[1]), node(words[2]), number(words[3]), stops));
+			} else if (command.equals("ROUTES")) {
+				expect(words, 4, "ROUTES <from> <to> <max distance>");
+				int distance = atMost(number(words[3]), maxDistance, "distance");
+				return String.valueOf(graph.countRoutesUnderDistance(node(words[1]), node(words[2]), distance));
+			}
+			return "ERROR unknown query " + words[0];
+		} catch (IllegalArgumentException e) {
+			return "ERROR " + e.getMessage();
+		} catch (RuntimeException e) {
+			// Something the graph can't answer, like routes by distance over edges that weigh nothing. The
+			// client gets told, and the connection stays open for its next query
+			return "ERROR " + (e.getMessage() != null ? e.getMessage() : e.toString());
+		}
+	}
+
+	private String distance(String[] words) {
+		if (words.length < 2) {
+			throw new IllegalArgumentException("expected DISTANCE <station> <station> ...");
+		}
+		Route route = graph.from(node(words[1]));
+		for (int i = 2; i < words.length; i++) {
+			route = route.to(node(words[i]));
+		}
+		int distance = route.getDistance();
+		return distance == -1 ? NO_SUCH_ROUTE : String.valueOf(distance);
+	}
+
+	private String shortest(String[] words) {
+		expect(words, 3, "SHORTEST <from> <to>");
+		Node from = node(words[1]);
+		Route route = graph.shortestPath(from, node(words[2]));
+		if (route == null) {
+			return NO_SUCH_ROUTE;
+		}
+
+		StringBuilder sb = new StringBuilder();
+		sb.append(route.getDistance()).append(' ').append(from.getLabel());
+		for (Node node : route.getPath()) {
+			sb.append(' ').append(node.getLabel());
+		}
+		return sb.toString();
+	}
+
+	private Node node(String label) {
+		Node node = graph.getNodeByName(label);
+		if (node == null) {
+			throw new IllegalArgumentException("no station called " + label);
+		}
+		return node;
+	}
+
+	private static int number(String word) {
+		try {
+			return Integer.parseInt(word);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException(word + " is not a number");
+		}
+	}
+
+	private static int atMost(int value, int limit, String what) {
+		if (value > limit) {
+			throw new IllegalArgumentException("can't answer for more than " + limit + " " + what);
+		}
+		return value;
+	}
+
+	private static int atLeastOne(String name, int value) {
+		if (value < 1) {
+			throw new IllegalArgumentException(name + " must be at least 1, not " + value);
+		}
+		return value;
+	}
+
+	private static void expect(String[] words, int count, String usage) {
+		if (words.length != count) {
+			throw new IllegalArgumentException("expected " + usage);
+		}
+	}
+
+	/**
+	 * A thread per connection is cheap with virtual threads, which are looked up reflectively so this still
+	 * compiles and runs on the older JVMs the rest of the project targets. Without them, platform threads are
+	 * kept around for a minute for the next connection, and never more of them than there can be connections.
+	 */
+	private static ExecutorService newExecutor(int maxConnections) {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			// serve never hands over more than maxConnections at once, so the queue only ever holds a connection
+			// for the moment it takes a thread that has just finished with one to come back for it
+			ThreadPoolExecutor pool = new ThreadPoolExecutor(maxConnections, maxConnections, 60, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<Runnable>());
+			pool.allowCoreThreadTimeOut(true);
+			return pool;
+		}
+	}
+}
@@ -1,22 +1,19 @@
 package traintracks.utils;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.UnsupportedEncodingException;
-import java.nio.charset.CharsetDecoder;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Stack;
 
+import traintracks.graph.CompactGraph;
 import traintracks.graph.Graph;
 import traintracks.graph.Node;
 import traintracks.graph.Route;
+import traintracks.graph.metrics.MetricsSink;
 import traintracks.graph.parser.GraphParser;
+import traintracks.graph.parser.MappedGraphLoader;
 
 /**
  * Okay so I generally hate "Utility" classes, but when you're in Java land, sometimes you do as the Romans do.
@@ -25,28 +22,25 @@ import traintracks.graph.parser.GraphParser;
  */
 public class GraphUtils {
 
+	/**
+	 * Streams the graph straight out of the input, so it never has to be held as one big String.
+	 * The input is expected to be UTF-8 (without a BOM).
+	 * 
+	 * @param in
+	 * @return The graph, or null if it couldn't be read
+	 */
 	public static Graph readFromInputStream(InputStream in) {
+		return readFromInputStream(in, MetricsSink.NOOP);
+	}
+	
+	/**
+	 * @param in
+	 * @param metrics Told how long the parsing took, and given to the graph for everything after
+	 * @return The graph, or null if it couldn't be read
+	 */
+	public static Graph readFromInputStream(InputStream in, MetricsSink metrics) {
 		
-		StringBuilder sb = new StringBuilder();
-		BufferedReader reader = null;
-		try {
-			reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
-		} catch (UnsupportedEncodingException e1) {
-			System.out.println("Could not read stream. Please make sure you use UTF-8 without BOM encoding. "
-					          + "If you used notepad to create the file, please create it in another text editor, as Notepad has"
-					          + "no option to save UTF-8 without BOM");
-			e1.printStackTrace();
-		}
-		String nextLine = null;
-		try {
-			while ((nextLine = reader.readLine()) != null) {
-				sb.append(nextLine);
-			}
-		} catch (IOException e) {
-			System.out.println("Sorry, I had trouble reading in the file");
-		}
-		
-		GraphParser parser = new GraphParser(sb.toString());
+		GraphParser parser = new GraphParser(in).metrics(metrics);
 		
 		Graph graph = null; 
 		
@@ -60,11 +54,57 @@ public class GraphUtils {
 		return graph;
 	}
 	
+	/**
+	 * Memory maps the file and parses it on all cores, see MappedGraphLoader. Binary snapshots written by
+	 * Graph.save are recognised and loaded directly.
+	 * 
+	 * @param filePath
+	 * @return The graph, or null if it couldn't be read
+	 * @throws FileNotFoundException
+	 */
 	public static Graph readFromFile(String filePath) throws FileNotFoundException {
+		return readFromFile(filePath, MetricsSink.NOOP);
+	}
+	
+	/**
+	 * @param filePath
+	 * @param metrics Told how long the parsing took, and given to the graph for everything after
+	 * @return The graph, or null if it couldn't be read
+	 * @throws FileNotFoundException
+	 */
+	public static Graph readFromFile(String filePath, MetricsSink metrics) throws FileNotFoundException {
 		File inputFile = new File(filePath);
-		return readFromInputStream(new FileInputStream(inputFile));
+		if (!inputFile.isFile()) {
+			throw new FileNotFoundException(filePath);
+		}
+		
+		Graph graph = null;
+		
+		try {
+			if (CompactGraph.isSnapshot(inputFile)) {
+				graph = Graph.load(inputFile);
+				graph.setMetricsSink(metrics);
+			} else {
+				graph = new MappedGraphLoader(inputFile).metrics(metrics).load();
+			}
+		} catch (IOException e) {
+			System.out.println("Sorry, I had trouble reading in the file");
+			System.out.println(e.getMessage());
+		} catch (RuntimeException e) {
+			System.out.println("Sorry I wasn't able to parse the graph\n");
+			System.out.println(e.getMessage());
+		}
+		
+		return graph;
 	}
 	
+	/**
+	 * Counts the ways the given cycles can be strung together and stay under the threshold. Exponential in the 
+	 * number of cycles, and it miscounts when cycles share edges.
+	 * 
+	 * @deprecated Use Graph.countRoutesUnderDistance, which counts the routes directly in O(threshold * E)
+	 */
+	@Deprecated
 	public static Integer permutationsUnderThreshold(List<Route> routes, Integer threshold) {
 		int result = 0;
 		
@@ -95,6 +135,7 @@ public class GraphUtils {
 	}
 
 	// Nother recursive function damn these graphs
+	@Deprecated
 	public static int permutationsUnderThreshold(List<Route> stateToPass, Integer threshold, int currentDistance) {
 		
 		if (stateToPass.isEmpty()) {
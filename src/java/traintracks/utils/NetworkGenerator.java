@@ -0,0 +1,372 @@
+package traintracks.utils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+import traintracks.graph.Graph;
+import traintracks.graph.Node;
+
+/**
+ * Makes up rail networks of any size, for load and scale testing. Stations are laid out on lines of
+ * lineLength stations each; the first station of every line is its hub. Every station has a track on to the
+ * next one on its line, and the last station of a line goes on to the next line's hub, so the lines form one
+ * big loop and every station can reach every other. On top of that:
+ *
+ * - cycleDensity is the share of lines that run both ways, which puts a short cycle on every stretch of them
+ * - every station gets extra tracks until the average degree is reached, and clustering is the share of those
+ *   that go to a hub (hub and spoke) rather than to any station at all
+ * - distances are drawn from the weight distribution, between minWeight and maxWeight
+ *
+ * The same settings and seed always give the same network. Edges are worked out a station at a time and
+ * written out as they go, so there's no limit to how big a file write can make. Networks of up to 26
+ * stations are written in the original format (AB5, BC4, ...), bigger ones as S0:S1:5, one edge per line.
+ *
+ * A station never gets two tracks to the same place, so the average degree can come out a little lower than
+ * asked for on small networks where there isn't room.
+ */
+public class NetworkGenerator {
+
+	public enum WeightDistribution {
+		// Every distance between min and max is as likely
+		UNIFORM,
+		// Bunched up around the middle of min and max
+		NORMAL,
+		// Mostly short hops, the odd long one
+		EXPONENTIAL
+	}
+
+	// Past this many stations, the labels don't fit in a letter
+	private static final int LETTER_LABELS = 26;
+
+	// Tries at finding a station this one isn't already connected to, before giving up on the track
+	private static final int TRIES = 8;
+
+	private int nodeCount;
+	private double averageDegree = 3;
+	private WeightDistribution weights = WeightDistribution.UNIFORM;
+	private int minWeight = 1;
+	private int maxWeight = 20;
+	private double cycleDensity = 0.5;
+	private double clustering = 0.5;
+	private int lineLength = 10;
+	private long seed = 42;
+
+	public NetworkGenerator(int nodeCount) {
+		if (nodeCount < 0) {
+			throw new IllegalArgumentException("Can't have " + nodeCount + " stations");
+		}
+		this.nodeCount = nodeCount;
+	}
+
+	/**
+	 * @param averageDegree Tracks out of each station, on average. At least 1, for the track along the line
+	 * @return
+	 */
+	public NetworkGenerator averageDegree(double averageDegree) {
+		if (averageDegree < 1) {
+			throw new IllegalArgumentException("Average degree must be at least 1, not " + averageDegree);
+		}
+		this.averageDegree = averageDegree;
+		return this;
+	}
+
+	public NetworkGenerator weights(WeightDistribution weights, int minWeight, int maxWeight) {
+		if (minWeight < 1 || maxWeight < minWeight) {
+			throw new IllegalArgumentException("Distances must be from 1 up, not " + minWeight + " to " + maxWeight);
+		}
+		this.weights = weights;
+		this.minWeight = minWeight;
+		this.maxWeight = maxWeight;
+		return this;
+	}
+
+	public NetworkGenerator cycleDensity(double cycleDensity) {
+		this.cycleDensity = fraction("Cycle density", cycleDensity);
+		return this;
+	}
+
+	public NetworkGenerator clustering(double clustering) {
+		this.clustering = fraction("Clustering", clustering);
+		return this;
+	}
+
+	public NetworkGenerator lineLength(int lineLength) {
+		if (lineLength < 1) {
+			throw new IllegalArgumentException("Lines need at least one station, not " + lineLength);
+		}
+		this.lineLength = lineLength;
+		return this;
+	}
+
+	public NetworkGenerator seed(long seed) {
+		this.seed = seed;
+		return this;
+	}
+
+	/**
+	 * @return The network as a Graph, with stations labelled the same as write labels them
+	 */
+	public Graph generate() {
+		final Graph graph = new Graph();
+		final Node[] nodes = new Node[nodeCount];
+		for (int i = 0; i < nodeCount; i++) {
+			nodes[i] = new Node(label(i));
+		}
+
+		try {
+			generate(new EdgeSink() {
+				@Override
+				public void edge(int source, int dest, int weight) {
+					graph.addEdge(nodes[source], nodes[dest], weight);
+				}
+			});
+		} catch (IOException e) {
+			// Nothing in here does any IO
+			throw new IllegalStateException(e);
+		}
+		return graph;
+	}
+
+	/**
+	 * Writes the network as text GraphParser can read. The stream is flushed but not closed.
+	 *
+	 * @param out
+	 * @throws IOException
+	 */
+	public void write(OutputStream out) throws IOException {
+		EdgeWriter writer = new EdgeWriter(out, nodeCount <= LETTER_LABELS);
+		generate(writer);
+		writer.flush();
+	}
+
+	public void write(File file) throws IOException {
+		OutputStream out = new FileOutputStream(file);
+		try {
+			write(out);
+		} finally {
+			out.close();
+		}
+	}
+
+	private String label(int node) {
+		return nodeCount <= LETTER_LABELS ? String.valueOf((char) ('A' + node)) : "S" + node;
+	}
+
+	private void generate(EdgeSink sink) throws IOException {
+		if (nodeCount < 2) {
+			return;
+		}
+
+		Random random = new Random(seed);
+		int lineCount = (nodeCount + lineLength - 1) / lineLength;
+		boolean[] twoWay = new boolean[lineCount];
+		for (int line = 0; line < lineCount; line++) {
+			twoWay[line] = random.nextDouble() < cycleDensity;
+		}
+
+		// Whatever the line tracks don't make up is made up with extra ones
+		double lineDegree = 1 + cycleDensity * (lineLength - 1) / lineLength;
+		double extraDegree = Math.max(0, averageDegree - lineDegree);
+		int[] targets = new int[(int) Math.ceil(averageDegree) + 2];
+
+		for (int node = 0; node < nodeCount; node++) {
+			int line = node / lineLength;
+			int tracks = 0;
+
+			// On along the line, or on to the next line's hub from the end of it
+			int next = (node + 1) % lineLength == 0 || node + 1 == nodeCount ? ((line + 1) % lineCount) * lineLength : node + 1;
+			if (next != node) {
+				targets[tracks++] = next;
+				sink.edge(node, next, weight(random));
+			}
+
+			// And back again, if the line goes both ways
+			if (twoWay[line] && node % lineLength != 0 && !contains(targets, tracks, node - 1)) {
+				targets[tracks++] = node - 1;
+				sink.edge(node, node - 1, weight(random));
+			}
+
+			int extra = (int) extraDegree + (random.nextDouble() < extraDegree - (int) extraDegree ? 1 : 0);
+			for (int i = 0; i < extra; i++) {
+				int dest = pickDestination(random, lineCount, node, targets, tracks);
+				if (dest == -1) {
+					continue;
+				}
+				if (tracks == targets.length) {
+					targets = Arrays.copyOf(targets, tracks * 2);
+				}
+				targets[tracks++] = dest;
+				sink.edge(node, dest, weight(random));
+			}
+		}
+	}
+
+	private int pickDestination(Random random, int lineCount, int node, int[] targets, int tracks) {
+		for (int tries = 0; tries < TRIES; tries++) {
+			int dest = random.nextDouble() < clustering ? random.nextInt(lineCount) * lineLength : random.nextInt(nodeCount);
+			if (dest != node && !contains(targets, tracks, dest)) {
+				return dest;
+			}
+		}
+		return -1;
+	}
+
+	private int weight(Random random) {
+		int range = maxWeight - minWeight;
+		double x;
+		switch (weights) {
+		case NORMAL:
+			// Six standard deviations across the range, and whatever still falls outside is clamped
+			x = 0.5 + random.nextGaussian() / 6;
+			break;
+		case EXPONENTIAL:
+			// A mean of a fifth of the way along
+			x = -Math.log(1 - random.nextDouble()) / 5;
+			break;
+		default:
+			return minWeight + random.nextInt(range + 1);
+		}
+		return minWeight + (int) Math.round(Math.max(0, Math.min(1, x)) * range);
+	}
+
+	private static boolean contains(int[] values, int size, int value) {
+		for (int i = 0; i < size; i++) {
+			if (values[i] == value) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static double fraction(String name, double value) {
+		if (value < 0 || value > 1) {
+			throw new IllegalArgumentException(name + " must be between 0 and 1, not " + value);
+		}
+		return value;
+	}
+
+	private interface EdgeSink {
+		void edge(int source, int dest, int weight) throws IOException;
+	}
+
+	/**
+	 * Writes edges straight into a byte buffer, so a hundred million of them don't mean a hundred million Strings.
+	 */
+	private static class EdgeWriter implements EdgeSink {
+
+		private final OutputStream out;
+		private final boolean letters;
+		private final byte[] buffer = new byte[64 * 1024];
+		private int size;
+		private boolean first = true;
+
+		EdgeWriter(OutputStream out, boolean letters) {
+			this.out = out;
+			this.letters = letters;
+		}
+
+		@Override
+		public void edge(int source, int dest, int weight) throws IOException {
+			// Longest edge there can be: two labels and a distance of up to 11 bytes each, two colons and a new line
+			if (size + 40 > buffer.length) {
+				drain();
+			}
+			if (letters) {
+				if (!first) {
+					buffer[size++] = ',';
+					buffer[size++] = ' ';
+				}
+				buffer[size++] = (byte) ('A' + source);
+				buffer[size++] = (byte) ('A' + dest);
+				number(weight);
+			} else {
+				buffer[size++] = 'S';
+				number(source);
+				buffer[size++] = ':';
+				buffer[size++] = 'S';
+				number(dest);
+				buffer[size++] = ':';
+				number(weight);
+				buffer[size++] = '\n';
+			}
+			first = false;
+		}
+
+		// Non negative only, which everything written here is
+		private void number(int value) {
+			int digits = 1;
+			for (int rest = value / 10; rest > 0; rest /= 10) {
+				digits++;
+			}
+			for (int i = size + digits - 1; i >= size; i--) {
+				buffer[i] = (byte) ('0' + value % 10);
+				value /= 10;
+			}
+			size += digits;
+		}
+
+		private void drain() throws IOException {
+			out.write(buffer, 0, size);
+			size = 0;
+		}
+
+		void flush() throws IOException {
+			drain();
+			out.flush();
+		}
+	}
+
+	/**
+	 * Writes a generated network to a file, or to stdout if no file is given.
+	 */
+	public static void main(String[] args) throws ParseException, IOException {
+		Options options = new Options();
+		options.addOption("n", "nodes", true, "number of stations");
+		options.addOption("d", "degree", true, "average tracks out of each station (default 3)");
+		options.addOption("w", "weights", true, "distance distribution: uniform, normal or exponential (default uniform)");
+		options.addOption("min", true, "shortest distance (default 1)");
+		options.addOption("max", true, "longest distance (default 20)");
+		options.addOption("c", "cycles", true, "share of lines that run both ways, 0 to 1 (default 0.5)");
+		options.addOption("k", "clustering", true, "share of extra tracks that go to a hub, 0 to 1 (default 0.5)");
+		options.addOption("l", "line", true, "stations on each line (default 10)");
+		options.addOption("seed", true, "random seed (default 42)");
+		options.addOption("o", "output", true, "file to write to (default stdout)");
+		options.addOption("h", "help", false, "display this text");
+
+		CommandLine cmd = new DefaultParser().parse(options, args);
+		if (cmd.hasOption("h") || !cmd.hasOption("n")) {
+			new HelpFormatter().printHelp("network-generator -n <stations>", options);
+			return;
+		}
+
+		NetworkGenerator generator = new NetworkGenerator(Integer.parseInt(cmd.getOptionValue("n")))
+			.averageDegree(Double.parseDouble(value(cmd, "d", "3")))
+			.weights(WeightDistribution.valueOf(value(cmd, "w", "uniform").toUpperCase()),
+			         Integer.parseInt(value(cmd, "min", "1")),
+			         Integer.parseInt(value(cmd, "max", "20")))
+			.cycleDensity(Double.parseDouble(value(cmd, "c", "0.5")))
+			.clustering(Double.parseDouble(value(cmd, "k", "0.5")))
+			.lineLength(Integer.parseInt(value(cmd, "l", "10")))
+			.seed(Long.parseLong(value(cmd, "seed", "42")));
+
+		if (cmd.hasOption("o")) {
+			generator.write(new File(cmd.getOptionValue("o")));
+		} else {
+			generator.write(System.out);
+		}
+	}
+
+	private static String value(CommandLine cmd, String option, String defaultValue) {
+		return cmd.hasOption(option) ? cmd.getOptionValue(option) : defaultValue;
+	}
+}
@@ -0,0 +1,58 @@
+package traintracks.graph;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+public class AllPairsTest {
+
+	@Test
+	public void matchesBellmanFord() {
+		for (long seed = 0; seed < 10; seed++) {
+			TestNetwork network = TestNetwork.random(seed, 30, 90, 9);
+			network.graph.computeAllPairs();
+			checkAllPairs(network);
+		}
+	}
+
+	@Test
+	public void ownPool() {
+		ForkJoinPool pool = new ForkJoinPool(3);
+		try {
+			TestNetwork network = TestNetwork.random(11, 60, 200, 50);
+			network.graph.computeAllPairs(pool);
+			checkAllPairs(network);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void newEdgeAfterwards() {
+		TestNetwork network = TestNetwork.random(12, 20, 40, 9);
+		network.graph.computeAllPairs();
+		network.addEdge(0, 19, 1);
+		network.addEdge(19, 1, 1);
+		checkAllPairs(network);
+	}
+
+	static void checkAllPairs(TestNetwork network) {
+		for (int from = 0; from < network.nodes.length; from++) {
+			int[] expected = network.distancesFrom(from);
+			for (int to = 0; to < network.nodes.length; to++) {
+				Route route = network.graph.shortestPath(network.nodes[from], network.nodes[to]);
+				if (from == to || expected[to] == Integer.MAX_VALUE) {
+					assertNull(route);
+					assertEquals(-1, network.graph.shortestDistance(network.nodes[from], network.nodes[to]));
+					continue;
+				}
+				assertEquals(expected[to], network.graph.shortestDistance(network.nodes[from], network.nodes[to]));
+				assertEquals(expected[to], route.getDistance());
+				assertEquals(expected[to], network.lengthOf(from, route.getPath()));
+				assertSame(network.nodes[to], route.getPath().get(route.getPath().size() - 1));
+			}
+		}
+	}
+}
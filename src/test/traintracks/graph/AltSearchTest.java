@@ -0,0 +1,75 @@
+package traintracks.graph;
+
+import static org.junit.Assert.*;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class AltSearchTest {
+
+	@Test
+	public void matchesBellmanFord() {
+		for (long seed = 0; seed < 10; seed++) {
+			TestNetwork network = TestNetwork.random(seed, 30, 90, 9);
+			BidirectionalDijkstraTest.checkSearch(network, new AltSearch(Landmarks.select(network.graph.freeze(), 4)));
+		}
+	}
+
+	@Test
+	public void landmarkCounts() {
+		TestNetwork network = TestNetwork.random(31, 25, 70, 20);
+		for (int count : new int[] { 1, 2, 8, 100 }) {
+			BidirectionalDijkstraTest.checkSearch(network, new AltSearch(Landmarks.select(network.graph.freeze(), count)));
+		}
+	}
+
+	@Test
+	public void disconnectedGraph() {
+		// Few enough edges that lots of nodes can't reach each other, or the landmarks
+		TestNetwork network = TestNetwork.random(32, 40, 45, 9);
+		BidirectionalDijkstraTest.checkSearch(network, new AltSearch(Landmarks.select(network.graph.freeze(), 4)));
+	}
+
+	@Test
+	public void landmarksAreAllDifferent() {
+		// Two pieces, and a graph with as many nodes as landmarks, where picking the furthest node keeps landing
+		// on unreachable or already chosen ones
+		TestNetwork pieces = new TestNetwork(6);
+		pieces.addEdge(0, 1, 3);
+		pieces.addEdge(1, 0, 3);
+		pieces.addEdge(2, 3, 1);
+		pieces.addEdge(3, 4, 1);
+		pieces.addEdge(4, 5, 1);
+		pieces.addEdge(5, 2, 1);
+		for (TestNetwork network : new TestNetwork[] { pieces, TestNetwork.random(34, 40, 45, 9) }) {
+			int nodeCount = network.graph.freeze().getNodeCount();
+			for (int count : new int[] { 2, 4, nodeCount }) {
+				Landmarks landmarks = Landmarks.select(network.graph.freeze(), count);
+				Set<Integer> picked = new HashSet<Integer>();
+				for (int i = 0; i < landmarks.getCount(); i++) {
+					assertTrue(picked.add(landmarks.getLandmark(i)));
+				}
+				assertEquals(Math.min(count, nodeCount), picked.size());
+				BidirectionalDijkstraTest.checkSearch(network, new AltSearch(landmarks));
+			}
+		}
+	}
+
+	@Test
+	public void shortestPathUsesThem() {
+		TestNetwork network = TestNetwork.random(33, 30, 90, 9);
+		network.graph.prepareLandmarks(4);
+		BidirectionalDijkstraTest.checkShortestPaths(network);
+		
+		// Thrown away when an edge comes in
+		network.addEdge(0, 29, 1);
+		BidirectionalDijkstraTest.checkShortestPaths(network);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void noLandmarks() {
+		TestNetwork.example().graph.prepareLandmarks(0);
+	}
+}
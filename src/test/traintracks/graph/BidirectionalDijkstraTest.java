@@ -0,0 +1,106 @@
+package traintracks.graph;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class BidirectionalDijkstraTest {
+
+	@Test
+	public void matchesBellmanFord() {
+		for (long seed = 0; seed < 10; seed++) {
+			TestNetwork network = TestNetwork.random(seed, 30, 90, 9);
+			checkSearch(network, new BidirectionalDijkstra(network.graph.freeze()));
+		}
+	}
+
+	@Test
+	public void equalWeights() {
+		// Lots of ties, where meeting in the middle is easiest to get wrong
+		TestNetwork network = TestNetwork.random(21, 40, 100, 1);
+		checkSearch(network, new BidirectionalDijkstra(network.graph.freeze()));
+	}
+
+	@Test
+	public void shortestPathUsesIt() {
+		for (long seed = 0; seed < 5; seed++) {
+			checkShortestPaths(TestNetwork.random(seed, 30, 90, 9));
+		}
+	}
+
+	@Test
+	public void pooledSearchesFollowTheGraph() {
+		// The searches shortestPath reuses were made for the graph as it was, then for landmarks, then a hierarchy
+		TestNetwork network = TestNetwork.random(22, 30, 90, 9);
+		checkShortestPaths(network);
+		network.addEdge(0, 29, 1);
+		checkShortestPaths(network);
+		network.graph.prepareLandmarks(4);
+		checkShortestPaths(network);
+		network.addEdge(29, 1, 1);
+		checkShortestPaths(network);
+		network.graph.prepareContractionHierarchy();
+		checkShortestPaths(network);
+		network.addEdge(1, 28, 1);
+		checkShortestPaths(network);
+	}
+
+	/**
+	 * Runs one search object over every pair of nodes in turn, so scratch space left over from one search
+	 * has to be cleaned up for the next.
+	 */
+	static void checkSearch(TestNetwork network, PointToPointSearch search) {
+		CompactGraph graph = search.getGraph();
+		for (int source = 0; source < graph.getNodeCount(); source++) {
+			int from = network.idOf(graph.getNode(source));
+			int[] expected = network.distancesFrom(from);
+			for (int target = 0; target < graph.getNodeCount(); target++) {
+				if (target == source) {
+					continue;
+				}
+				int to = network.idOf(graph.getNode(target));
+				int distance = search.search(source, target);
+				if (expected[to] == Integer.MAX_VALUE) {
+					assertEquals(-1, distance);
+					assertNull(search.getPath());
+					continue;
+				}
+				assertEquals(expected[to], distance);
+				assertEquals(expected[to], search.getDistance());
+				
+				List<Node> path = new ArrayList<Node>();
+				for (int node : search.getPath()) {
+					path.add(graph.getNode(node));
+				}
+				assertEquals(target, search.getPath()[search.getPath().length - 1]);
+				assertEquals(expected[to], network.lengthOf(from, path));
+				assertTrue(search.getSettledCount() > 0);
+			}
+		}
+	}
+
+	/**
+	 * Graph.shortestPath and shortestDistance between every pair of nodes, whichever way they get answered.
+	 */
+	static void checkShortestPaths(TestNetwork network) {
+		for (int from = 0; from < network.nodes.length; from++) {
+			int[] expected = network.distancesFrom(from);
+			for (int to = 0; to < network.nodes.length; to++) {
+				Route route = network.graph.shortestPath(network.nodes[from], network.nodes[to]);
+				int distance = network.graph.shortestDistance(network.nodes[from], network.nodes[to]);
+				if (from == to || expected[to] == Integer.MAX_VALUE) {
+					assertNull(route);
+					assertEquals(-1, distance);
+					continue;
+				}
+				assertEquals(expected[to], distance);
+				assertEquals(expected[to], route.getDistance());
+				assertEquals(expected[to], network.lengthOf(from, route.getPath()));
+				assertSame(network.nodes[to], route.getPath().get(route.getPath().size() - 1));
+			}
+		}
+	}
+}
@@ -0,0 +1,172 @@
+package traintracks.graph;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+public class ConcurrencyTest {
+
+	@Test
+	public void writersAndReadersTogether() throws InterruptedException {
+		final TestNetwork network = TestNetwork.random(20, 40, 60, 20);
+		final Graph graph = network.graph;
+
+		// Edges that aren't in the graph yet, split between the writers
+		Random random = new Random(20);
+		final List<int[]> newEdges = new ArrayList<int[]>();
+		boolean[][] taken = new boolean[40][40];
+		while (newEdges.size() < 200) {
+			int source = random.nextInt(40);
+			int dest = random.nextInt(40);
+			if (source != dest && network.weights[source][dest] == TestNetwork.NO_EDGE && !taken[source][dest]) {
+				taken[source][dest] = true;
+				newEdges.add(new int[] { source, dest, 1 + random.nextInt(20) });
+			}
+		}
+
+		final AtomicBoolean writing = new AtomicBoolean(true);
+		final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+
+		// What the readers saw: source, then the route they were given. Checked against the graph once it's done
+		final List<Object[]> seen = Collections.synchronizedList(new ArrayList<Object[]>());
+
+		List<Thread> writers = new ArrayList<Thread>();
+		for (int w = 0; w < 2; w++) {
+			final int first = w;
+			writers.add(new Thread() {
+				@Override
+				public void run() {
+					try {
+						for (int i = first; i < newEdges.size(); i += 2) {
+							int[] edge = newEdges.get(i);
+							graph.addEdge(network.nodes[edge[0]], network.nodes[edge[1]], edge[2]);
+						}
+					} catch (Throwable t) {
+						failures.add(t);
+					}
+				}
+			});
+		}
+
+		List<Thread> readers = new ArrayList<Thread>();
+		for (int r = 0; r < 4; r++) {
+			final Random readerRandom = new Random(r);
+			final int kind = r;
+			readers.add(new Thread() {
+				@Override
+				public void run() {
+					try {
+						while (writing.get()) {
+							int from = readerRandom.nextInt(40);
+							int to = readerRandom.nextInt(40);
+							if (kind % 2 == 0) {
+								Route route = graph.shortestPath(network.nodes[from], network.nodes[to]);
+								if (route != null) {
+									seen.add(new Object[] { from, route });
+								}
+							} else {
+								Map<Node, Route> routes = graph.computeShortestRoutes(network.nodes[from]);
+								Route route = routes.get(network.nodes[to]);
+								if (route != null) {
+									seen.add(new Object[] { from, route });
+								}
+							}
+						}
+					} catch (Throwable t) {
+						failures.add(t);
+					}
+				}
+			});
+		}
+
+		for (Thread reader : readers) {
+			reader.start();
+		}
+		for (Thread writer : writers) {
+			writer.start();
+		}
+		for (Thread writer : writers) {
+			writer.join();
+		}
+		writing.set(false);
+		for (Thread reader : readers) {
+			reader.join();
+		}
+		assertEquals(Collections.emptyList(), failures);
+
+		for (int[] edge : newEdges) {
+			network.weights[edge[0]][edge[1]] = edge[2];
+		}
+
+		// Every route handed out was a real one, and no shorter than the graph allows now that it has every edge
+		for (Object[] entry : seen) {
+			int from = (Integer) entry[0];
+			Route route = (Route) entry[1];
+			Node last = route.getPath().get(route.getPath().size() - 1);
+			assertEquals(route.getDistance(), network.lengthOf(from, route.getPath()));
+			assertTrue(route.getDistance() >= network.distancesFrom(from)[network.idOf(last)]);
+		}
+
+		// And once the writers are done, every answer is Bellman-Ford's
+		BidirectionalDijkstraTest.checkShortestPaths(network);
+		for (int from = 0; from < 40; from++) {
+			ShortestRoutesTest.checkRoutes(network, from, graph.computeShortestRoutes(network.nodes[from]));
+		}
+	}
+
+	@Test
+	public void allPairsFromBeforeAnEdgeAreDropped() throws InterruptedException {
+		final TestNetwork network = TestNetwork.example();
+		final ForkJoinPool pool = new ForkJoinPool(1);
+		final CountDownLatch busy = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		try {
+			// Keeps the pool's only worker busy, so the matrix is held up until the edge is in
+			pool.execute(new Runnable() {
+				@Override
+				public void run() {
+					busy.countDown();
+					try {
+						release.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			});
+			busy.await();
+
+			Thread computing = new Thread() {
+				@Override
+				public void run() {
+					network.graph.computeAllPairs(pool);
+				}
+			};
+			computing.start();
+
+			// Queued behind the busy worker, which means the snapshot has been taken
+			while (pool.getQueuedSubmissionCount() == 0) {
+				Thread.sleep(1);
+			}
+
+			// The matrix is worked out on the snapshot from before this
+			network.addEdge(0, 2, 1);
+			release.countDown();
+			computing.join();
+
+			assertEquals(1, network.graph.shortestDistance(network.nodes[0], network.nodes[2]));
+			AllPairsTest.checkAllPairs(network);
+		} finally {
+			release.countDown();
+			pool.shutdown();
+		}
+	}
+}
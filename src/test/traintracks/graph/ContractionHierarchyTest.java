@@ -0,0 +1,107 @@
+package traintracks.graph;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+public class ContractionHierarchyTest {
+
+	@Test
+	public void matchesBellmanFord() {
+		for (long seed = 0; seed < 10; seed++) {
+			TestNetwork network = TestNetwork.random(seed, 30, 90, 9);
+			BidirectionalDijkstraTest.checkSearch(network, ContractionHierarchy.build(network.graph.freeze()).newQuery());
+		}
+	}
+
+	@Test
+	public void equalWeights() {
+		TestNetwork network = TestNetwork.random(41, 40, 100, 1);
+		BidirectionalDijkstraTest.checkSearch(network, ContractionHierarchy.build(network.graph.freeze()).newQuery());
+	}
+
+	@Test
+	public void disconnectedGraph() {
+		TestNetwork network = TestNetwork.random(42, 40, 45, 9);
+		BidirectionalDijkstraTest.checkSearch(network, ContractionHierarchy.build(network.graph.freeze()).newQuery());
+	}
+
+	@Test
+	public void ownPool() {
+		TestNetwork network = TestNetwork.random(43, 60, 200, 20);
+		ForkJoinPool pool = new ForkJoinPool(2);
+		try {
+			BidirectionalDijkstraTest.checkSearch(network, ContractionHierarchy.build(network.graph.freeze(), pool).newQuery());
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void queryByNode() {
+		TestNetwork network = TestNetwork.example();
+		ContractionHierarchy.Query query = ContractionHierarchy.build(network.graph.freeze()).newQuery();
+		Node a = network.nodes[0];
+		Node c = network.nodes[2];
+		
+		assertEquals(9, query.distance(a, c));
+		Route route = query.route(a, c);
+		assertEquals(9, route.getDistance());
+		assertEquals(9, network.lengthOf(0, route.getPath()));
+		assertEquals(-1, query.distance(a, a));
+		assertEquals(-1, query.distance(c, a));
+		assertNull(query.route(c, a));
+	}
+
+	@Test
+	public void shortestPathUsesIt() {
+		TestNetwork network = TestNetwork.random(44, 30, 90, 9);
+		network.graph.prepareContractionHierarchy();
+		BidirectionalDijkstraTest.checkShortestPaths(network);
+		
+		// Thrown away when an edge comes in
+		network.addEdge(0, 29, 1);
+		BidirectionalDijkstraTest.checkShortestPaths(network);
+	}
+
+	@Test
+	public void roundTrip() throws IOException {
+		TestNetwork network = TestNetwork.random(45, 40, 120, 9);
+		ContractionHierarchy built = ContractionHierarchy.build(network.graph.freeze());
+		File file = File.createTempFile("hierarchy", ".ch");
+		try {
+			built.writeTo(file);
+			ContractionHierarchy read = ContractionHierarchy.readFrom(file, network.graph.freeze());
+			
+			assertEquals(built.getShortcutCount(), read.getShortcutCount());
+			BidirectionalDijkstraTest.checkSearch(network, read.newQuery());
+			network.graph.useContractionHierarchy(read);
+			BidirectionalDijkstraTest.checkShortestPaths(network);
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void readForAnotherGraph() throws IOException {
+		File file = File.createTempFile("hierarchy", ".ch");
+		try {
+			ContractionHierarchy.build(TestNetwork.random(46, 20, 60, 9).graph.freeze()).writeTo(file);
+			ContractionHierarchy.readFrom(file, TestNetwork.random(47, 20, 60, 9).graph.freeze());
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void useForAnotherSnapshot() {
+		TestNetwork network = TestNetwork.example();
+		ContractionHierarchy built = ContractionHierarchy.build(network.graph.freeze());
+		network.addEdge(2, 0, 1);
+		network.graph.useContractionHierarchy(built);
+	}
+}
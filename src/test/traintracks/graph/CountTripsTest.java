@@ -0,0 +1,54 @@
+package traintracks.graph;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class CountTripsTest {
+
+	@Test
+	public void exampleGraph() {
+		TestNetwork network = TestNetwork.example();
+		Node a = network.nodes[0];
+		Node c = network.nodes[2];
+		
+		assertEquals(2, network.graph.countTrips(c, c, 1, 3));
+		assertEquals(3, network.graph.countTrips(a, c, 4, 4));
+	}
+
+	@Test
+	public void matchesWalkingEveryTrip() {
+		for (long seed = 0; seed < 10; seed++) {
+			TestNetwork network = TestNetwork.random(seed, 8, 20, 9);
+			for (int from = 0; from < network.nodes.length; from++) {
+				for (int to = 0; to < network.nodes.length; to++) {
+					for (int minStops = 1; minStops <= 6; minStops += 2) {
+						for (int maxStops = minStops; maxStops <= 7; maxStops += 3) {
+							assertEquals(network.countWalks(from, to, minStops, maxStops),
+									network.graph.countTrips(network.nodes[from], network.nodes[to], minStops, maxStops));
+						}
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void unknownNode() {
+		TestNetwork network = TestNetwork.example();
+		
+		assertEquals(0, network.graph.countTrips(network.nodes[0], new Node("Z"), 1, 10));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void noStops() {
+		TestNetwork network = TestNetwork.example();
+		network.graph.countTrips(network.nodes[0], network.nodes[2], 0, 3);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void maxBelowMin() {
+		TestNetwork network = TestNetwork.example();
+		network.graph.countTrips(network.nodes[0], network.nodes[2], 4, 3);
+	}
+}
@@ -0,0 +1,153 @@
+package traintracks.graph;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class GraphSnapshotTest {
+
+	private File file;
+
+	@Before
+	public void createFile() throws IOException {
+		file = File.createTempFile("graph", ".snapshot");
+	}
+
+	@After
+	public void deleteFile() {
+		file.delete();
+	}
+
+	@Test
+	public void roundTrip() throws IOException {
+		TestNetwork network = TestNetwork.random(8, 40, 150, 30);
+		network.graph.save(file);
+		assertTrue(CompactGraph.isSnapshot(file));
+		
+		Graph loaded = Graph.load(file);
+		CompactGraph snapshot = loaded.freeze();
+		int edges = 0;
+		for (int node = 0; node < snapshot.getNodeCount(); node++) {
+			int from = idOf(snapshot.getNode(node));
+			for (int edge = snapshot.getFirstEdge(node); edge < snapshot.getEndEdge(node); edge++) {
+				int to = idOf(snapshot.getNode(snapshot.getEdgeTarget(edge)));
+				assertEquals(network.weights[from][to], snapshot.getEdgeWeight(edge));
+				edges++;
+			}
+		}
+		assertEquals(network.graph.freeze().getEdgeCount(), edges);
+		assertEquals(network.graph.freeze().getNodeCount(), snapshot.getNodeCount());
+		
+		for (int from = 0; from < network.nodes.length; from++) {
+			Node source = loaded.getNodeByName("N" + from);
+			if (source == null) {
+				continue;
+			}
+			int[] expected = network.distancesFrom(from);
+			for (int to = 0; to < network.nodes.length; to++) {
+				Node dest = loaded.getNodeByName("N" + to);
+				if (dest != null && to != from && expected[to] != Integer.MAX_VALUE) {
+					assertEquals(expected[to], loaded.shortestDistance(source, dest));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void loadedGraphTakesNewEdges() throws IOException {
+		TestNetwork.example().graph.save(file);
+		Graph loaded = Graph.load(file);
+		Node a = loaded.getNodeByName("A");
+		Node c = loaded.getNodeByName("C");
+		
+		assertEquals(9, loaded.shortestDistance(a, c));
+		loaded.addEdge(a, c, 2);
+		assertEquals(2, loaded.shortestDistance(a, c));
+		loaded.addEdge(a, c, 1);
+		assertEquals(2, loaded.shortestDistance(a, c));
+	}
+
+	@Test
+	public void extendedSnapshotsMatchRebuiltOnes() {
+		Random random = new Random(10);
+		TestNetwork network = TestNetwork.random(10, 60, 80, 20);
+		
+		// Some nodes only come in with the edges added after the first snapshot
+		for (int i = 0; i < 200; i++) {
+			network.graph.freeze();
+			for (int j = random.nextInt(4); j >= 0; j--) {
+				network.addEdge(random.nextInt(60), random.nextInt(60), 1 + random.nextInt(20));
+			}
+			
+			CompactGraph extended = network.graph.freeze();
+			List<Node> nodes = network.graph.getNodeList();
+			Map<Node, Integer> index = new HashMap<Node, Integer>();
+			for (int node = 0; node < nodes.size(); node++) {
+				index.put(nodes.get(node), node);
+			}
+			CompactGraph rebuilt = new CompactGraph(nodes, index);
+			assertEquals(rebuilt.getNodeCount(), extended.getNodeCount());
+			assertEquals(rebuilt.getEdgeCount(), extended.getEdgeCount());
+			for (int node = 0; node < rebuilt.getNodeCount(); node++) {
+				assertSame(rebuilt.getNode(node), extended.getNode(node));
+				assertEquals(rebuilt.getFirstEdge(node), extended.getFirstEdge(node));
+				assertEquals(rebuilt.getEndEdge(node), extended.getEndEdge(node));
+			}
+			for (int edge = 0; edge < rebuilt.getEdgeCount(); edge++) {
+				assertEquals(rebuilt.getEdgeTarget(edge), extended.getEdgeTarget(edge));
+				assertEquals(rebuilt.getEdgeWeight(edge), extended.getEdgeWeight(edge));
+			}
+		}
+	}
+
+	@Test
+	public void textIsNotASnapshot() throws IOException {
+		write("TTGS:York:5, York:Leeds:3");
+		assertFalse(CompactGraph.isSnapshot(file));
+		write("AB5");
+		assertFalse(CompactGraph.isSnapshot(file));
+	}
+
+	@Test(expected = IOException.class)
+	public void truncatedSnapshot() throws IOException {
+		TestNetwork.random(9, 20, 60, 9).graph.save(file);
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(raf.length() - 10);
+		} finally {
+			raf.close();
+		}
+		Graph.load(file);
+	}
+
+	@Test(expected = IOException.class)
+	public void textDoesNotLoad() throws IOException {
+		write("AB5, BC4, CD8, DC8, DE6, AD5, CE2, EB3, AE7");
+		Graph.load(file);
+	}
+
+	private static int idOf(Node node) {
+		return Integer.parseInt(node.getLabel().substring(1));
+	}
+
+	private void write(String contents) throws IOException {
+		OutputStream out = new FileOutputStream(file);
+		try {
+			out.write(contents.getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,91 @@
+package traintracks.graph;
+
+import static org.junit.Assert.*;
+
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class IncrementalRoutesTest {
+
+	@Test
+	public void cachedTreesFollowNewEdges() {
+		Random random = new Random(4);
+		TestNetwork network = TestNetwork.random(4, 25, 30, 20);
+		Graph graph = network.graph;
+		
+		// Held on to from before the edges come in
+		Map<Node, Route> before = graph.computeShortestRoutes(network.nodes[0]);
+		int reachableBefore = before.size();
+		
+		for (int source = 0; source < network.nodes.length; source++) {
+			graph.computeShortestRoutes(network.nodes[source]);
+		}
+		
+		for (int i = 0; i < 60; i++) {
+			int source = random.nextInt(network.nodes.length);
+			int dest = random.nextInt(network.nodes.length);
+			if (source == dest) {
+				continue;
+			}
+			int nodesBefore = graph.freeze().getNodeCount();
+			network.addEdge(source, dest, 1 + random.nextInt(20));
+			
+			// The trees of every node in the graph before this edge are still cached, so these are the patched ones
+			assertEquals(nodesBefore, graph.getShortestPathTreeCache().size());
+			for (int from = 0; from < network.nodes.length; from++) {
+				ShortestRoutesTest.checkRoutes(network, from, graph.computeShortestRoutes(network.nodes[from]));
+				int[] expected = network.distancesFrom(from);
+				for (int to = 0; to < network.nodes.length; to++) {
+					int distance = from == to || expected[to] == Integer.MAX_VALUE ? -1 : expected[to];
+					assertEquals(distance, graph.shortestDistance(network.nodes[from], network.nodes[to]));
+				}
+			}
+		}
+		
+		// A map handed out earlier answers for the graph as it was
+		assertEquals(reachableBefore, before.size());
+	}
+
+	@Test
+	public void newNodesJoinCachedTrees() {
+		TestNetwork network = TestNetwork.example();
+		Graph graph = network.graph;
+		graph.computeShortestRoutes(network.nodes[0]);
+		
+		Node f = new Node("F");
+		graph.addEdge(network.nodes[4], f, 1);
+		
+		Route route = graph.computeShortestRoutes(network.nodes[0]).get(f);
+		assertEquals(8, route.getDistance());
+		assertSame(f, route.getPath().get(route.getPath().size() - 1));
+		assertEquals(8, graph.shortestDistance(network.nodes[0], f));
+	}
+
+	@Test
+	public void shortcutsFoldIntoTheTrees() {
+		// A long line, then shortcuts from the start that move more and more of it closer: first a few changed
+		// entries patched over the tree, then enough of them that they get folded back into its arrays
+		TestNetwork network = new TestNetwork(400);
+		for (int i = 0; i < 399; i++) {
+			network.addEdge(i, i + 1, 10);
+		}
+		Graph graph = network.graph;
+		ShortestPathTree before = graph.shortestPathTree(network.nodes[0]);
+		
+		for (int to = 390; to > 0; to -= 30) {
+			network.addEdge(0, to, 1);
+			ShortestPathTree tree = graph.shortestPathTree(network.nodes[0]);
+			assertNotSame(before, tree);
+			ShortestRoutesTest.checkRoutes(network, 0, tree.getRoutes());
+			int[] expected = network.distancesFrom(0);
+			for (int node = 0; node < 400; node++) {
+				assertEquals(expected[node], tree.getDistance(network.nodes[node]));
+			}
+		}
+		
+		// The tree from before the shortcuts is as it was
+		assertEquals(3990, before.getDistance(network.nodes[399]));
+	}
+}
@@ -0,0 +1,62 @@
+package traintracks.graph;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class IndexedMinHeapTest {
+
+	@Test
+	public void pollsInKeyOrder() {
+		Random random = new Random(1);
+		int capacity = 200;
+		IndexedMinHeap heap = new IndexedMinHeap(capacity);
+		
+		// The smallest key each id was offered, the way decrease-key should keep it
+		int[] expected = new int[capacity];
+		Arrays.fill(expected, Integer.MAX_VALUE);
+		for (int i = 0; i < 1000; i++) {
+			int id = random.nextInt(capacity);
+			int key = random.nextInt(10000);
+			assertEquals(key < expected[id], heap.offer(id, key));
+			expected[id] = Math.min(expected[id], key);
+		}
+		
+		int polled = 0;
+		int lastKey = Integer.MIN_VALUE;
+		while (!heap.isEmpty()) {
+			int key = heap.peekKey();
+			int id = heap.poll();
+			assertEquals(expected[id], key);
+			assertEquals(key, heap.keyOf(id));
+			assertFalse(heap.contains(id));
+			assertTrue(key >= lastKey);
+			lastKey = key;
+			polled++;
+		}
+		
+		int offered = 0;
+		for (int key : expected) {
+			if (key != Integer.MAX_VALUE) {
+				offered++;
+			}
+		}
+		assertEquals(offered, polled);
+	}
+
+	@Test
+	public void clearEmptiesTheHeap() {
+		IndexedMinHeap heap = new IndexedMinHeap(10);
+		heap.offer(3, 5);
+		heap.offer(7, 2);
+		heap.clear();
+		
+		assertTrue(heap.isEmpty());
+		assertFalse(heap.contains(3));
+		assertTrue(heap.offer(3, 9));
+		assertEquals(3, heap.poll());
+	}
+}
@@ -0,0 +1,92 @@
+package traintracks.graph;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class KShortestPathsTest {
+
+	@Test
+	public void exampleGraph() {
+		TestNetwork network = TestNetwork.example();
+		Iterator<Route> routes = network.graph.kShortestPaths(network.nodes[0], network.nodes[2]);
+		
+		// A-B-C, A-D-C, A-E-B-C, A-D-E-B-C
+		assertEquals(9, routes.next().getDistance());
+		assertEquals(13, routes.next().getDistance());
+		assertEquals(14, routes.next().getDistance());
+		assertEquals(18, routes.next().getDistance());
+		assertFalse(routes.hasNext());
+	}
+
+	@Test
+	public void matchesTryingEveryRoute() {
+		for (long seed = 0; seed < 10; seed++) {
+			TestNetwork network = TestNetwork.random(seed, 10, 30, 9);
+			for (int from = 0; from < network.nodes.length; from++) {
+				for (int to = 0; to < network.nodes.length; to++) {
+					if (from != to) {
+						checkRoutes(network, from, to);
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void equalWeights() {
+		// Lots of routes of the same length, which must still all come out once
+		TestNetwork network = TestNetwork.random(51, 9, 40, 1);
+		for (int to = 1; to < network.nodes.length; to++) {
+			checkRoutes(network, 0, to);
+		}
+	}
+
+	@Test
+	public void noRoutes() {
+		TestNetwork network = TestNetwork.example();
+		
+		assertFalse(network.graph.kShortestPaths(network.nodes[2], network.nodes[0]).hasNext());
+		assertFalse(network.graph.kShortestPaths(network.nodes[0], network.nodes[0]).hasNext());
+		assertFalse(network.graph.kShortestPaths(network.nodes[0], new Node("Z")).hasNext());
+	}
+
+	@Test(expected = NoSuchElementException.class)
+	public void nextAfterTheLast() {
+		TestNetwork network = TestNetwork.example();
+		Iterator<Route> routes = network.graph.kShortestPaths(network.nodes[0], network.nodes[1]);
+		while (routes.hasNext()) {
+			routes.next();
+		}
+		routes.next();
+	}
+
+	// Every loopless route comes out exactly once, shortest first
+	private static void checkRoutes(TestNetwork network, int from, int to) {
+		List<Integer> expected = network.simplePathLengths(from, to);
+		Collections.sort(expected);
+		
+		List<Integer> distances = new ArrayList<Integer>();
+		Set<List<Node>> paths = new HashSet<List<Node>>();
+		Iterator<Route> routes = network.graph.kShortestPaths(network.nodes[from], network.nodes[to]);
+		while (routes.hasNext()) {
+			Route route = routes.next();
+			List<Node> path = new ArrayList<Node>(route.getPath());
+			assertSame(network.nodes[from], path.get(0));
+			assertSame(network.nodes[to], path.get(path.size() - 1));
+			assertEquals(path.size(), new HashSet<Node>(path).size());
+			assertEquals(route.getDistance(), network.lengthOf(from, path.subList(1, path.size())));
+			assertTrue(paths.add(path));
+			distances.add(route.getDistance());
+		}
+		assertEquals(expected, distances);
+	}
+}
@@ -0,0 +1,68 @@
+package traintracks.graph;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+public class ParallelPathsTest {
+
+	@Test
+	public void matchesTheSequentialWalk() {
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			for (long seed = 0; seed < 5; seed++) {
+				TestNetwork network = TestNetwork.random(seed, 10, 35, 9);
+				for (int from = 0; from < network.nodes.length; from++) {
+					checkParallel(network, from, new PathQuery(), pool);
+					checkParallel(network, from, new PathQuery().maxHops(4), pool);
+					checkParallel(network, from, new PathQuery().maxDistance(25), pool);
+					checkParallel(network, from, new PathQuery().to(network.nodes[(from + 3) % network.nodes.length]), pool);
+				}
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void sharedPool() {
+		// Big enough for the walk to be split up a long way down
+		TestNetwork network = TestNetwork.random(71, 12, 60, 9);
+		PathQuery query = new PathQuery().maxHops(8);
+		
+		assertEquals(sequential(network, 0, query).size(), network.graph.countPaths(network.nodes[0], query));
+	}
+
+	@Test
+	public void unknownNodes() {
+		TestNetwork network = TestNetwork.example();
+		
+		assertEquals(0, network.graph.countPaths(new Node("Z"), new PathQuery()));
+		assertEquals(0, network.graph.countPaths(network.nodes[0], new PathQuery().to(new Node("Z"))));
+		assertTrue(network.graph.findPaths(new Node("Z"), new PathQuery(), SharedPool.get()).isEmpty());
+	}
+
+	// The same paths in the same order as the visitor walk, and as many as that counted
+	private static void checkParallel(TestNetwork network, int from, PathQuery query, ForkJoinPool pool) {
+		List<List<Node>> expected = sequential(network, from, query);
+		
+		assertEquals(expected, new ArrayList<List<Node>>(network.graph.findPaths(network.nodes[from], query, pool)));
+		assertEquals(expected.size(), network.graph.countPaths(network.nodes[from], query, pool));
+	}
+
+	private static List<List<Node>> sequential(TestNetwork network, int from, PathQuery query) {
+		final List<List<Node>> paths = new ArrayList<List<Node>>();
+		network.graph.findPaths(network.nodes[from], query, new PathVisitor() {
+			@Override
+			public boolean visit(List<Node> path, int distance) {
+				paths.add(new ArrayList<Node>(path));
+				return true;
+			}
+		});
+		return paths;
+	}
+}
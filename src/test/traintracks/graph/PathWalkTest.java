@@ -0,0 +1,102 @@
+package traintracks.graph;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class PathWalkTest {
+
+	@Test
+	public void matchesTryingEveryPath() {
+		for (long seed = 0; seed < 10; seed++) {
+			TestNetwork network = TestNetwork.random(seed, 8, 18, 9);
+			for (int from = 0; from < network.nodes.length; from++) {
+				checkWalk(network, from, Integer.MAX_VALUE, Integer.MAX_VALUE, -1);
+				checkWalk(network, from, 3, Integer.MAX_VALUE, -1);
+				checkWalk(network, from, Integer.MAX_VALUE, 15, -1);
+				checkWalk(network, from, 4, 20, (from + 1) % network.nodes.length);
+				checkWalk(network, from, Integer.MAX_VALUE, Integer.MAX_VALUE, from);
+				checkWalk(network, from, 0, Integer.MAX_VALUE, -1);
+			}
+		}
+	}
+
+	@Test
+	public void visitorStopsTheWalk() {
+		TestNetwork network = TestNetwork.example();
+		final int[] visits = new int[1];
+		boolean finished = network.graph.findPaths(network.nodes[0], new PathQuery(), new PathVisitor() {
+			@Override
+			public boolean visit(List<Node> path, int distance) {
+				return ++visits[0] < 5;
+			}
+		});
+		
+		assertFalse(finished);
+		assertEquals(5, visits[0]);
+	}
+
+	@Test
+	public void collectedPaths() {
+		TestNetwork network = TestNetwork.random(62, 8, 18, 9);
+		List<ArrayList<Node>> paths = network.graph.findPaths(network.nodes[0]);
+		Map<List<Node>, Integer> expected = network.paths(0, 9, Integer.MAX_VALUE, -1);
+		
+		// The path that's just the source comes first
+		assertEquals(1, paths.get(0).size());
+		assertSame(network.nodes[0], paths.get(0).get(0));
+		assertEquals(expected.keySet(), new HashSet<List<Node>>(paths.subList(1, paths.size())));
+		assertEquals(expected.size(), paths.size() - 1);
+	}
+
+	@Test
+	public void unknownNodes() {
+		TestNetwork network = TestNetwork.example();
+		PathVisitor fail = new PathVisitor() {
+			@Override
+			public boolean visit(List<Node> path, int distance) {
+				fail();
+				return true;
+			}
+		};
+		
+		assertTrue(network.graph.findPaths(new Node("Z"), new PathQuery(), fail));
+		assertTrue(network.graph.findPaths(network.nodes[0], new PathQuery().to(new Node("Z")), fail));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void negativeHops() {
+		new PathQuery().maxHops(-1);
+	}
+
+	/**
+	 * The walk visits every path the query allows exactly once, with its right distance.
+	 */
+	static void checkWalk(TestNetwork network, int from, int maxHops, int maxDistance, int to) {
+		final Map<List<Node>, Integer> visited = new HashMap<List<Node>, Integer>();
+		final int[] visits = new int[1];
+		boolean finished = network.graph.findPaths(network.nodes[from], query(network, maxHops, maxDistance, to), new PathVisitor() {
+			@Override
+			public boolean visit(List<Node> path, int distance) {
+				visited.put(new ArrayList<Node>(path), distance);
+				visits[0]++;
+				return true;
+			}
+		});
+		
+		assertTrue(finished);
+		assertEquals(network.paths(from, maxHops, maxDistance, to), visited);
+		assertEquals(visited.size(), visits[0]);
+	}
+
+	static PathQuery query(TestNetwork network, int maxHops, int maxDistance, int to) {
+		PathQuery query = new PathQuery().maxHops(maxHops).maxDistance(maxDistance);
+		return to == -1 ? query : query.to(network.nodes[to]);
+	}
+}
@@ -0,0 +1,87 @@
+package traintracks.graph;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+public class RouteDistancesTest {
+
+	@Test
+	public void exampleGraph() {
+		Graph graph = TestNetwork.example().graph;
+		String[][] itineraries = { { "A", "B", "C" }, { "A", "D" }, { "A", "D", "C" }, { "A", "E", "B", "C", "D" }, { "A", "E", "D" },
+				{ "A" }, { "A", "Z" } };
+		
+		assertArrayEquals(new int[] { 9, 5, 13, 22, -1, 0, -1 }, graph.routeDistances(itineraries));
+	}
+
+	@Test
+	public void matchesRoutesHopByHop() {
+		TestNetwork network = TestNetwork.random(12, 30, 120, 9);
+		
+		// More than one task's worth, so the batch is split over the shared pool
+		String[][] itineraries = itineraries(network, 5000);
+		int[] distances = network.graph.routeDistances(itineraries);
+		for (int i = 0; i < itineraries.length; i++) {
+			assertEquals(expected(network, itineraries[i]), distances[i]);
+			
+			Route route = network.graph.from(network.graph.getNodeByName(itineraries[i][0]));
+			for (int j = 1; j < itineraries[i].length; j++) {
+				route.to(network.graph.getNodeByName(itineraries[i][j]));
+			}
+			assertEquals(distances[i], route.getDistance());
+		}
+	}
+
+	@Test
+	public void ownPool() {
+		TestNetwork network = TestNetwork.random(13, 30, 120, 9);
+		String[][] itineraries = itineraries(network, 3000);
+		ForkJoinPool pool = new ForkJoinPool(2);
+		try {
+			assertArrayEquals(network.graph.routeDistances(itineraries), network.graph.routeDistances(itineraries, pool));
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	// Mostly walks along the edges, with the odd jump that makes the whole itinerary impossible
+	private static String[][] itineraries(TestNetwork network, int count) {
+		Random random = new Random(count);
+		String[][] itineraries = new String[count][];
+		for (int i = 0; i < count; i++) {
+			int[] stations = new int[1 + random.nextInt(6)];
+			stations[0] = random.nextInt(network.nodes.length);
+			for (int j = 1; j < stations.length; j++) {
+				stations[j] = random.nextInt(network.nodes.length);
+				for (int tries = 0; tries < 10 && random.nextInt(20) > 0 && network.weights[stations[j - 1]][stations[j]] == TestNetwork.NO_EDGE; tries++) {
+					stations[j] = random.nextInt(network.nodes.length);
+				}
+			}
+			itineraries[i] = new String[stations.length];
+			for (int j = 0; j < stations.length; j++) {
+				itineraries[i][j] = network.nodes[stations[j]].getLabel();
+			}
+		}
+		return itineraries;
+	}
+
+	private static int expected(TestNetwork network, String[] itinerary) {
+		int distance = 0;
+		for (int j = 1; j < itinerary.length; j++) {
+			int weight = network.weights[idOf(itinerary[j - 1])][idOf(itinerary[j])];
+			if (weight == TestNetwork.NO_EDGE) {
+				return -1;
+			}
+			distance += weight;
+		}
+		return distance;
+	}
+
+	private static int idOf(String label) {
+		return Integer.parseInt(label.substring(1));
+	}
+}
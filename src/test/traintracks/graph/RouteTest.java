@@ -0,0 +1,101 @@
+package traintracks.graph;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class RouteTest {
+
+	@Test
+	public void pathOfAShortestRoute() {
+		TestNetwork network = TestNetwork.example();
+		Node[] n = network.nodes;
+		Route route = network.graph.shortestPath(n[0], n[2]);
+
+		// A B C, with A left out of the path, which is kept as ids and looked up as it is read
+		List<Node> path = route.getPath();
+		assertEquals(Arrays.asList(n[1], n[2]), path);
+		assertEquals(2, path.size());
+		assertSame(n[2], path.get(1));
+		assertEquals(9, route.getDistance());
+		assertEquals(2, route.getHops());
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void pathIsBounded() {
+		TestNetwork network = TestNetwork.example();
+		network.graph.shortestPath(network.nodes[0], network.nodes[2]).getPath().get(2);
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void pathIsReadOnly() {
+		TestNetwork network = TestNetwork.example();
+		network.graph.shortestPath(network.nodes[0], network.nodes[2]).getPath().add(network.nodes[3]);
+	}
+
+	@Test
+	public void hopByHop() {
+		TestNetwork network = TestNetwork.example();
+		Node[] n = network.nodes;
+
+		Route route = network.graph.from(n[0]);
+		assertEquals(0, route.getDistance());
+		assertEquals(Arrays.asList(n[0]), route.getPath());
+
+		route.to(n[1]).to(n[2]);
+		assertEquals(9, route.getDistance());
+		assertEquals(2, route.getHops());
+		assertEquals(Arrays.asList(n[0], n[1], n[2]), route.getPath());
+
+		route.to(n[3]).to(n[4]);
+		assertEquals(23, route.getDistance());
+		assertEquals(Arrays.asList(n[0], n[1], n[2], n[3], n[4]), route.getPath());
+		assertEquals(23, route.calculateDistance());
+	}
+
+	@Test
+	public void noSuchRoute() {
+		TestNetwork network = TestNetwork.example();
+		Node[] n = network.nodes;
+
+		// There's no E -> D
+		Route route = network.graph.from(n[0]).to(n[4]).to(n[3]);
+		assertEquals(-1, route.getDistance());
+
+		// And once there's no route, going on doesn't make one
+		assertEquals(-1, route.to(n[2]).getDistance());
+
+		// Nor from or to a node the graph doesn't have
+		assertEquals(-1, network.graph.from(new Node("Z")).to(n[0]).getDistance());
+		assertEquals(-1, network.graph.from(n[0]).to(new Node("Z")).getDistance());
+	}
+
+	@Test
+	public void nodesAddedAfterTheRouteWasMade() {
+		TestNetwork network = TestNetwork.example();
+		Node[] n = network.nodes;
+		Route route = network.graph.from(n[0]).to(n[1]);
+
+		Node f = new Node("F");
+		network.graph.addEdge(n[1], f, 2);
+		route.to(f);
+		assertEquals(7, route.getDistance());
+		assertEquals(Arrays.asList(n[0], n[1], f), route.getPath());
+		assertEquals(7, route.calculateDistance());
+	}
+
+	@Test
+	public void routesMadeByHand() {
+		TestNetwork network = TestNetwork.example();
+		Node[] n = network.nodes;
+		Route route = new Route();
+		route.addHop(n[0]).addHop(n[1]).addHop(n[2]);
+
+		assertEquals(Arrays.asList(n[0], n[1], n[2]), route.getPath());
+		assertEquals(9, route.calculateDistance());
+		assertEquals(9, route.getDistance());
+	}
+}
@@ -0,0 +1,85 @@
+package traintracks.graph;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class RoutesUnderDistanceTest {
+
+	@Test
+	public void exampleGraph() {
+		TestNetwork network = TestNetwork.example();
+		Node c = network.nodes[2];
+		
+		assertEquals(7, network.graph.countRoutesUnderDistance(c, c, 30));
+	}
+
+	@Test
+	public void matchesWalkingEveryRoute() {
+		for (long seed = 0; seed < 10; seed++) {
+			TestNetwork network = TestNetwork.random(seed, 8, 20, 9);
+			for (int from = 0; from < network.nodes.length; from++) {
+				for (int to = 0; to < network.nodes.length; to++) {
+					for (int maxDistance = 1; maxDistance <= 30; maxDistance += 7) {
+						long expected = network.countWalksUnder(from, to, maxDistance);
+						assertEquals(expected, network.graph.countRoutesUnderDistance(network.nodes[from], network.nodes[to], maxDistance));
+						checkIterator(network, from, to, maxDistance, expected);
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void unknownNode() {
+		TestNetwork network = TestNetwork.example();
+		
+		assertEquals(0, network.graph.countRoutesUnderDistance(network.nodes[0], new Node("Z"), 30));
+		assertFalse(network.graph.routesUnderDistance(network.nodes[0], new Node("Z"), 30).hasNext());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void zeroWeightEdge() {
+		TestNetwork network = TestNetwork.example();
+		network.addEdge(1, 0, 0);
+		network.graph.countRoutesUnderDistance(network.nodes[0], network.nodes[2], 30);
+	}
+
+	@Test
+	public void zeroWeightEdgeOutOfReach() {
+		// F -> A weighs nothing, but nothing gets to F
+		TestNetwork network = TestNetwork.example();
+		Node f = new Node("F");
+		network.graph.addEdge(f, network.nodes[0], 0);
+		assertEquals(7, network.graph.countRoutesUnderDistance(network.nodes[2], network.nodes[2], 30));
+		checkIterator(network, 2, 2, 30, 7);
+		
+		// E is 7 from A, so routes under 7 never leave it
+		network.addEdge(4, 0, 0);
+		assertEquals(1, network.graph.countRoutesUnderDistance(network.nodes[0], network.nodes[1], 7));
+		checkIterator(network, 0, 1, 7, 1);
+	}
+
+	// The iterator hands out as many routes as were counted, all different, all real and all short enough
+	private static void checkIterator(TestNetwork network, int from, int to, int maxDistance, long expected) {
+		Set<List<Node>> paths = new HashSet<List<Node>>();
+		Iterator<Route> routes = network.graph.routesUnderDistance(network.nodes[from], network.nodes[to], maxDistance);
+		while (routes.hasNext()) {
+			Route route = routes.next();
+			List<Node> path = new ArrayList<Node>(route.getPath());
+			assertSame(network.nodes[from], path.get(0));
+			assertSame(network.nodes[to], path.get(path.size() - 1));
+			int distance = network.lengthOf(from, path.subList(1, path.size()));
+			assertEquals(distance, route.getDistance());
+			assertTrue(distance > 0 && distance < maxDistance);
+			assertTrue(paths.add(path));
+		}
+		assertEquals(expected, paths.size());
+	}
+}
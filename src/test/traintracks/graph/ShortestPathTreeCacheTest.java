@@ -0,0 +1,127 @@
+package traintracks.graph;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ShortestPathTreeCacheTest {
+
+	@Test
+	public void defaultCacheCounts() {
+		TestNetwork network = TestNetwork.random(81, 20, 60, 9);
+		Graph graph = network.graph;
+		ShortestPathTreeCache cache = graph.getShortestPathTreeCache();
+		
+		graph.computeShortestRoutes(network.nodes[0]);
+		graph.computeShortestRoutes(network.nodes[1]);
+		graph.computeShortestRoutes(network.nodes[0]);
+		
+		assertEquals(2, cache.size());
+		assertEquals(1, cache.getHitCount());
+		assertEquals(2, cache.getMissCount());
+		assertEquals(0, cache.getEvictionCount());
+		
+		graph.clearShortestRouteCache();
+		assertTrue(cache.isEmpty());
+	}
+
+	@Test
+	public void peekDoesNotCount() {
+		TestNetwork network = TestNetwork.random(82, 20, 60, 9);
+		LruShortestPathTreeCache cache = LruShortestPathTreeCache.withMaxEntries(10);
+		network.graph.setShortestPathTreeCache(cache);
+		network.graph.computeShortestRoutes(network.nodes[0]);
+		
+		assertNotNull(cache.peek(network.nodes[0]));
+		assertNull(cache.peek(network.nodes[1]));
+		network.graph.shortestDistance(network.nodes[0], network.nodes[5]);
+		network.graph.shortestPath(network.nodes[0], network.nodes[5]);
+		assertEquals(0, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+	}
+
+	@Test
+	public void leastRecentlyUsedGoesFirst() {
+		TestNetwork network = TestNetwork.random(83, 20, 60, 9);
+		LruShortestPathTreeCache cache = LruShortestPathTreeCache.withMaxEntries(3);
+		network.graph.setShortestPathTreeCache(cache);
+		Node[] nodes = network.nodes;
+		
+		network.graph.computeShortestRoutes(nodes[0]);
+		network.graph.computeShortestRoutes(nodes[1]);
+		network.graph.computeShortestRoutes(nodes[2]);
+		network.graph.computeShortestRoutes(nodes[0]);
+		network.graph.computeShortestRoutes(nodes[3]);
+		
+		assertEquals(3, cache.size());
+		assertEquals(1, cache.getEvictionCount());
+		assertNull(cache.peek(nodes[1]));
+		assertNotNull(cache.peek(nodes[0]));
+		assertNotNull(cache.peek(nodes[2]));
+		assertNotNull(cache.peek(nodes[3]));
+	}
+
+	@Test
+	public void peekedTreesAreUsed() {
+		TestNetwork network = TestNetwork.random(86, 20, 60, 9);
+		LruShortestPathTreeCache cache = LruShortestPathTreeCache.withMaxEntries(2);
+		network.graph.setShortestPathTreeCache(cache);
+		Node[] nodes = network.nodes;
+		
+		network.graph.computeShortestRoutes(nodes[0]);
+		network.graph.computeShortestRoutes(nodes[1]);
+		
+		// Answered from 0's tree, which makes 1's the oldest
+		network.graph.shortestDistance(nodes[0], nodes[5]);
+		network.graph.computeShortestRoutes(nodes[2]);
+		
+		assertNotNull(cache.peek(nodes[0]));
+		assertNull(cache.peek(nodes[1]));
+		assertNotNull(cache.peek(nodes[2]));
+		assertEquals(0, cache.getHitCount());
+	}
+
+	@Test
+	public void byteBudget() {
+		TestNetwork network = TestNetwork.random(84, 20, 60, 9);
+		long treeSize = network.graph.shortestPathTree(network.nodes[0]).getSizeInBytes();
+		LruShortestPathTreeCache cache = LruShortestPathTreeCache.withMaxBytes(2 * treeSize + 1);
+		network.graph.setShortestPathTreeCache(cache);
+		
+		for (int source = 0; source < 5; source++) {
+			network.graph.computeShortestRoutes(network.nodes[source]);
+		}
+		assertEquals(2, cache.size());
+		assertEquals(3, cache.getEvictionCount());
+		
+		// Nothing fits in a budget smaller than one tree
+		LruShortestPathTreeCache tiny = LruShortestPathTreeCache.withMaxBytes(treeSize - 1);
+		network.graph.setShortestPathTreeCache(tiny);
+		network.graph.computeShortestRoutes(network.nodes[0]);
+		assertTrue(tiny.isEmpty());
+	}
+
+	@Test
+	public void lruTreesFollowNewEdges() {
+		Random random = new Random(85);
+		TestNetwork network = TestNetwork.random(85, 20, 30, 20);
+		network.graph.setShortestPathTreeCache(LruShortestPathTreeCache.withMaxEntries(8));
+		for (int i = 0; i < 40; i++) {
+			int source = random.nextInt(network.nodes.length);
+			int dest = random.nextInt(network.nodes.length);
+			if (source != dest) {
+				network.addEdge(source, dest, 1 + random.nextInt(20));
+			}
+			for (int from = 0; from < network.nodes.length; from++) {
+				ShortestRoutesTest.checkRoutes(network, from, network.graph.computeShortestRoutes(network.nodes[from]));
+			}
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void noRoom() {
+		LruShortestPathTreeCache.withMaxEntries(0);
+	}
+}
@@ -0,0 +1,154 @@
+package traintracks.graph;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class ShortestRoutesTest {
+
+	@Test
+	public void exampleGraph() {
+		TestNetwork network = TestNetwork.example();
+		Map<Node, Route> routes = network.graph.computeShortestRoutes(network.nodes[0]);
+		
+		assertEquals(4, routes.size());
+		assertEquals(5, routes.get(network.nodes[1]).getDistance());
+		assertEquals(9, routes.get(network.nodes[2]).getDistance());
+		assertEquals(5, routes.get(network.nodes[3]).getDistance());
+		assertEquals(7, routes.get(network.nodes[4]).getDistance());
+	}
+
+	@Test
+	public void matchesBellmanFord() {
+		for (long seed = 0; seed < 20; seed++) {
+			TestNetwork network = TestNetwork.random(seed, 30, 90, 9);
+			for (int source = 0; source < network.nodes.length; source++) {
+				checkRoutes(network, source, network.graph.computeShortestRoutes(network.nodes[source]));
+			}
+		}
+	}
+
+	@Test
+	public void treeMatchesRoutes() {
+		TestNetwork network = TestNetwork.random(7, 40, 120, 20);
+		for (int source = 0; source < network.nodes.length; source++) {
+			ShortestPathTree tree = network.graph.shortestPathTree(network.nodes[source]);
+			int[] expected = network.distancesFrom(source);
+			
+			assertSame(network.nodes[source], tree.getSource());
+			assertEquals(0, tree.getDistance(network.nodes[source]));
+			assertNull(tree.routeTo(network.nodes[source]));
+			for (int dest = 0; dest < network.nodes.length; dest++) {
+				int distance = expected[dest] == Integer.MAX_VALUE ? -1 : expected[dest];
+				assertEquals(distance, tree.getDistance(network.nodes[dest]));
+			}
+			checkRoutes(network, source, tree.getRoutes());
+		}
+	}
+
+	@Test
+	public void cachedRoutesAreTheSame() {
+		TestNetwork network = TestNetwork.random(3, 20, 60, 9);
+		Node source = network.nodes[0];
+		Map<Node, Route> first = network.graph.computeShortestRoutes(source);
+		Map<Node, Route> second = network.graph.computeShortestRoutes(source);
+		
+		assertEquals(first.size(), second.size());
+		for (Map.Entry<Node, Route> entry : first.entrySet()) {
+			assertEquals(entry.getValue().getDistance(), second.get(entry.getKey()).getDistance());
+		}
+	}
+
+	@Test
+	public void unknownSource() {
+		TestNetwork network = TestNetwork.example();
+		
+		assertTrue(network.graph.computeShortestRoutes(new Node("Z")).isEmpty());
+		assertNull(network.graph.shortestPathTree(new Node("Z")));
+	}
+
+	@Test
+	public void routeMapLookups() {
+		// Nothing gets to F, and F goes nowhere
+		TestNetwork network = TestNetwork.example();
+		Node f = new Node("F");
+		network.graph.addEdge(f, network.nodes[0], 1);
+		Map<Node, Route> routes = network.graph.computeShortestRoutes(network.nodes[0]);
+		
+		for (Object key : new Object[] { network.nodes[0], f, new Node("Z"), "B", null }) {
+			assertNull(routes.get(key));
+			assertFalse(routes.containsKey(key));
+		}
+		assertTrue(routes.containsKey(network.nodes[1]));
+		assertEquals(5, routes.get(network.nodes[1]).getDistance());
+	}
+
+	@Test
+	public void routeMapMatchesAnEagerMap() {
+		for (long seed = 0; seed < 5; seed++) {
+			TestNetwork network = TestNetwork.random(seed, 30, 50, 9);
+			for (int source = 0; source < network.nodes.length; source++) {
+				checkAgainstEagerMap(network, source);
+			}
+			
+			// Again with edges patched into the cached trees
+			network.addEdge(0, 29, 1);
+			network.addEdge(29, 15, 1);
+			for (int source = 0; source < network.nodes.length; source++) {
+				checkAgainstEagerMap(network, source);
+			}
+		}
+	}
+
+	// Size, entrySet and a copy of the map all agree with a map filled in from Bellman-Ford
+	private static void checkAgainstEagerMap(TestNetwork network, int source) {
+		Map<Node, Route> routes = network.graph.computeShortestRoutes(network.nodes[source]);
+		int[] distances = network.distancesFrom(source);
+		Map<Node, Integer> expected = new HashMap<Node, Integer>();
+		for (int dest = 0; dest < network.nodes.length; dest++) {
+			if (dest != source && distances[dest] != Integer.MAX_VALUE) {
+				expected.put(network.nodes[dest], distances[dest]);
+			}
+		}
+		
+		assertEquals(expected.size(), routes.size());
+		assertEquals(expected.size(), routes.entrySet().size());
+		assertEquals(expected.isEmpty(), routes.isEmpty());
+		int entries = 0;
+		for (Map.Entry<Node, Route> entry : routes.entrySet()) {
+			assertEquals(expected.get(entry.getKey()), Integer.valueOf(entry.getValue().getDistance()));
+			entries++;
+		}
+		assertEquals(expected.size(), entries);
+		
+		Map<Node, Route> copy = new HashMap<Node, Route>(routes);
+		assertEquals(expected.keySet(), copy.keySet());
+		assertEquals(expected.keySet(), routes.keySet());
+	}
+
+	/**
+	 * Every reachable node other than the source has a route, of the shortest length, that really is a walk
+	 * through the graph ending at that node, and nothing else does.
+	 */
+	static void checkRoutes(TestNetwork network, int source, Map<Node, Route> routes) {
+		int[] expected = network.distancesFrom(source);
+		int reachable = 0;
+		for (int dest = 0; dest < network.nodes.length; dest++) {
+			Route route = routes.get(network.nodes[dest]);
+			if (dest == source || expected[dest] == Integer.MAX_VALUE) {
+				assertNull(route);
+				continue;
+			}
+			reachable++;
+			List<Node> path = route.getPath();
+			assertEquals(expected[dest], route.getDistance());
+			assertSame(network.nodes[dest], path.get(path.size() - 1));
+			assertEquals(expected[dest], network.lengthOf(source, path));
+		}
+		assertEquals(reachable, routes.size());
+	}
+}
@@ -0,0 +1,231 @@
+package traintracks.graph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * A small graph for the tests, with its edges also kept as a plain weight matrix, and the slow but plainly right
+ * answers worked out from that matrix to hold the graph's own answers up against.
+ */
+class TestNetwork {
+
+	static final int NO_EDGE = -1;
+
+	final Graph graph = new Graph();
+	final Node[] nodes;
+	final int[][] weights;
+
+	TestNetwork(int nodeCount) {
+		nodes = new Node[nodeCount];
+		weights = new int[nodeCount][nodeCount];
+		for (int i = 0; i < nodeCount; i++) {
+			nodes[i] = new Node("N" + i);
+			Arrays.fill(weights[i], NO_EDGE);
+		}
+	}
+
+	/**
+	 * The graph Main answers its questions about when it isn't given a file, with the nodes A to E as 0 to 4.
+	 */
+	static TestNetwork example() {
+		TestNetwork network = new TestNetwork(5);
+		for (int i = 0; i < 5; i++) {
+			network.nodes[i] = new Node(String.valueOf((char) ('A' + i)));
+		}
+		network.addEdge(0, 1, 5);
+		network.addEdge(1, 2, 4);
+		network.addEdge(2, 3, 8);
+		network.addEdge(3, 2, 8);
+		network.addEdge(3, 4, 6);
+		network.addEdge(0, 3, 5);
+		network.addEdge(2, 4, 2);
+		network.addEdge(4, 1, 3);
+		network.addEdge(0, 4, 7);
+		return network;
+	}
+
+	/**
+	 * @param seed
+	 * @param nodeCount
+	 * @param edgeCount How many edges to try for. Loops and repeats of an edge are skipped, so there can be fewer
+	 * @param maxWeight Weights are picked from 1 to this
+	 */
+	static TestNetwork random(long seed, int nodeCount, int edgeCount, int maxWeight) {
+		Random random = new Random(seed);
+		TestNetwork network = new TestNetwork(nodeCount);
+		for (int i = 0; i < edgeCount; i++) {
+			int source = random.nextInt(nodeCount);
+			int dest = random.nextInt(nodeCount);
+			if (source != dest && network.weights[source][dest] == NO_EDGE) {
+				network.addEdge(source, dest, 1 + random.nextInt(maxWeight));
+			}
+		}
+		return network;
+	}
+
+	void addEdge(int source, int dest, int weight) {
+		graph.addEdge(nodes[source], nodes[dest], weight);
+		if (weights[source][dest] == NO_EDGE) {
+			weights[source][dest] = weight;
+		}
+	}
+
+	int idOf(Node node) {
+		for (int i = 0; i < nodes.length; i++) {
+			if (nodes[i] == node) {
+				return i;
+			}
+		}
+		throw new IllegalArgumentException(node + " is not part of the network");
+	}
+
+	/**
+	 * Bellman-Ford over the matrix.
+	 *
+	 * @param source
+	 * @return The shortest distance to every node, Integer.MAX_VALUE for the ones that can't be reached
+	 */
+	int[] distancesFrom(int source) {
+		int[] distances = new int[nodes.length];
+		Arrays.fill(distances, Integer.MAX_VALUE);
+		distances[source] = 0;
+		for (int round = 1; round < nodes.length; round++) {
+			boolean changed = false;
+			for (int from = 0; from < nodes.length; from++) {
+				if (distances[from] == Integer.MAX_VALUE) {
+					continue;
+				}
+				for (int to = 0; to < nodes.length; to++) {
+					if (weights[from][to] != NO_EDGE && distances[from] + weights[from][to] < distances[to]) {
+						distances[to] = distances[from] + weights[from][to];
+						changed = true;
+					}
+				}
+			}
+			if (!changed) {
+				break;
+			}
+		}
+		return distances;
+	}
+
+	/**
+	 * @param source
+	 * @param path The nodes after source, the way routes hand them out
+	 * @return The length of the walk, or -1 if one of its hops isn't an edge
+	 */
+	int lengthOf(int source, List<Node> path) {
+		int length = 0;
+		int at = source;
+		for (Node node : path) {
+			int next = idOf(node);
+			if (weights[at][next] == NO_EDGE) {
+				return -1;
+			}
+			length += weights[at][next];
+			at = next;
+		}
+		return length;
+	}
+
+	/**
+	 * Counts by walking every trip of up to maxStops hops that starts at from, one at a time.
+	 */
+	long countWalks(int from, int to, int minStops, int maxStops) {
+		long count = 0;
+		for (int next = 0; next < nodes.length; next++) {
+			if (weights[from][next] != NO_EDGE && maxStops > 0) {
+				if (next == to && minStops <= 1) {
+					count++;
+				}
+				count += countWalks(next, to, minStops - 1, maxStops - 1);
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Counts by walking every trip shorter than maxDistance that starts at from, one at a time.
+	 */
+	long countWalksUnder(int from, int to, int maxDistance) {
+		long count = 0;
+		for (int next = 0; next < nodes.length; next++) {
+			if (weights[from][next] != NO_EDGE && weights[from][next] < maxDistance) {
+				if (next == to) {
+					count++;
+				}
+				count += countWalksUnder(next, to, maxDistance - weights[from][next]);
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Finds every route from one node to another that doesn't pass through any node twice, by trying them all.
+	 *
+	 * @return Their lengths, in no particular order
+	 */
+	List<Integer> simplePathLengths(int from, int to) {
+		List<Integer> lengths = new ArrayList<Integer>();
+		simplePathLengths(from, to, 0, new boolean[nodes.length], lengths);
+		return lengths;
+	}
+
+	private void simplePathLengths(int at, int to, int length, boolean[] onPath, List<Integer> lengths) {
+		onPath[at] = true;
+		for (int next = 0; next < nodes.length; next++) {
+			if (weights[at][next] != NO_EDGE && !onPath[next]) {
+				if (next == to) {
+					lengths.add(length + weights[at][next]);
+				} else {
+					simplePathLengths(next, to, length + weights[at][next], onPath, lengths);
+				}
+			}
+		}
+		onPath[at] = false;
+	}
+
+	/**
+	 * Every path a path walk from source should visit, found by trying them all: at least one hop, no more than
+	 * maxHops and maxDistance, ending at to (or anywhere if to is -1), and not going through any node twice except
+	 * that the last one can be a node already on the path.
+	 *
+	 * @return The distance of every path, by its nodes starting with from
+	 */
+	Map<List<Node>, Integer> paths(int from, int maxHops, int maxDistance, int to) {
+		Map<List<Node>, Integer> paths = new HashMap<List<Node>, Integer>();
+		List<Integer> path = new ArrayList<Integer>();
+		path.add(from);
+		paths(path, 0, maxHops, maxDistance, to, paths);
+		return paths;
+	}
+
+	private void paths(List<Integer> path, int distance, int maxHops, int maxDistance, int to, Map<List<Node>, Integer> paths) {
+		int at = path.get(path.size() - 1);
+		if (path.size() > maxHops) {
+			return;
+		}
+		for (int next = 0; next < nodes.length; next++) {
+			if (weights[at][next] == NO_EDGE || distance + weights[at][next] > maxDistance) {
+				continue;
+			}
+			boolean cycle = path.contains(next);
+			path.add(next);
+			if (to == -1 || next == to) {
+				List<Node> walked = new ArrayList<Node>();
+				for (int node : path) {
+					walked.add(nodes[node]);
+				}
+				paths.put(walked, distance + weights[at][next]);
+			}
+			if (!cycle) {
+				paths(path, distance + weights[at][next], maxHops, maxDistance, to, paths);
+			}
+			path.remove(path.size() - 1);
+		}
+	}
+}
@@ -0,0 +1,118 @@
+package traintracks.graph.metrics;
+
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+import traintracks.graph.Graph;
+import traintracks.graph.Node;
+import traintracks.graph.PathQuery;
+import traintracks.graph.metrics.MetricsSink.Operation;
+import traintracks.graph.parser.GraphParser;
+
+public class GraphMetricsTest {
+
+	private static final String EXAMPLE = "AB5, BC4, CD8, DC8, DE6, AD5, CE2, EB3, AE7";
+
+	@Test
+	public void parserHandsTheSinkOn() {
+		GraphMetrics metrics = new GraphMetrics();
+		Graph graph = new GraphParser(EXAMPLE).metrics(metrics).parse();
+		
+		assertSame(metrics, graph.getMetricsSink());
+		assertEquals(1, metrics.get(Operation.PARSE).getCount());
+		assertEquals(0, metrics.get(Operation.ADD_EDGE).getCount());
+	}
+
+	@Test
+	public void cachedRoutes() {
+		GraphMetrics metrics = new GraphMetrics();
+		Graph graph = new GraphParser(EXAMPLE).metrics(metrics).parse();
+		Node a = graph.getNodeByName("A");
+		graph.computeShortestRoutes(a);
+		graph.computeShortestRoutes(a);
+		graph.computeShortestRoutes(a);
+		
+		OperationMetrics routes = metrics.get(Operation.SHORTEST_ROUTES);
+		assertEquals(3, routes.getCount());
+		assertEquals(2, routes.getCacheHits());
+		assertEquals(1, routes.getCacheMisses());
+		assertEquals(5, routes.getNodesSettled());
+		assertTrue(routes.getEdgesRelaxed() > 0);
+		
+		// Answered from the tree that's there now
+		graph.shortestDistance(a, graph.getNodeByName("C"));
+		assertEquals(1, metrics.get(Operation.SHORTEST_DISTANCE).getCacheHits());
+		assertEquals(0, metrics.get(Operation.SHORTEST_DISTANCE).getCacheMisses());
+	}
+
+	@Test
+	public void uncacheableOperationsHaveNoMisses() {
+		GraphMetrics metrics = new GraphMetrics();
+		Graph graph = new GraphParser(EXAMPLE).metrics(metrics).parse();
+		graph.addEdge(graph.getNodeByName("B"), graph.getNodeByName("A"), 1);
+		graph.countPaths(graph.getNodeByName("A"), new PathQuery().maxHops(3));
+		
+		for (Operation operation : new Operation[] { Operation.ADD_EDGE, Operation.PARALLEL_PATHS, Operation.PARSE }) {
+			assertEquals(1, metrics.get(operation).getCount());
+			assertEquals(0, metrics.get(operation).getCacheHits());
+			assertEquals(0, metrics.get(operation).getCacheMisses());
+		}
+	}
+
+	@Test
+	public void failuresAreRecorded() {
+		GraphMetrics metrics = new GraphMetrics();
+		try {
+			new GraphParser("AB5, A5").metrics(metrics).parse();
+			fail();
+		} catch (RuntimeException e) {
+			// Expected
+		}
+		
+		assertEquals(1, metrics.get(Operation.PARSE).getCount());
+	}
+
+	@Test
+	public void reset() {
+		GraphMetrics metrics = new GraphMetrics();
+		Graph graph = new GraphParser(EXAMPLE).metrics(metrics).parse();
+		graph.computeShortestRoutes(graph.getNodeByName("A"));
+		metrics.reset();
+		
+		assertEquals(0, metrics.get(Operation.SHORTEST_ROUTES).getCount());
+		assertEquals(0, metrics.get(Operation.SHORTEST_ROUTES).getCacheMisses());
+		assertEquals(0, metrics.get(Operation.PARSE).getCount());
+	}
+
+	@Test
+	public void jmx() throws JMException {
+		GraphMetrics metrics = new GraphMetrics();
+		Graph graph = new GraphParser(EXAMPLE).metrics(metrics).parse();
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName("traintracks:type=GraphMetrics,name=" + ObjectName.quote("test, graph") + ",operation=shortest_routes");
+		
+		metrics.register("test, graph");
+		try {
+			graph.computeShortestRoutes(graph.getNodeByName("A"));
+			assertEquals(1L, server.getAttribute(name, "Count"));
+			
+			// Taken already
+			try {
+				new GraphMetrics().register("test, graph");
+				fail();
+			} catch (JMException e) {
+				// Expected
+			}
+		} finally {
+			metrics.unregister();
+		}
+		assertFalse(server.isRegistered(name));
+	}
+}
@@ -0,0 +1,132 @@
+package traintracks.graph.parser;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+import traintracks.graph.CompactGraph;
+import traintracks.graph.Graph;
+
+public class GraphParserTest {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	@Test
+	public void twoLetterFormat() {
+		Graph graph = new GraphParser("AB5, BC4, CD8, DC8, DE6, AD5, CE2, EB3, AE7").parse();
+		
+		assertEquals(edges("A:B:5", "B:C:4", "C:D:8", "D:C:8", "D:E:6", "A:D:5", "C:E:2", "E:B:3", "A:E:7"), edgesOf(graph));
+		assertEquals(9, graph.shortestDistance(graph.getNodeByName("A"), graph.getNodeByName("C")));
+	}
+
+	@Test
+	public void colonFormat() {
+		Graph graph = new GraphParser("Bath:York:12\nYork:Leeds:3\r\nLeeds:Bath:40").parse();
+		
+		assertEquals(edges("Bath:York:12", "York:Leeds:3", "Leeds:Bath:40"), edgesOf(graph));
+	}
+
+	@Test
+	public void separators() {
+		Graph graph = new GraphParser(" AB5,,BC4 \t CD8\n\n,DE6, ").parse();
+		
+		assertEquals(edges("A:B:5", "B:C:4", "C:D:8", "D:E:6"), edgesOf(graph));
+	}
+
+	@Test
+	public void repeatedEdgeKeepsTheFirstWeight() {
+		Graph graph = new GraphParser("AB5, AB1").parse();
+		
+		assertEquals(edges("A:B:5"), edgesOf(graph));
+	}
+
+	@Test
+	public void utf8Names() {
+		String input = "Z\u00fcrich:Gen\u00e8ve:3, Gen\u00e8ve:Besan\u00e7on:4";
+		Graph graph = new GraphParser(new ByteArrayInputStream(input.getBytes(UTF_8))).parse();
+		
+		assertEquals(edges("Z\u00fcrich:Gen\u00e8ve:3", "Gen\u00e8ve:Besan\u00e7on:4"), edgesOf(graph));
+	}
+
+	@Test
+	public void readerInput() {
+		Graph graph = new GraphParser(new StringReader("Z\u00fcrich:Gen\u00e8ve:3, AB2")).parse();
+		
+		assertEquals(edges("Z\u00fcrich:Gen\u00e8ve:3", "A:B:2"), edgesOf(graph));
+	}
+
+	@Test
+	public void emptyInput() {
+		assertEquals(0, new GraphParser(" ,\n").parse().freeze().getNodeCount());
+	}
+
+	@Test
+	public void invalidTokens() {
+		String[] invalid = { "A5", "AB", "ABC", "1B5", "AB-5", "AB5x", "Bath:York", "Bath::5", ":York:5", "Bath:York:", "Bath:York:5:6",
+				"AB99999999999" };
+		for (String token : invalid) {
+			try {
+				new GraphParser("AB1, " + token).parse();
+				fail(token + " should not parse");
+			} catch (RuntimeException e) {
+				assertTrue(e.getMessage(), e.getMessage().contains("does not fit the expected format"));
+			}
+		}
+	}
+
+	@Test
+	public void tokensSplitAcrossBuffers() {
+		byte[] input = "Bath:York:12, AB5\nYork:Leeds:3,CD40 Leeds:Bath:7".getBytes(UTF_8);
+		Set<String> whole = tokenize(input, input.length);
+		
+		assertEquals(edges("Bath:York:12", "A:B:5", "York:Leeds:3", "C:D:40", "Leeds:Bath:7"), whole);
+		for (int chunk = 1; chunk < input.length; chunk++) {
+			assertEquals(whole, tokenize(input, chunk));
+		}
+	}
+
+	// Feeds the tokenizer chunk bytes at a time
+	private static Set<String> tokenize(byte[] input, int chunk) {
+		final LabelTable labels = new LabelTable();
+		final Set<String> edges = new HashSet<String>();
+		EdgeTokenizer tokenizer = new EdgeTokenizer(labels, new EdgeTokenizer.EdgeSink() {
+			@Override
+			public void edge(int source, int dest, int weight) {
+				edges.add(labels.getLabel(source) + ":" + labels.getLabel(dest) + ":" + weight);
+			}
+		});
+		for (int start = 0; start < input.length; start += chunk) {
+			tokenizer.feed(input, start, Math.min(input.length, start + chunk));
+		}
+		tokenizer.finish();
+		return edges;
+	}
+
+	static Set<String> edges(String... edges) {
+		return new TreeSet<String>(Arrays.asList(edges));
+	}
+
+	/**
+	 * @param graph
+	 * @return Every edge in the graph as source:dest:weight
+	 */
+	static Set<String> edgesOf(Graph graph) {
+		CompactGraph compact = graph.freeze();
+		Set<String> edges = new TreeSet<String>();
+		for (int node = 0; node < compact.getNodeCount(); node++) {
+			for (int edge = compact.getFirstEdge(node); edge < compact.getEndEdge(node); edge++) {
+				edges.add(compact.getNode(node).getLabel() + ":" + compact.getNode(compact.getEdgeTarget(edge)).getLabel() + ":"
+						+ compact.getEdgeWeight(edge));
+			}
+		}
+		return edges;
+	}
+}
@@ -0,0 +1,79 @@
+package traintracks.graph.parser;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import traintracks.graph.Graph;
+import traintracks.utils.NetworkGenerator;
+
+public class MappedGraphLoaderTest {
+
+	private File file;
+
+	@Before
+	public void createFile() throws IOException {
+		file = File.createTempFile("graph", ".txt");
+	}
+
+	@After
+	public void deleteFile() {
+		file.delete();
+	}
+
+	@Test
+	public void smallFile() throws IOException {
+		write("Bath:York:12\nYork:Leeds:3, AB5\nAB7 Leeds:Bath:40\n");
+		Graph graph = new MappedGraphLoader(file, 4).load();
+		
+		assertEquals(GraphParserTest.edges("Bath:York:12", "York:Leeds:3", "A:B:5", "Leeds:Bath:40"), GraphParserTest.edgesOf(graph));
+	}
+
+	@Test
+	public void emptyFile() throws IOException {
+		assertEquals(0, new MappedGraphLoader(file, 2).load().freeze().getNodeCount());
+	}
+
+	@Test
+	public void manyChunksMatchTheParser() throws IOException {
+		// A few megabytes, so the file is cut into several chunks
+		new NetworkGenerator(60000).averageDegree(3).seed(42).write(file);
+		assertTrue(file.length() > 2 << 20);
+		
+		Graph parsed;
+		InputStream in = new FileInputStream(file);
+		try {
+			parsed = new GraphParser(in).parse();
+		} finally {
+			in.close();
+		}
+		Graph loaded = new MappedGraphLoader(file, 4).load();
+		
+		assertEquals(GraphParserTest.edgesOf(parsed), GraphParserTest.edgesOf(loaded));
+		assertEquals(parsed.freeze().getNodeCount(), loaded.freeze().getNodeCount());
+	}
+
+	@Test(expected = RuntimeException.class)
+	public void invalidToken() throws IOException {
+		write("AB5, A5");
+		new MappedGraphLoader(file, 2).load();
+	}
+
+	private void write(String contents) throws IOException {
+		OutputStream out = new FileOutputStream(file);
+		try {
+			out.write(contents.getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+	}
+}
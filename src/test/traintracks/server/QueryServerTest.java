@@ -0,0 +1,176 @@
+package traintracks.server;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import traintracks.graph.Graph;
+import traintracks.graph.Node;
+import traintracks.graph.parser.GraphParser;
+
+public class QueryServerTest {
+
+	private Graph graph;
+	private QueryServer server;
+	private Socket socket;
+	private BufferedReader in;
+	private Writer out;
+
+	@Before
+	public void start() throws IOException {
+		graph = new GraphParser("AB5, BC4, CD8, DC8, DE6, AD5, CE2, EB3, AE7").parse();
+		server = new QueryServer(graph, 0);
+		serveInBackground(server);
+		
+		socket = connect(server);
+		in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+		out = new OutputStreamWriter(socket.getOutputStream(), "UTF-8");
+	}
+
+	@After
+	public void stop() throws IOException {
+		socket.close();
+		server.close();
+	}
+
+	@Test
+	public void queries() throws IOException {
+		assertEquals("9", ask("DISTANCE A B C"));
+		assertEquals("NO SUCH ROUTE", ask("DISTANCE A E D"));
+		assertEquals("9 A B C", ask("SHORTEST A C"));
+		assertEquals("2", ask("TRIPS C C 1 3"));
+		assertEquals("7", ask("ROUTES C C 30"));
+	}
+
+	@Test
+	public void badQueriesKeepTheConnection() throws IOException {
+		assertTrue(ask("FLY A B").startsWith("ERROR"));
+		assertTrue(ask("DISTANCE A Z").startsWith("ERROR"));
+		assertTrue(ask("TRIPS A C x 3").startsWith("ERROR"));
+		assertTrue(ask("ROUTES A C").startsWith("ERROR"));
+		assertEquals("9", ask("DISTANCE A B C"));
+	}
+
+	@Test
+	public void failedQueryKeepsTheConnection() throws IOException {
+		// An edge that weighs nothing, straight out of A, which routes by distance can't count over
+		graph.addEdge(graph.getNodeByName("A"), new Node("F"), 0);
+		String answer = ask("ROUTES A C 30");
+		assertTrue(answer, answer.startsWith("ERROR "));
+		assertTrue(answer, answer.length() > "ERROR ".length());
+		assertEquals("9 A B C", ask("SHORTEST A C"));
+	}
+
+	@Test
+	public void limits() throws IOException {
+		server.maxStops(10).maxDistance(100);
+		assertEquals("2", ask("TRIPS C C 1 3"));
+		assertTrue(ask("TRIPS C C 1 11").startsWith("ERROR"));
+		assertTrue(ask("ROUTES C C 101").startsWith("ERROR"));
+		assertEquals("7", ask("ROUTES C C 30"));
+	}
+
+	@Test
+	public void idleConnectionsAreClosed() throws IOException {
+		QueryServer quick = new QueryServer(graph, 0).readTimeout(200);
+		serveInBackground(quick);
+		try {
+			Socket idle = connect(quick);
+			try {
+				// Nothing sent, so the server hangs up long before the client's own timeout
+				assertNull(new BufferedReader(new InputStreamReader(idle.getInputStream(), "UTF-8")).readLine());
+			} finally {
+				idle.close();
+			}
+		} finally {
+			quick.close();
+		}
+	}
+
+	@Test
+	public void connectionsPastTheLimitAreTurnedAway() throws IOException, InterruptedException {
+		QueryServer small = new QueryServer(graph, 0).maxConnections(1);
+		serveInBackground(small);
+		try {
+			Socket first = connect(small);
+			Writer firstOut = new OutputStreamWriter(first.getOutputStream(), "UTF-8");
+			BufferedReader firstIn = new BufferedReader(new InputStreamReader(first.getInputStream(), "UTF-8"));
+			firstOut.write("DISTANCE A B C\n");
+			firstOut.flush();
+			assertEquals("9", firstIn.readLine());
+			
+			Socket second = connect(small);
+			BufferedReader secondIn = new BufferedReader(new InputStreamReader(second.getInputStream(), "UTF-8"));
+			assertTrue(secondIn.readLine().startsWith("ERROR"));
+			assertNull(secondIn.readLine());
+			second.close();
+			
+			// Once the first one is done, there's room again
+			first.close();
+			String answer = null;
+			for (int i = 0; i < 100 && !"9".equals(answer); i++) {
+				Thread.sleep(10);
+				Socket next = connect(small);
+				try {
+					Writer nextOut = new OutputStreamWriter(next.getOutputStream(), "UTF-8");
+					nextOut.write("DISTANCE A B C\n");
+					nextOut.flush();
+					answer = new BufferedReader(new InputStreamReader(next.getInputStream(), "UTF-8")).readLine();
+				} catch (IOException e) {
+					// Turned away before the query got there, try again
+				} finally {
+					next.close();
+				}
+			}
+			assertEquals("9", answer);
+		} finally {
+			small.close();
+		}
+	}
+
+	@Test
+	public void quit() throws IOException {
+		assertEquals("9", ask("DISTANCE A B C"));
+		out.write("QUIT\n");
+		out.flush();
+		assertNull(in.readLine());
+	}
+
+	private static void serveInBackground(final QueryServer server) {
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					server.serve();
+				} catch (IOException e) {
+					// Closed under it
+				}
+			}
+		});
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private static Socket connect(QueryServer server) throws IOException {
+		Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+		socket.setSoTimeout(10000);
+		return socket;
+	}
+
+	private String ask(String query) throws IOException {
+		out.write(query);
+		out.write('\n');
+		out.flush();
+		return in.readLine();
+	}
+}
@@ -0,0 +1,85 @@
+package traintracks.utils;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+import traintracks.graph.CompactGraph;
+import traintracks.graph.Graph;
+import traintracks.graph.parser.GraphParser;
+import traintracks.utils.NetworkGenerator.WeightDistribution;
+
+public class NetworkGeneratorTest {
+
+	@Test
+	public void sameSeedSameNetwork() throws IOException {
+		for (WeightDistribution weights : WeightDistribution.values()) {
+			assertEquals(edgesOf(generator(500, 7, weights).generate()), edgesOf(generator(500, 7, weights).generate()));
+			assertArrayEquals(written(generator(500, 7, weights)), written(generator(500, 7, weights)));
+		}
+		assertFalse(edgesOf(generator(500, 7, WeightDistribution.UNIFORM).generate())
+				.equals(edgesOf(generator(500, 8, WeightDistribution.UNIFORM).generate())));
+	}
+
+	@Test
+	public void writtenNetworkParsesBack() throws IOException {
+		// Letters up to 26 stations, S0:S1:5 lines past that
+		for (int nodeCount : new int[] { 5, 26, 27, 1000 }) {
+			NetworkGenerator generator = generator(nodeCount, nodeCount, WeightDistribution.EXPONENTIAL);
+			Graph parsed = new GraphParser(new ByteArrayInputStream(written(generator))).parse();
+			assertEquals(edgesOf(generator.generate()), edgesOf(parsed));
+		}
+	}
+
+	@Test
+	public void everyStationReachesEveryOther() {
+		Graph graph = generator(300, 3, WeightDistribution.NORMAL).generate();
+		CompactGraph compact = graph.freeze();
+		assertEquals(300, compact.getNodeCount());
+		for (int node = 0; node < compact.getNodeCount(); node += 37) {
+			assertEquals(299, graph.computeShortestRoutes(compact.getNode(node)).size());
+		}
+	}
+
+	@Test
+	public void averageDegree() {
+		CompactGraph compact = new NetworkGenerator(2000).averageDegree(4).seed(1).generate().freeze();
+		assertEquals(4.0, compact.getEdgeCount() / 2000.0, 0.1);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void weightsFromOneUp() {
+		new NetworkGenerator(10).weights(WeightDistribution.UNIFORM, 0, 5);
+	}
+
+	private static NetworkGenerator generator(int nodeCount, long seed, WeightDistribution weights) {
+		return new NetworkGenerator(nodeCount).averageDegree(3).weights(weights, 2, 40).cycleDensity(0.3).clustering(0.6)
+				.lineLength(7).seed(seed);
+	}
+
+	private static byte[] written(NetworkGenerator generator) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		generator.write(out);
+		return out.toByteArray();
+	}
+
+	// Every edge as source:dest:weight
+	private static Set<String> edgesOf(Graph graph) {
+		CompactGraph compact = graph.freeze();
+		Set<String> edges = new TreeSet<String>();
+		for (int node = 0; node < compact.getNodeCount(); node++) {
+			for (int edge = compact.getFirstEdge(node); edge < compact.getEndEdge(node); edge++) {
+				edges.add(compact.getNode(node).getLabel() + ":" + compact.getNode(compact.getEdgeTarget(edge)).getLabel() + ":"
+						+ compact.getEdgeWeight(edge));
+			}
+		}
+		return edges;
+	}
+}